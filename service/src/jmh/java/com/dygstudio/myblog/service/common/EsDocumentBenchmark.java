@@ -0,0 +1,55 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 〈功能概述〉
+ * 批量写入热点路径的基准测试：构建 BulkRequest、处理 BulkResponse
+ * 响应来自 fixtures/bulk-response.json，包含 100 个索引、更新、删除结果，其中 2 个因队列已满（429）失败
+ * processBulkResponse 会逐条输出日志，结果包含日志的开销，运行时可以调整 log4j.properties 的级别对比
+ *
+ * @className: EsDocumentBenchmark
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/17 10:40 上午
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EsDocumentBenchmark {
+
+    private final EsDocument esDocument = new EsDocument();
+    private BulkResponse bulkResponse;
+
+    @Setup
+    public void setup() throws IOException {
+        bulkResponse = EsFixtures.bulkResponse();
+    }
+
+    @Benchmark
+    public BulkRequest buildBulkRequest() {
+        return esDocument.buildBulkRequest("posts", "message");
+    }
+
+    @Benchmark
+    public int processBulkResponse() {
+        return esDocument.processBulkResponse(bulkResponse);
+    }
+}
@@ -0,0 +1,63 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.metrics.AvgAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.ParsedAvg;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.term.TermSuggestion;
+import org.elasticsearch.search.suggest.term.TermSuggestionBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 〈功能概述〉
+ * 基准测试使用的响应数据，从 fixtures 目录下录制的 JSON 解析为 SearchResponse、BulkResponse，不需要连接集群
+ * 响应中的聚合和建议带有类型前缀（typed_keys），如 sterms#by_company，解析时按前缀找到对应的解析器，
+ * 这里只注册了录制的数据中用到的类型，录制新的数据时需要补充
+ *
+ * @className: EsFixtures
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/17 10:10 上午
+ */
+public class EsFixtures {
+
+    private static final NamedXContentRegistry REGISTRY = new NamedXContentRegistry(Arrays.asList(
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(StringTerms.NAME),
+                    (parser, name) -> ParsedStringTerms.fromXContent(parser, (String) name)),
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(AvgAggregationBuilder.NAME),
+                    (parser, name) -> ParsedAvg.fromXContent(parser, (String) name)),
+            new NamedXContentRegistry.Entry(Suggest.Suggestion.class, new ParseField(TermSuggestionBuilder.SUGGESTION_NAME),
+                    (parser, name) -> TermSuggestion.fromXContent(parser, (String) name))));
+
+    public static SearchResponse searchResponse() throws IOException {
+        try (XContentParser parser = parser("fixtures/search-response.json")) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    public static BulkResponse bulkResponse() throws IOException {
+        try (XContentParser parser = parser("fixtures/bulk-response.json")) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    private static XContentParser parser(String resource) throws IOException {
+        InputStream in = EsFixtures.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("fixture not found: " + resource);
+        }
+        return XContentType.JSON.xContent().createParser(REGISTRY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in);
+    }
+}
@@ -0,0 +1,84 @@
+package com.dygstudio.myblog.service.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 〈功能概述〉
+ * 搜索相关热点路径的基准测试：构建搜索请求、SearchResponse 转换为 SearchResult、SearchResult 序列化为接口输出的 JSON
+ * 响应来自 fixtures/search-response.json，包含 10 条带高亮的命中、一个词条聚合和一个词条建议
+ * 运行：mvn -P benchmark test-compile exec:exec，加上 -prof gc 可以看到每次操作分配的字节数
+ *
+ * @className: EsSearchBenchmark
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/17 10:30 上午
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EsSearchBenchmark {
+
+    private final EsSearch esSearch = new EsSearch();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SearchResponse searchResponse;
+    private SearchResult searchResult;
+
+    @Setup
+    public void setup() throws IOException {
+        searchResponse = EsFixtures.searchResponse();
+        searchResult = SearchResult.from(searchResponse);
+    }
+
+    @Benchmark
+    public SearchRequest buildSearchRequest() {
+        return esSearch.buildSearchRequest("message", "age");
+    }
+
+    //过滤列表查询
+    @Benchmark
+    public SearchRequest buildFilterQuery() {
+        return EsQuery.of("posts")
+                .filter("user", "kimchy")
+                .filterRange("postDate", "2020-01-01", null)
+                .sort("postDate", SortOrder.DESC)
+                .size(20)
+                .trackTotalHits(false)
+                .source("title", "postDate")
+                .build();
+    }
+
+    @Benchmark
+    public SearchResult convertSearchResponse() {
+        return SearchResult.from(searchResponse);
+    }
+
+    //转换并序列化，对应 /api/es/sr 的完整输出过程
+    @Benchmark
+    public byte[] formatSearchResponse() throws IOException {
+        return objectMapper.writeValueAsBytes(SearchResult.from(searchResponse));
+    }
+
+    @Benchmark
+    public byte[] serializeSearchResult() throws IOException {
+        return objectMapper.writeValueAsBytes(searchResult);
+    }
+}
@@ -0,0 +1,302 @@
+package com.dygstudio.myblog.service.perf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 〈功能概述〉
+ * 本地模拟的 Elasticsearch HTTP 服务，用于离线压测和联调，不需要真实集群
+ * 按路径返回录制的响应：_search、_msearch、_search/scroll、_count、_bulk，其余请求返回 acknowledged
+ * 可以配置每个请求的延迟和抖动、返回 5xx 错误的比例、返回 429（队列已满）的比例；_bulk 的 429 按文档返回，用于验证按文档重试
+ * 启动：mvn -P benchmark test-compile exec:exec -Dperf.main=com.dygstudio.myblog.service.perf.FakeEsServer
+ *      -Dperf.args="--port 9299 --latency 5 --jitter 5 --errorRate 0.01 --rejectRate 0.05"
+ * 应用使用 fakees 配置启动即可连接：--spring.profiles.active=fakees，请求统计：GET http://127.0.0.1:9299/_fake/stats
+ *
+ * @className: FakeEsServer
+ * @package: com.dygstudio.myblog.service.perf
+ * @author: diyaguang
+ * @date: 2020/9/17 2:10 下午
+ */
+public class FakeEsServer {
+
+    private final int port;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final int errorStatus;
+    private final double rejectRate;
+    private final int threads;
+
+    private final String searchResponse;
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeEsServer(Map<String, String> options) throws IOException {
+        this.port = Integer.parseInt(options.getOrDefault("port", "9299"));
+        this.latencyMillis = Long.parseLong(options.getOrDefault("latency", "5"));
+        this.jitterMillis = Long.parseLong(options.getOrDefault("jitter", "0"));
+        this.errorRate = Double.parseDouble(options.getOrDefault("errorRate", "0"));
+        this.errorStatus = Integer.parseInt(options.getOrDefault("errorStatus", "503"));
+        this.rejectRate = Double.parseDouble(options.getOrDefault("rejectRate", "0"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+        this.searchResponse = compact(readResource("fixtures/search-response.json"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        FakeEsServer server = new FakeEsServer(PerfOptions.parse(args));
+        server.start();
+        System.out.println("fake elasticsearch listening on http://127.0.0.1:" + server.port);
+    }
+
+    public void start() throws IOException {
+        //响应头和响应体分两次写出，不关闭 Nagle 算法时每个响应会多等待约 40 毫秒的延迟确认，压测结果失真
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            String body = readBody(exchange.getRequestBody());
+            if (path.equals("/_fake/stats")) {
+                send(exchange, 200, stats());
+                return;
+            }
+            String endpoint = endpointOf(path);
+            count(endpoint);
+            sleep();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!endpoint.equals("_bulk") && random.nextDouble() < rejectRate) {
+                count("rejected");
+                send(exchange, 429, error(429, "es_rejected_execution_exception", "rejected execution, queue capacity reached"));
+                return;
+            }
+            if (random.nextDouble() < errorRate) {
+                count("errors");
+                send(exchange, errorStatus, error(errorStatus, "fake_exception", "injected failure"));
+                return;
+            }
+            switch (endpoint) {
+                case "_search":
+                    send(exchange, 200, withScrollId(searchResponse, query != null && query.contains("scroll=")));
+                    break;
+                case "_search/scroll":
+                    send(exchange, 200, "DELETE".equals(method)
+                            ? "{\"succeeded\":true,\"num_freed\":1}"
+                            : "{\"_scroll_id\":\"fake-scroll\",\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                            + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}");
+                    break;
+                case "_msearch":
+                    send(exchange, 200, multiSearch(body));
+                    break;
+                case "_count":
+                    send(exchange, 200, "{\"count\":1342,\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0}}");
+                    break;
+                case "_bulk":
+                    send(exchange, 200, bulk(body));
+                    break;
+                case "root":
+                    send(exchange, 200, "{\"name\":\"fake\",\"cluster_name\":\"fake\",\"version\":{\"number\":\"7.2.1\"},\"tagline\":\"You Know, for Search\"}");
+                    break;
+                default:
+                    if ("HEAD".equals(method)) {
+                        exchange.sendResponseHeaders(200, -1);
+                        exchange.close();
+                    } else {
+                        send(exchange, 200, "{\"acknowledged\":true}");
+                    }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            send(exchange, 500, error(500, "fake_server_exception", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private static String endpointOf(String path) {
+        if (path.equals("/") || path.isEmpty()) {
+            return "root";
+        }
+        if (path.endsWith("/_search/scroll") || path.contains("/_search/scroll/")) {
+            return "_search/scroll";
+        }
+        for (String endpoint : new String[]{"_msearch", "_search", "_count", "_bulk"}) {
+            if (path.endsWith("/" + endpoint)) {
+                return endpoint;
+            }
+        }
+        return "other";
+    }
+
+    //_msearch 请求体每两行为一个搜索，每个搜索返回同一个录制的响应
+    private String multiSearch(String body) {
+        int searches = 0;
+        for (String line : body.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                searches++;
+            }
+        }
+        StringBuilder response = new StringBuilder("{\"took\":1,\"responses\":[");
+        for (int i = 0; i < searches / 2; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append(searchResponse, 0, searchResponse.length() - 1).append(",\"status\":200}");
+        }
+        return response.append("]}").toString();
+    }
+
+    /*
+     * 逐条返回 _bulk 的结果，按 rejectRate 随机返回 429 的失败项
+     * 请求体中 index、create、update 的下一行是文档内容，delete 没有文档内容
+     */
+    private String bulk(String body) {
+        String[] lines = body.split("\n");
+        StringBuilder items = new StringBuilder();
+        boolean errors = false;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int seqNo = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String opType = line.substring(line.indexOf('"') + 1, line.indexOf('"', line.indexOf('"') + 1));
+            if (!opType.equals("delete")) {
+                i++;
+            }
+            String index = field(line, "_index");
+            String id = field(line, "_id");
+            if (items.length() > 0) {
+                items.append(',');
+            }
+            items.append("{\"").append(opType).append("\":{\"_index\":\"").append(index).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id).append('"');
+            if (random.nextDouble() < rejectRate) {
+                errors = true;
+                count("bulkItemsRejected");
+                items.append(",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution of bulk item\"}}}");
+            } else {
+                String result = opType.equals("delete") ? "deleted" : opType.equals("update") ? "updated" : "created";
+                items.append(",\"_version\":1,\"result\":\"").append(result)
+                        .append("\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":").append(seqNo++)
+                        .append(",\"_primary_term\":1,\"status\":").append(result.equals("created") ? 201 : 200).append("}}");
+            }
+        }
+        return "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + items + "]}";
+    }
+
+    //从 _bulk 的操作行中取出字段值，例如 {"index":{"_index":"posts","_id":"1"}}
+    private static String field(String line, String name) {
+        int start = line.indexOf("\"" + name + "\":\"");
+        if (start < 0) {
+            return "";
+        }
+        start += name.length() + 4;
+        return line.substring(start, line.indexOf('"', start));
+    }
+
+    private static String withScrollId(String response, boolean scroll) {
+        return scroll ? "{\"_scroll_id\":\"fake-scroll\"," + response.substring(1) : response;
+    }
+
+    private static String error(int status, String type, String reason) {
+        return "{\"error\":{\"root_cause\":[{\"type\":\"" + type + "\",\"reason\":\"" + reason + "\"}],\"type\":\"" + type
+                + "\",\"reason\":\"" + reason + "\"},\"status\":" + status + "}";
+    }
+
+    private void sleep() throws InterruptedException {
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private String stats() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(entry.getKey()).append("\":").append(entry.getValue().get());
+        }
+        return json.append('}').toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String readResource(String name) throws IOException {
+        try (InputStream in = FakeEsServer.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("resource not found: " + name);
+            }
+            return readBody(in);
+        }
+    }
+
+    //录制的响应是格式化的 JSON，去掉换行和缩进，_msearch 拼接时更小
+    private static String compact(String json) {
+        StringBuilder out = new StringBuilder(json.length());
+        boolean inString = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"' && (i == 0 || json.charAt(i - 1) != '\\')) {
+                inString = !inString;
+            }
+            if (inString || !Character.isWhitespace(c)) {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
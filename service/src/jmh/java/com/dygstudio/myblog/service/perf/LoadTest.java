@@ -0,0 +1,141 @@
+package com.dygstudio.myblog.service.perf;
+
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 〈功能概述〉
+ * 固定速率的压测工具，按 rps 向 /api/es 等接口发送请求，结束后输出延迟分位数
+ * 按固定时间表发送请求（开环），不等待上一个请求返回；延迟从计划发送时间开始计算，服务变慢时排队的时间也计入延迟，
+ * 避免闭环压测在服务变慢时自动降低发送速率，掩盖真实的尾延迟（coordinated omission）
+ * 多个路径用逗号分隔，轮流发送
+ * 运行：mvn -P benchmark test-compile exec:exec -Dperf.main=com.dygstudio.myblog.service.perf.LoadTest
+ *      -Dperf.args="--url http://127.0.0.1:8090 --paths /api/es/sr?field=message&value=age,/api/es/count?indexName=posts --rps 200 --duration 30"
+ *
+ * @className: LoadTest
+ * @package: com.dygstudio.myblog.service.perf
+ * @author: diyaguang
+ * @date: 2020/9/17 2:40 下午
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = PerfOptions.parse(args);
+        String url = options.getOrDefault("url", "http://127.0.0.1:8090");
+        String[] paths = options.getOrDefault("paths", "/api/es/sr?field=message&value=age").split(",");
+        int rps = Integer.parseInt(options.getOrDefault("rps", "100"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int timeout = Integer.parseInt(options.getOrDefault("timeout", "10000"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "200"));
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout).setSocketTimeout(timeout).setConnectionRequestTimeout(timeout).build();
+        try (CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setMaxConnTotal(connections).setMaxConnPerRoute(connections)
+                .build()) {
+            client.start();
+            if (warmup > 0) {
+                System.out.println("warmup " + warmup + "s");
+                run(client, url, paths, rps, warmup, timeout);
+            }
+            System.out.println("run " + duration + "s at " + rps + " rps");
+            Result result = run(client, url, paths, rps, duration, timeout);
+            result.print(duration);
+        }
+    }
+
+    private static class Result {
+        //1 微秒到 1 分钟，3 位有效数字
+        private final Histogram histogram = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+        private final Map<String, AtomicLong> statuses = new TreeMap<>();
+        private final AtomicLong failures = new AtomicLong();
+        private long sent;
+        private long unfinished;
+
+        private synchronized void record(long latencyMicros, String status) {
+            histogram.recordValue(Math.min(latencyMicros, histogram.getHighestTrackableValue()));
+            statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+        }
+
+        private synchronized void print(int duration) {
+            System.out.println("sent " + sent + ", completed " + histogram.getTotalCount() + ", unfinished " + unfinished
+                    + ", failures " + failures.get() + ", throughput " + histogram.getTotalCount() / Math.max(1, duration) + "/s");
+            System.out.println("status " + statuses);
+            System.out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f  mean %.2f%n",
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()), histogram.getMean() / 1000);
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+    private static Result run(CloseableHttpAsyncClient client, String url, String[] paths, int rps, int seconds, int timeout)
+            throws InterruptedException {
+        Result result = new Result();
+        long total = (long) rps * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        CountDownLatch done = new CountDownLatch((int) total);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            HttpGet request = new HttpGet(url + paths[(int) (i % paths.length)]);
+            client.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        EntityUtils.consume(response.getEntity());
+                    } catch (IOException e) {
+                        //响应体读取失败不影响延迟统计
+                    }
+                    result.record(micros(intended), String.valueOf(response.getStatusLine().getStatusCode()));
+                    done.countDown();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    result.failures.incrementAndGet();
+                    result.record(micros(intended), e.getClass().getSimpleName());
+                    done.countDown();
+                }
+
+                @Override
+                public void cancelled() {
+                    result.failures.incrementAndGet();
+                    done.countDown();
+                }
+            });
+            result.sent++;
+        }
+        if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+            result.unfinished = done.getCount();
+        }
+        return result;
+    }
+
+    private static long micros(long intendedNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+    }
+}
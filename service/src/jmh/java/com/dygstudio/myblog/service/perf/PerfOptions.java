@@ -0,0 +1,32 @@
+package com.dygstudio.myblog.service.perf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * 解析压测工具的命令行参数，格式为 --名称 值，例如 --port 9299 --latency 5
+ *
+ * @className: PerfOptions
+ * @package: com.dygstudio.myblog.service.perf
+ * @author: diyaguang
+ * @date: 2020/9/17 2:00 下午
+ */
+public class PerfOptions {
+
+    public static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 >= args.length || args[i + 1].startsWith("--")) {
+                options.put(name, "true");
+            } else {
+                options.put(name, args[++i]);
+            }
+        }
+        return options;
+    }
+}
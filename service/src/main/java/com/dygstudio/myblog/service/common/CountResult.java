@@ -0,0 +1,107 @@
+package com.dygstudio.myblog.service.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.core.CountResponse;
+
+/**
+ * 〈功能概述〉
+ * 统计结果，由 CountResponse 或 size 为 0 的 SearchResponse 转换而来
+ * exact 为 false 时 count 是下限，实际数量大于等于 count，display 为 "N+"，列表分页只需要显示 “共 1000+ 条”
+ * 搜索超时（timedOut 为 true）时只统计了部分分片或部分文档，数量同样按下限处理，不会写入缓存
+ *
+ * @className: CountResult
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/16 4:10 下午
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CountResult {
+    private String code; //状态码
+    private String msg;  //提示信息
+    private long count;  //数量，exact 为 false 时为下限
+    private boolean exact;
+    private String display; //显示的数量文本，例如 "25"、"1000+"
+    private int totalShards;
+    private int failedShards;
+    private Boolean terminatedEarly;
+    private boolean timedOut;
+
+    public CountResult() {
+    }
+
+    //Count API 统计的是精确数量
+    public static CountResult from(CountResponse response) {
+        CountResult result = of(response.getCount(), true);
+        result.totalShards = response.getTotalShards();
+        result.failedShards = response.getFailedShards();
+        result.terminatedEarly = response.isTerminatedEarly();
+        return result;
+    }
+
+    //track_total_hits 到达上限后 relation 为 gte，数量为下限；超时返回的 relation 仍为 eq，但只是已经统计到的部分，也是下限
+    public static CountResult from(SearchResponse response) {
+        TotalHits totalHits = response.getHits().getTotalHits();
+        CountResult result = totalHits == null ? of(0, false)
+                : of(totalHits.value, totalHits.relation == TotalHits.Relation.EQUAL_TO && !response.isTimedOut());
+        result.timedOut = response.isTimedOut();
+        result.totalShards = response.getTotalShards();
+        result.failedShards = response.getFailedShards();
+        result.terminatedEarly = response.isTerminatedEarly();
+        return result;
+    }
+
+    public static CountResult of(long count, boolean exact) {
+        CountResult result = new CountResult();
+        result.code = SysConstant.RESULT_CODE_SUCCESSFUL;
+        result.msg = SysConstant.RESULT_MSG_SUCCESSFUL;
+        result.count = count;
+        result.exact = exact;
+        result.display = exact ? String.valueOf(count) : count + "+";
+        return result;
+    }
+
+    public static CountResult failure(String msg) {
+        CountResult result = new CountResult();
+        result.code = SysConstant.RESULT_CODE_FAILURE;
+        result.msg = msg;
+        return result;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    public String getDisplay() {
+        return display;
+    }
+
+    public int getTotalShards() {
+        return totalShards;
+    }
+
+    public int getFailedShards() {
+        return failedShards;
+    }
+
+    public Boolean getTerminatedEarly() {
+        return terminatedEarly;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
@@ -0,0 +1,418 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 〈功能概述〉
+ * 批量请求失败处理
+ * 按文档对批量响应中的失败项分类：429（队列已满）、502、503、504 为可重试，其余（如映射错误、版本冲突）为永久失败
+ * 可重试的失败项按指数退避只重新提交失败的那部分文档，重试次数用尽或永久失败的文档写入本地死信文件，之后可通过 replay 重放
+ * 死信文件每行一个 JSON，包含索引名称、文档ID、路由、操作类型、失败状态、失败原因和文档内容
+ *
+ * @className: EsBulkFailureHandler
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/10 5:40 下午
+ */
+@Component
+public class EsBulkFailureHandler {
+
+    private static final ObjectMapper DEAD_LETTER_MAPPER = new ObjectMapper();
+
+    @Resource
+    private EsUtil esUtil;
+
+    @Resource
+    private EsProperties esProperties;
+
+    /*
+     * 批量请求的最终结果
+     */
+    public static class BulkOutcome {
+        private int total;        //文档总数
+        private int succeeded;    //最终写入成功的文档数
+        private int retried;      //重新提交过的文档次数
+        private int deadLettered; //写入死信文件的文档数
+
+        public boolean isSuccessful() {
+            return deadLettered == 0;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getRetried() {
+            return retried;
+        }
+
+        public int getDeadLettered() {
+            return deadLettered;
+        }
+
+        @Override
+        public String toString() {
+            return "total " + total + ", succeeded " + succeeded + ", retried " + retried + ", dead-lettered " + deadLettered;
+        }
+    }
+
+    public static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS
+                || status == RestStatus.SERVICE_UNAVAILABLE
+                || status == RestStatus.BAD_GATEWAY
+                || status == RestStatus.GATEWAY_TIMEOUT;
+    }
+
+    /*
+     * 处理已执行批量请求的响应
+     * 响应中的失败项通过 BulkItemResponse.getItemId() 找到原始请求，只把可重试的失败项组成新的 BulkRequest 重新提交
+     * 重试请求出错时剩下的失败项写入死信文件，不抛出异常，返回时每个失败项都已经写入死信文件，且只写入一次
+     */
+    public BulkOutcome handle(BulkRequest request, BulkResponse response) throws IOException {
+        BulkOutcome outcome = new BulkOutcome();
+        outcome.total = request.numberOfActions();
+        EsProperties.Bulk config = esProperties.getBulk();
+        long delay = config.getBackoffInitialDelay();
+        int attempt = 0;
+        while (true) {
+            List<DocWriteRequest<?>> requests = request.requests();
+            BulkRequest retryRequest = new BulkRequest();
+            int rejected = 0;
+            retryRequest.timeout(request.timeout());
+            retryRequest.setRefreshPolicy(request.getRefreshPolicy());
+            for (BulkItemResponse item : response) {
+                if (!item.isFailed()) {
+                    outcome.succeeded++;
+                    continue;
+                }
+                DocWriteRequest<?> itemRequest = requests.get(item.getItemId());
+                if (item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+                if (isRetryable(item.status()) && attempt < config.getBackoffMaxRetries()) {
+                    retryRequest.add(itemRequest);
+                } else {
+                    deadLetter(itemRequest, item.status(), item.getFailureMessage());
+                    outcome.deadLettered++;
+                }
+            }
+            esUtil.metrics.recordBulkRejections(rejected);
+            if (retryRequest.numberOfActions() == 0) {
+                esUtil.metrics.recordBulk(outcome.total, outcome.deadLettered);
+                return outcome;
+            }
+            attempt++;
+            outcome.retried += retryRequest.numberOfActions();
+            esUtil.metrics.recordBulkRetries(retryRequest.numberOfActions());
+            EsUtil.log.info("retry " + retryRequest.numberOfActions() + " failed bulk items, attempt " + attempt + " after " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (DocWriteRequest<?> itemRequest : retryRequest.requests()) {
+                    deadLetter(itemRequest, null, "interrupted before retry");
+                    outcome.deadLettered++;
+                }
+                esUtil.metrics.recordBulk(outcome.total, outcome.deadLettered);
+                return outcome;
+            }
+            delay *= 2;
+            request = retryRequest;
+            try {
+                response = esUtil.restHighLevelClient.bulk(request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            } catch (IOException | RuntimeException e) {
+                //前面的失败项已经写入死信文件，这里不能再抛出异常，否则调用方会把整批重新写回死信文件，这些失败项会重复
+                //重试请求本身失败（例如 ES 不可用）时，把剩下的重试项也写入死信文件后返回
+                List<FailedItem> items = new ArrayList<>(retryRequest.numberOfActions());
+                for (DocWriteRequest<?> itemRequest : retryRequest.requests()) {
+                    items.add(new FailedItem(itemRequest, null, "retry failed: " + e.getMessage()));
+                }
+                deadLetter(items);
+                outcome.deadLettered += items.size();
+                esUtil.metrics.recordBulk(outcome.total, outcome.deadLettered);
+                return outcome;
+            }
+        }
+    }
+
+    /*
+     * 执行批量请求，并处理其中的失败项
+     */
+    public BulkOutcome execute(BulkRequest request) throws IOException {
+        BulkResponse response = esUtil.restHighLevelClient.bulk(request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+        Set<String> indices = new LinkedHashSet<>();
+        for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+            indices.add(docWriteRequest.index());
+        }
+        esUtil.searchCache.invalidate(indices.toArray(new String[0]));
+        return handle(request, response);
+    }
+
+    /*
+     * 一个要写入死信文件的失败文档
+     */
+    public static class FailedItem {
+        final DocWriteRequest<?> request;
+        final RestStatus status;
+        final String reason;
+
+        public FailedItem(DocWriteRequest<?> request, RestStatus status, String reason) {
+            this.request = request;
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+    /*
+     * 把失败的请求追加到死信文件
+     */
+    public void deadLetter(DocWriteRequest<?> request, RestStatus status, String reason) {
+        deadLetter(Collections.singletonList(new FailedItem(request, status, reason)));
+    }
+
+    /*
+     * 把一批失败的请求追加到死信文件，整批只打开一次文件，多个线程同时写入时串行执行，保证每行完整
+     * 需要转换文档内容并写文件，不应在 HTTP 客户端的 IO 线程中调用
+     */
+    public synchronized void deadLetter(List<FailedItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<String> lines = new ArrayList<>(items.size());
+        for (FailedItem item : items) {
+            Map<String, Object> record = toRecord(item);
+            try {
+                lines.add(DEAD_LETTER_MAPPER.writeValueAsString(record));
+            } catch (IOException e) {
+                EsUtil.log.info("write dead letter failed: " + record + ", " + e.getMessage());
+            }
+        }
+        try {
+            append(lines);
+        } catch (IOException e) {
+            //死信文件写入失败时至少保留日志，便于人工恢复
+            EsUtil.log.info("write dead letter failed: " + lines + ", " + e.getMessage());
+        }
+    }
+
+    private synchronized void append(List<String> lines) throws IOException {
+        Path path = getDeadLetterPath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static Map<String, Object> toRecord(FailedItem item) {
+        DocWriteRequest<?> request = item.request;
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("index", request.index());
+        record.put("id", request.id());
+        record.put("routing", request.routing());
+        record.put("opType", request.opType().getLowercase());
+        record.put("status", item.status == null ? null : item.status.getStatus());
+        record.put("reason", item.reason);
+        record.put("time", System.currentTimeMillis());
+        try {
+            if (request instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) request;
+                record.put("source", toJson(indexRequest.source(), indexRequest.getContentType()));
+            } else if (request instanceof UpdateRequest) {
+                UpdateRequest updateRequest = (UpdateRequest) request;
+                if (updateRequest.doc() != null) {
+                    record.put("source", toJson(updateRequest.doc().source(), updateRequest.doc().getContentType()));
+                }
+            }
+        } catch (IOException e) {
+            //文档内容无法转换时只记录元数据，重放时会跳过
+            record.put("sourceError", e.getMessage());
+        }
+        return record;
+    }
+
+    /*
+     * 重放死信文件
+     * 先把死信文件改名，避免重放期间新的失败记录写入同一个文件，重放中再次失败的文档会重新写入死信文件
+     * 上次重放中断时留下的 .replaying 文件优先继续重放，这次不处理新的死信文件，下次调用时再处理
+     * 批次的第一次批量请求出错（例如 ES 不可用）时，把当前批次和还没有读取的记录追加回死信文件后再抛出异常，不丢失记录；
+     * 出错的批次可能已经部分写入，再次重放时会重复写入这些文档（写入是幂等的），
+     * 之后的重试出错由 handle 把剩下的失败项写入死信文件，不会抛出到这里，已经写入死信文件的失败项不会再被写回
+     */
+    public BulkOutcome replay() throws IOException {
+        BulkOutcome outcome = new BulkOutcome();
+        Path path = getDeadLetterPath();
+        Path replaying = path.resolveSibling(path.getFileName() + ".replaying");
+        synchronized (this) {
+            if (!Files.exists(replaying)) {
+                if (!Files.exists(path)) {
+                    return outcome;
+                }
+                Files.move(path, replaying);
+            }
+        }
+        int batchSize = Math.max(1, esProperties.getBulk().getBulkActions());
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        List<String> batchLines = new ArrayList<>();
+        Exception failure = null;
+        try (BufferedReader reader = Files.newBufferedReader(replaying, StandardCharsets.UTF_8)) {
+            BulkRequest request = new BulkRequest();
+            String line;
+            try {
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    DocWriteRequest<?> docWriteRequest = fromLine(line);
+                    if (docWriteRequest == null) {
+                        EsUtil.log.info("skip invalid dead letter: " + line);
+                        continue;
+                    }
+                    request.add(docWriteRequest);
+                    batchLines.add(line);
+                    if (request.numberOfActions() >= batchSize) {
+                        merge(outcome, execute(withTimeout(request, timeout)));
+                        request = new BulkRequest();
+                        batchLines.clear();
+                    }
+                }
+                if (request.numberOfActions() > 0) {
+                    merge(outcome, execute(withTimeout(request, timeout)));
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        batchLines.add(line);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            //写回失败时保留 .replaying 文件，下次重放时继续
+            append(batchLines);
+            Files.delete(replaying);
+            EsUtil.log.info("replay dead letters failed, " + batchLines.size() + " records written back: " + failure.getMessage());
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+        Files.delete(replaying);
+        return outcome;
+    }
+
+    private static BulkRequest withTimeout(BulkRequest request, TimeValue timeout) {
+        if (timeout != null) {
+            request.timeout(timeout);
+        }
+        return request;
+    }
+
+    private static void merge(BulkOutcome outcome, BulkOutcome batch) {
+        outcome.total += batch.total;
+        outcome.succeeded += batch.succeeded;
+        outcome.retried += batch.retried;
+        outcome.deadLettered += batch.deadLettered;
+    }
+
+    //无法解析的记录返回 null，由调用方跳过
+    private static DocWriteRequest<?> fromLine(String line) {
+        try {
+            return fromRecord(DEAD_LETTER_MAPPER.readValue(line, new TypeReference<Map<String, Object>>() {
+            }));
+        } catch (IOException | IllegalArgumentException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static DocWriteRequest<?> fromRecord(Map<String, Object> record) {
+        String index = (String) record.get("index");
+        String id = (String) record.get("id");
+        String opType = (String) record.get("opType");
+        String source = (String) record.get("source");
+        if (index == null || opType == null) {
+            return null;
+        }
+        DocWriteRequest<?> request;
+        switch (DocWriteRequest.OpType.fromString(opType)) {
+            case INDEX:
+            case CREATE:
+                if (source == null) {
+                    return null;
+                }
+                IndexRequest indexRequest = new IndexRequest(index).id(id).source(source, XContentType.JSON);
+                indexRequest.opType(DocWriteRequest.OpType.fromString(opType));
+                request = indexRequest;
+                break;
+            case UPDATE:
+                if (id == null || source == null) {
+                    return null;
+                }
+                request = new UpdateRequest(index, id).doc(source, XContentType.JSON);
+                break;
+            case DELETE:
+                if (id == null) {
+                    return null;
+                }
+                request = new DeleteRequest(index, id);
+                break;
+            default:
+                return null;
+        }
+        request.routing((String) record.get("routing"));
+        return request;
+    }
+
+    private static String toJson(BytesReference source, XContentType contentType) throws IOException {
+        if (source == null) {
+            return null;
+        }
+        return XContentHelper.convertToJson(source, false, contentType == null ? XContentType.JSON : contentType);
+    }
+
+    private Path getDeadLetterPath() {
+        return Paths.get(esProperties.getBulk().getDeadLetterPath());
+    }
+}
@@ -0,0 +1,385 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 〈功能概述〉
+ * 批量写入服务
+ * 每个索引对应一个长期存在的 BulkProcessor，应用运行期间一直复用，在容器销毁时 awaitClose 等待所有批次写完
+ * 批次大小、刷新间隔、并发请求数、退避策略都来自 application.yml 中的 elasticsearch.bulk 配置
+ * 写入方通过 add 添加请求，已提交但还未完成的请求字节数超过上限时，add 会阻塞，避免写入速度超过 ES 处理速度时内存溢出
+ * 被拒绝（429）的文档由 BulkProcessor 的退避策略只重试失败的部分，重试用尽仍失败的文档和永久失败的文档写入死信文件
+ * 批次回调在 HTTP 客户端的 IO 线程中执行，失败文档的查找和死信文件的写入交给单独的线程按批次执行，写完后才释放批次的在途字节数
+ *
+ * @className: EsBulkIngester
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/10 3:15 下午
+ */
+@Component
+public class EsBulkIngester {
+
+    //与 BulkRequest 中估算请求大小时使用的固定开销一致
+    private static final int REQUEST_OVERHEAD = 50;
+
+    @Resource
+    private EsUtil esUtil;
+
+    @Resource
+    private EsProperties esProperties;
+
+    @Resource
+    private EsBulkFailureHandler esBulkFailureHandler;
+
+    private final Map<String, BulkProcessor> processors = new ConcurrentHashMap<>();
+    private final Map<String, BulkStats> stats = new ConcurrentHashMap<>();
+    //写死信文件的线程，批次的在途字节数在写完后才释放，所以等待写入的批次总大小不超过在途字节数上限
+    private ExecutorService deadLetterExecutor;
+    //在途字节数的许可，每个请求添加前获取，所在批次完成（成功或失败）后释放
+    private Semaphore inFlightBytes;
+
+    /*
+     * 批次统计信息
+     * 记录批次数、文档数、失败文档数、失败批次数、批次耗时，以及被 ES 拒绝（429）后由退避策略重试的次数
+     */
+    public static class BulkStats {
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong failedItems = new AtomicLong();
+        final AtomicLong failedBatches = new AtomicLong();
+        final AtomicLong rejectedItems = new AtomicLong();
+        final AtomicLong bulkCalls = new AtomicLong();
+        final AtomicLong totalLatencyMillis = new AtomicLong();
+        final AtomicLong maxLatencyMillis = new AtomicLong();
+        final Map<Long, Long> startTimes = new ConcurrentHashMap<>();
+        //正在执行的批次的原始请求，按对象引用比较，用于区分首次发送和退避重试
+        final Set<BulkRequest> firstAttempts = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        void recordLatency(long executionId) {
+            Long start = startTimes.remove(executionId);
+            if (start == null) {
+                return;
+            }
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            totalLatencyMillis.addAndGet(latency);
+            maxLatencyMillis.accumulateAndGet(latency, Math::max);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long batchCount = batches.get();
+            map.put("batches", batchCount);
+            map.put("items", items.get());
+            map.put("failedItems", failedItems.get());
+            map.put("failedBatches", failedBatches.get());
+            map.put("rejectedItems", rejectedItems.get());
+            //退避重试时 BulkProcessor 会再次发送失败的文档，发送次数减去批次数即为重试次数
+            map.put("retries", Math.max(0, bulkCalls.get() - batchCount - startTimes.size()));
+            map.put("avgLatencyMillis", batchCount == 0 ? 0 : totalLatencyMillis.get() / batchCount);
+            map.put("maxLatencyMillis", maxLatencyMillis.get());
+            return map;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        deadLetterExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "es-bulk-dead-letter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private synchronized Semaphore getInFlightBytes() {
+        if (inFlightBytes == null) {
+            inFlightBytes = new Semaphore(esProperties.getBulk().getMaxInFlightBytes());
+        }
+        return inFlightBytes;
+    }
+
+    /*
+     * 添加写入请求，按请求的索引名称分配到对应的 BulkProcessor
+     * 在途字节数超过上限时，先刷新当前索引缓冲中的请求，再阻塞等待已提交的批次完成
+     */
+    public void add(DocWriteRequest<?> request) throws InterruptedException {
+        int size = permitsOf(request);
+        BulkProcessor processor = getProcessor(request.index());
+        Semaphore semaphore = getInFlightBytes();
+        if (!semaphore.tryAcquire(size)) {
+            processor.flush();
+            semaphore.acquire(size);
+        }
+        try {
+            processor.add(request);
+        } catch (RuntimeException e) {
+            semaphore.release(size);
+            throw e;
+        }
+    }
+
+    public void flush() {
+        for (BulkProcessor processor : processors.values()) {
+            processor.flush();
+        }
+    }
+
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, BulkStats> entry : stats.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+
+    private BulkProcessor getProcessor(String index) {
+        return processors.computeIfAbsent(index, this::buildProcessor);
+    }
+
+    /* 创建批处理器，使用异步方式
+     * 根据当前添加的操作数、操作大小设置刷新批量请求的时机，设置允许执行的并发请求数（0 表示添加请求的线程同步执行批次），设置刷新间隔
+     * 后退策略使用指数退避，批次中的文档被 ES 拒绝（EsRejectedExecutionException，429）时，按 初始间隔*2^n 的间隔重试被拒绝的文档
+     */
+    private BulkProcessor buildProcessor(String index) {
+        EsProperties.Bulk config = esProperties.getBulk();
+        BulkStats bulkStats = stats.computeIfAbsent(index, key -> new BulkStats());
+        BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+                bulkStats.startTimes.put(executionId, System.nanoTime());
+                bulkStats.firstAttempts.add(request);
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                esUtil.searchCache.invalidate(index);
+                bulkStats.recordLatency(executionId);
+                bulkStats.firstAttempts.remove(request);
+                bulkStats.batches.incrementAndGet();
+                bulkStats.items.addAndGet(request.numberOfActions());
+                int failed = 0;
+                if (response.hasFailures()) {
+                    for (BulkItemResponse item : response) {
+                        if (item.isFailed()) {
+                            failed++;
+                        }
+                    }
+                    bulkStats.failedItems.addAndGet(failed);
+                }
+                esUtil.metrics.recordBulk(request.numberOfActions(), failed);
+                if (failed == 0) {
+                    release(request);
+                    return;
+                }
+                deadLetterLater(request, () -> {
+                    List<EsBulkFailureHandler.FailedItem> items = new ArrayList<>();
+                    Map<String, DocWriteRequest<?>> requestsById = indexById(request);
+                    for (BulkItemResponse item : response) {
+                        if (item.isFailed()) {
+                            DocWriteRequest<?> failedRequest = findRequest(request, requestsById, item);
+                            if (failedRequest != null) {
+                                items.add(new EsBulkFailureHandler.FailedItem(failedRequest, item.status(), item.getFailureMessage()));
+                            }
+                        }
+                    }
+                    esBulkFailureHandler.deadLetter(items);
+                    EsUtil.log.info("bulk " + executionId + " on index " + index + " has failures: " + response.buildFailureMessage());
+                });
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                //请求失败时 ES 可能已经写入了其中一部分文档
+                esUtil.searchCache.invalidate(index);
+                bulkStats.recordLatency(executionId);
+                bulkStats.firstAttempts.remove(request);
+                esUtil.metrics.recordBulk(request.numberOfActions(), request.numberOfActions());
+                bulkStats.batches.incrementAndGet();
+                bulkStats.items.addAndGet(request.numberOfActions());
+                bulkStats.failedBatches.incrementAndGet();
+                bulkStats.failedItems.addAndGet(request.numberOfActions());
+                deadLetterLater(request, () -> {
+                    List<EsBulkFailureHandler.FailedItem> items = new ArrayList<>(request.numberOfActions());
+                    for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                        items.add(new EsBulkFailureHandler.FailedItem(docWriteRequest, null, failure.getMessage()));
+                    }
+                    esBulkFailureHandler.deadLetter(items);
+                    EsUtil.log.info("bulk " + executionId + " on index " + index + " failed: " + failure.getMessage());
+                });
+            }
+        };
+        BulkProcessor.Builder builder = BulkProcessor.builder((request, bulkListener) -> {
+            bulkStats.bulkCalls.incrementAndGet();
+            //退避重试时发送的是只包含失败文档的新请求，不是 beforeBulk 收到的原始请求
+            if (!bulkStats.firstAttempts.contains(request)) {
+                esUtil.metrics.recordBulkRetries(request.numberOfActions());
+            }
+            //BulkProcessor 创建的请求使用默认的 1 分钟，这里使用 bulk-large 配置的服务端超时时间
+            TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+            if (timeout != null) {
+                request.timeout(timeout);
+            }
+            esUtil.restHighLevelClient.bulkAsync(request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE), new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    if (response.hasFailures()) {
+                        int rejected = 0;
+                        for (BulkItemResponse item : response) {
+                            if (item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                                rejected++;
+                            }
+                        }
+                        bulkStats.rejectedItems.addAndGet(rejected);
+                        esUtil.metrics.recordBulkRejections(rejected);
+                    }
+                    bulkListener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    bulkListener.onFailure(e);
+                }
+            });
+        }, listener);
+        builder.setBulkActions(config.getBulkActions());
+        builder.setBulkSize(new ByteSizeValue(config.getBulkSize(), ByteSizeUnit.BYTES));
+        builder.setConcurrentRequests(config.getConcurrentRequests());
+        if (config.getFlushInterval() > 0) {
+            builder.setFlushInterval(TimeValue.timeValueMillis(config.getFlushInterval()));
+        }
+        builder.setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+                TimeValue.timeValueMillis(config.getBackoffInitialDelay()), config.getBackoffMaxRetries()));
+        EsUtil.log.info("BulkProcessor created for index " + index);
+        return builder.build();
+    }
+
+    /*
+     * 在死信线程中处理失败批次，处理完成后释放批次的在途字节数
+     * 容器关闭后线程池不再接收任务，这时在当前线程中处理，不丢失失败的文档
+     */
+    private void deadLetterLater(BulkRequest request, Runnable task) {
+        Runnable releasing = () -> {
+            try {
+                task.run();
+            } finally {
+                release(request);
+            }
+        };
+        try {
+            deadLetterExecutor.execute(releasing);
+        } catch (RejectedExecutionException e) {
+            releasing.run();
+        }
+    }
+
+    //按 索引名称+文档ID 索引批次中的请求，每个批次只建一次，查找失败项时不再逐个遍历
+    private static Map<String, DocWriteRequest<?>> indexById(BulkRequest request) {
+        Map<String, DocWriteRequest<?>> requestsById = new HashMap<>();
+        for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+            if (docWriteRequest.id() != null) {
+                requestsById.putIfAbsent(docWriteRequest.index() + "/" + docWriteRequest.id(), docWriteRequest);
+            }
+        }
+        return requestsById;
+    }
+
+    /*
+     * 查找失败项对应的原始请求
+     * 退避重试后 BulkProcessor 合并的响应中，itemId 是在重试请求中的位置，所以优先按索引名称和文档ID查找
+     */
+    private static DocWriteRequest<?> findRequest(BulkRequest request, Map<String, DocWriteRequest<?>> requestsById, BulkItemResponse item) {
+        if (item.getId() != null) {
+            DocWriteRequest<?> docWriteRequest = requestsById.get(item.getIndex() + "/" + item.getId());
+            if (docWriteRequest != null) {
+                return docWriteRequest;
+            }
+        }
+        List<DocWriteRequest<?>> requests = request.requests();
+        int itemId = item.getItemId();
+        return itemId < requests.size() ? requests.get(itemId) : null;
+    }
+
+    private void release(BulkRequest request) {
+        int size = 0;
+        for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+            size += permitsOf(docWriteRequest);
+        }
+        getInFlightBytes().release(size);
+    }
+
+    /*
+     * 估算请求大小，与 BulkRequest.estimatedSizeInBytes 的计算方式一致
+     * 单个请求超过在途字节数上限时按上限计算，避免永远获取不到许可
+     */
+    private int permitsOf(DocWriteRequest<?> request) {
+        long size = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            if (indexRequest.source() != null) {
+                size += indexRequest.source().length();
+            }
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            if (updateRequest.doc() != null && updateRequest.doc().source() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null && updateRequest.upsertRequest().source() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+        }
+        return (int) Math.min(size, esProperties.getBulk().getMaxInFlightBytes());
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Map.Entry<String, BulkProcessor> entry : processors.entrySet()) {
+            try {
+                boolean terminated = entry.getValue().awaitClose(esProperties.getBulk().getAwaitCloseSeconds(), TimeUnit.SECONDS);
+                EsUtil.log.info("BulkProcessor for index " + entry.getKey() + " closed, all bulk requests completed: " + terminated);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        //批次全部完成后再关闭死信线程，等待已提交的失败批次写完
+        deadLetterExecutor.shutdown();
+        try {
+            if (!deadLetterExecutor.awaitTermination(esProperties.getBulk().getAwaitCloseSeconds(), TimeUnit.SECONDS)) {
+                EsUtil.log.info("dead letter writer did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 〈功能概述〉
+ * 请求的截止时间，由 Controller 按调用方愿意等待的时间创建，经过 EsQuery、EsSearch、EsDocument 传递到 ES 请求上
+ * 截止时间作用于两个地方：
+ * 1.ES 服务端的 timeout，搜索在剩余时间内返回已经得到的部分结果，写入请求等待分片的时间不超过剩余时间
+ * 2.调用方的等待：异步调用返回的 CompletableFuture 到期后以 TimeoutException 完成，
+ *   同步调用通过 EsUtil.execute 改为 *Async 方法加 await，调用线程最多等待到截止时间
+ * 7.2 的客户端没有 Cancellable，到期后只是调用方不再等待，已经发出的 HTTP 请求无法取消，
+ * 仍然占用连接，直到 ES 按服务端超时返回或者 socketTimeout
+ * 不缩短 HTTP 客户端的超时时间：RestClient 把连接池等待、连接和读取超时都当作节点故障，会把正常的节点标记为不可用、
+ * 触发嗅探，并且带着同样的截止时间在其他节点上重试，截止时间较短时所有节点都会被标记为不可用
+ * HTTP 读取超时（socketTimeout）应大于各配置中的服务端超时加上预留时间
+ * 截止时间使用毫秒时间戳，可以在线程之间传递，批量合并等场景下多个请求取最晚的截止时间
+ *
+ * @className: EsDeadline
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/18 5:10 下午
+ */
+public class EsDeadline {
+
+    private final long deadlineMillis;
+
+    private EsDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    //在指定的时间点截止
+    public static EsDeadline at(long deadlineMillis) {
+        return new EsDeadline(deadlineMillis);
+    }
+
+    //从现在开始 millis 毫秒后截止
+    public static EsDeadline in(long millis) {
+        return new EsDeadline(System.currentTimeMillis() + millis);
+    }
+
+    /*
+     * 多个请求合并发送时使用的截止时间，取最晚的一个，其中有请求没有截止时间时返回 null，表示合并后的请求也不设截止时间
+     */
+    public static EsDeadline latest(Collection<EsDeadline> deadlines) {
+        EsDeadline latest = null;
+        for (EsDeadline deadline : deadlines) {
+            if (deadline == null) {
+                return null;
+            }
+            if (latest == null || deadline.deadlineMillis > latest.deadlineMillis) {
+                latest = deadline;
+            }
+        }
+        return latest;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, deadlineMillis - System.currentTimeMillis());
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /*
+     * ES 服务端的超时时间，预留 marginMillis 用于网络传输和协调节点合并结果，与已有的超时时间取较小值
+     */
+    public TimeValue serverTimeout(TimeValue timeout, long marginMillis) {
+        long millis = Math.max(1, remainingMillis() - marginMillis);
+        if (timeout != null && timeout.millis() <= millis) {
+            return timeout;
+        }
+        return TimeValue.timeValueMillis(millis);
+    }
+
+    /*
+     * 到截止时间时以 TimeoutException 完成 Future，Future 提前完成时取消定时任务
+     */
+    public <T> CompletableFuture<T> bound(CompletableFuture<T> future, ScheduledExecutorService scheduler) {
+        if (future.isDone()) {
+            return future;
+        }
+        ScheduledFuture<?> timer = scheduler.schedule(
+                () -> future.completeExceptionally(new TimeoutException("deadline exceeded")),
+                remainingMillis(), TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> timer.cancel(false));
+        return future;
+    }
+
+    /*
+     * 同步等待 Future 的结果，最多等待到截止时间，到期后抛出 TimeoutException，失败时抛出原始异常
+     */
+    public <T> T await(CompletableFuture<T> future, ScheduledExecutorService scheduler) throws Exception {
+        bound(future, scheduler);
+        try {
+            return future.get(Math.max(1, remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.completeExceptionally(e);
+            throw new TimeoutException("deadline exceeded");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "deadline in " + remainingMillis() + "ms";
+    }
+}
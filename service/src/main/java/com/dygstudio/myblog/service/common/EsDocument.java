@@ -21,8 +21,6 @@ import org.elasticsearch.client.core.MultiTermVectorsResponse;
 import org.elasticsearch.client.core.TermVectorsRequest;
 import org.elasticsearch.client.core.TermVectorsResponse;
 import org.elasticsearch.common.Strings;
-import org.elasticsearch.common.unit.ByteSizeUnit;
-import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -125,9 +123,17 @@ public class EsDocument {
         IndexRequest request = new IndexRequest(indexName);
         //文档 ID
         request.id(document);
-        //String 类型文档
-        String jsonString = "{\"user\":\"diyaguang\",\"age\":\"37\",\"title\":\"The title is xxxxx\",\"content\":\"这是用来测试的Content\",\"postDate\":\"2019-07-30\",\"message\":\"这个是测试数据 用来测试 Message的。\"}";
-        request.source(jsonString, XContentType.JSON);
+        //文档内容，字段与原来的 String 文档相同，另外写入文档ID的 keyword 副本供游标分页排序使用
+        //文档ID 由调用方传入，用 Map 构建由 ES 客户端负责转义，不直接拼接到 JSON 字符串中
+        Map<String,Object> jsonMap = new LinkedHashMap<>();
+        jsonMap.put("user","diyaguang");
+        jsonMap.put("age","37");
+        jsonMap.put("title","The title is xxxxx");
+        jsonMap.put("content","这是用来测试的Content");
+        jsonMap.put("postDate","2019-07-30");
+        jsonMap.put("message","这个是测试数据 用来测试 Message的。");
+        jsonMap.put(SysConstant.ES_DOC_ID_FIELD,document);
+        request.source(jsonMap);
 
         //设置路由值
         request.routing("routing");
@@ -192,16 +198,31 @@ public class EsDocument {
      * 原因：create操作只支持内部版本控制，需要使用外部指定版本，请使用 index
      */
     public String executeIndexRequest(String indexName,String document,EsUtil esUtil){
-        esUtil.initHEs();
+        return executeIndexRequest(indexName,document,null,esUtil);
+    }
+
+    /*
+     * 带截止时间的索引文档请求，等待主分片可用的时间不超过剩余时间，已经到期的请求不再发送，调用线程最多等待到截止时间
+     * 注意：到期后 HTTP 请求无法取消，ES 仍可能完成写入，调用方按未知结果处理，重试时使用相同的文档ID保证幂等
+     */
+    public String executeIndexRequest(String indexName,String document,EsDeadline deadline,EsUtil esUtil){
         IndexRequest request = buildIndexRequestWithString(indexName,document);
+        if(deadline!=null){
+            if(deadline.isExpired()){
+                return "The document index error:deadline exceeded";
+            }
+            request.timeout(esUtil.getRequestTimeout(null,request.timeout(),deadline));
+        }
         try {
-            IndexResponse response = esUtil.restHighLevelClient.index(request, RequestOptions.DEFAULT);
+            RequestOptions options = esUtil.getRequestOptions(null);
+            IndexResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.indexAsync(request,options,listener),deadline);
             return processIndexResponse(response);
         }catch (Exception e){
             e.printStackTrace();
             return "The document index error:"+e.getMessage();
         }finally {
-            esUtil.closeHEs();
+            //失败或超时时写入也可能已经完成，同样使缓存失效
+            esUtil.searchCache.invalidate(indexName);
         }
     }
     private String processIndexResponse(IndexResponse response){
@@ -274,16 +295,22 @@ public class EsDocument {
         return request;
     }
     public String executeGetRequest(String indexName,String document,EsUtil esUtil){
-        esUtil.initHEs();
+        return executeGetRequest(indexName,document,null,esUtil);
+    }
+
+    //获取文档没有服务端超时，截止时间用于发送前的检查和限制调用线程的等待时间
+    public String executeGetRequest(String indexName,String document,EsDeadline deadline,EsUtil esUtil){
         GetRequest request = buildGetRequest(indexName,document);
+        if(deadline!=null && deadline.isExpired()){
+            return "Get document index error:deadline exceeded";
+        }
         try {
-            GetResponse response = esUtil.restHighLevelClient.get(request,RequestOptions.DEFAULT);
+            RequestOptions options = esUtil.getRequestOptions(null);
+            GetResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.getAsync(request,options,listener),deadline);
             return processGetResponse(response);
         }catch (Exception e){
             e.printStackTrace();
             return "Get document index error:"+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private String processGetResponse(GetResponse response){
@@ -321,10 +348,9 @@ public class EsDocument {
         return request;
     }
     public String executeCheckExistIndexDocumentRequest(String indexName,String document,EsUtil esUtil){
-        esUtil.initHEs();
         GetRequest request = buildCheckExistIndexDocumentRequest(indexName,document);
         try {
-            boolean exists = esUtil.restHighLevelClient.exists(request,RequestOptions.DEFAULT);
+            boolean exists = esUtil.restHighLevelClient.exists(request,esUtil.getRequestOptions());
             return "索引："+indexName+" 下的 "+document+" 文档的存在性是 "+exists;
         }catch (Exception e){
             e.printStackTrace();
@@ -359,16 +385,14 @@ public class EsDocument {
         return request;
     }
     public String executeDeleteIndexDocumentsRequest(String indexName,String document,EsUtil esUtil){
-        esUtil.initHEs();
         DeleteRequest request = buildDeleteIndexDocumentsRequest(indexName,document);
         try {
-            DeleteResponse response = esUtil.restHighLevelClient.delete(request,RequestOptions.DEFAULT);
+            DeleteResponse response = esUtil.restHighLevelClient.delete(request,esUtil.getRequestOptions());
+            esUtil.searchCache.invalidate(indexName);
             return processDeleteReqeust(response);
         }catch (Exception e){
             e.printStackTrace();
             return "Delete  index document error: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private String processDeleteReqeust(DeleteResponse response){
@@ -444,16 +468,14 @@ public class EsDocument {
     }
 
     public String executeUpdateIndexDocumentRequest(String indexName,String document,EsUtil esUtil){
-        esUtil.initHEs();
         UpdateRequest request = buildUpdateIndexDocumentRequest(indexName,document);
         try {
-            UpdateResponse response = esUtil.restHighLevelClient.update(request,RequestOptions.DEFAULT);
+            UpdateResponse response = esUtil.restHighLevelClient.update(request,esUtil.getRequestOptions());
+            esUtil.searchCache.invalidate(indexName);
             return  processUpdateIndexDocumentRequest(response);
         }catch (Exception e){
             e.printStackTrace();
             return "Update  index document error: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private String processUpdateIndexDocumentRequest(UpdateResponse response){
@@ -528,16 +550,13 @@ public class EsDocument {
         return request;
     }
     public String executeTermVectorRequest(String indexName,String document,String fields,EsUtil esUtil){
-        esUtil.initHEs();
         TermVectorsRequest request = buildTermVectorsRequest(indexName,document,fields);
         try {
-            TermVectorsResponse response = esUtil.restHighLevelClient.termvectors(request,RequestOptions.DEFAULT);
+            TermVectorsResponse response = esUtil.restHighLevelClient.termvectors(request,esUtil.getRequestOptions());
             return  processTermVectorsResponse(response);
         }catch (Exception e){
             e.printStackTrace();
             return "TermVector  document error: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private String processTermVectorsResponse(TermVectorsResponse response){
@@ -615,29 +634,49 @@ public class EsDocument {
         //用于所有子请求的全局 pipelineid，即全局管道标识
         return request;
     }
-    public String executeBulkRequest(String indexName,String fields,EsUtil esUtil){
-        esUtil.initHEs();
+    /* 执行批量请求
+    * 部分文档失败时不再整批返回成功，失败项交给 EsBulkFailureHandler 分类处理：可重试的失败项单独重新提交，永久失败的写入死信文件
+    *  */
+    public String executeBulkRequest(String indexName,String fields,EsUtil esUtil,EsBulkFailureHandler failureHandler){
         BulkRequest request = buildBulkRequest(indexName,fields);
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        if(timeout!=null){
+            request.timeout(timeout);
+        }
         try {
-            BulkResponse response = esUtil.restHighLevelClient.bulk(request,RequestOptions.DEFAULT);
-            processBulkResponse(response);
-            return "execute BulkRequest Successful";
+            BulkResponse response = esUtil.restHighLevelClient.bulk(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            esUtil.searchCache.invalidate(indexName);
+            if(processBulkResponse(response)==0){
+                return "execute BulkRequest Successful";
+            }
+            EsBulkFailureHandler.BulkOutcome outcome = failureHandler.handle(request,response);
+            if(outcome.isSuccessful()){
+                return "execute BulkRequest Successful after retry: "+outcome;
+            }
+            return "execute BulkRequest partially failed: "+outcome;
         }catch (Exception e){
             e.printStackTrace();
             return "execute BulkRequest  error: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
-    private void processBulkResponse(BulkResponse responses){
+    //处理批量响应，返回失败的文档数，失败项的 getResponse() 为空，需先通过 isFailed() 判断
+    //包内可见，供基准测试使用
+    int processBulkResponse(BulkResponse responses){
         if(responses==null){
             EsUtil.log.info( "the bulkResponse is null");
+            return 0;
         }
+        int failed = 0;
         for(BulkItemResponse bulkItemResponse : responses){
+            if(bulkItemResponse.isFailed()){
+                failed++;
+                BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
+                EsUtil.log.info("bulk item "+bulkItemResponse.getItemId()+" failed, id is "+failure.getId()+", index is "+failure.getIndex()+", status is "+failure.getStatus()+", message is "+failure.getMessage());
+                continue;
+            }
             DocWriteResponse itemResponse = bulkItemResponse.getResponse();
             switch (bulkItemResponse.getOpType()){
                 case INDEX:
-                    break;
                 case CREATE:
                     IndexResponse indexResponse = (IndexResponse)itemResponse;
                     String index = indexResponse.getIndex();
@@ -655,6 +694,7 @@ public class EsDocument {
                     break;
             }
         }
+        return failed;
     }
 
 
@@ -664,49 +704,21 @@ public class EsDocument {
     * 1.RestHighLevelClient，用于执行 BulkRequest 和检索 BulkResponse
     * 2.BulkProcessor.Listener，每次执行 BulkRequest 之前和之后，或者当 BulkRequest失败时，都会调用此监视器
     *  */
-    public void buildBulkRequestWithBulkProcessor(String indexName,String field,EsUtil esUtil){
-        esUtil.initHEs();
-        BulkProcessor.Listener listener = new BulkProcessor.Listener() {
-            @Override
-            public void beforeBulk(long l, BulkRequest bulkRequest) {
-                //批量处理签的动作
-            }
-
-            @Override
-            public void afterBulk(long l, BulkRequest bulkRequest, BulkResponse bulkResponse) {
-                //批量处理后的动作
-            }
-
-            @Override
-            public void afterBulk(long l, BulkRequest bulkRequest, Throwable throwable) {
-                //批量处理后的动作
-            }
-        };
-        /* 创建批处理器，使用异步方式
-        * 还可以根据当前添加的操作数设置刷新批量请求的时间，根据当前添加的操作大小设置刷新批量请求的时间，设置允许执行的并发请求数，设置刷新间隔，以及设置后退策略等
+    public String buildBulkRequestWithBulkProcessor(String indexName,String field,EsBulkIngester esBulkIngester){
+        /* 批处理器由 EsBulkIngester 统一创建和管理，每个索引一个，长期复用，批次大小、并发数、退避策略等在 application.yml 中配置
+        * BulkProcess类提供了一个简单的接口，可以根据请求数量或在指定的时间段后自动的刷新批量操作。
+        * 索引请求将由 BulkProcess 执行，负责每个批量请求调用 BulkProcessor.Listener，监听器中统计每批的耗时和失败情况
         *  */
-        BulkProcessor.Builder builder = BulkProcessor.builder((request,bulkListener)->esUtil.restHighLevelClient.bulkAsync(request,RequestOptions.DEFAULT,bulkListener),listener);
-        //可选的配置项
-
-        //根据当前添加的操作数，设置刷新批量请求的时间（默认值为1000，使用-1表示禁用）
-        builder.setBulkActions(500);
-        //根据当前添加的操作大小，设置刷新批量请求的时间（默认值为 5M，使用-1表示禁用）
-        builder.setBulkSize(new ByteSizeValue(1L, ByteSizeUnit.MB));
-        //设置允许执行的并发请求数（默认为1，使用0表示仅允许执行单个请求）
-        builder.setConcurrentRequests(0);
-        //设置刷新间隔（默认为未设置）
-        builder.setFlushInterval(TimeValue.timeValueSeconds(10L));
-        //设置一个恒定的后退策略，改策略最初等待 1s，最多重试3次
-        builder.setBackoffPolicy(BackoffPolicy.constantBackoff(TimeValue.timeValueSeconds(1L),3));
-
-        //BulkProcess类提供了一个简单的接口，可以根据请求数量或在指定的时间段后自动的刷新批量操作。
-        //在 创建完 BulkProcess 后，用户就可以向其添加请求了
-        BulkProcessor processor = builder.build();
-        IndexRequest one = new IndexRequest(indexName).id("6").source(XContentType.JSON,"title","xxxxxxxxxxxx1");
-        IndexRequest two = new IndexRequest(indexName).id("6").source(XContentType.JSON,"title","xxxxxxxxxxxx2");
-        processor.add(one);
-        processor.add(two);
-        //索引请求将由 BulkProcess 执行，负责每个批量请求调用 BulkProcessor.Listener，配置的监听器提供访问 BulkRequest，BulkResponse的方法。
+        IndexRequest one = new IndexRequest(indexName).id("6").source(XContentType.JSON,field,"xxxxxxxxxxxx1");
+        IndexRequest two = new IndexRequest(indexName).id("7").source(XContentType.JSON,field,"xxxxxxxxxxxx2");
+        try {
+            esBulkIngester.add(one);
+            esBulkIngester.add(two);
+            return "add requests to BulkProcessor Successful";
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return "add requests to BulkProcessor interrupted";
+        }
     }
 
 
@@ -742,10 +754,9 @@ public class EsDocument {
         //在检索文档之前执行刷新(默认为 false)
         request.refresh(true);
         try {
-            esUtil.initHEs();
             request.add(new MultiGetRequest.Item(indexName,documentIds[0]).storedFields("title"));
             //简单的结果解析，可以循环处理
-            MultiGetResponse response = esUtil.restHighLevelClient.mget(request,RequestOptions.DEFAULT);
+            MultiGetResponse response = esUtil.restHighLevelClient.mget(request,esUtil.getRequestOptions());
             MultiGetItemResponse item = response.getResponses()[0];
             String value = item.getResponse().getField("title").getValue();
             String index = item.getIndex();
@@ -759,8 +770,6 @@ public class EsDocument {
             }
         }catch (Exception e){
             e.printStackTrace();
-        }finally {
-            esUtil.closeHEs();
         }
         return;
     }
@@ -805,13 +814,15 @@ public class EsDocument {
         request.setSlices(2);
         //使用 scroll 参数控制 search context 保持活动时间
         request.setScroll(TimeValue.timeValueMinutes(10));
-        //设置超时时间
-        request.setTimeout(TimeValue.timeValueMinutes(2));
+        //设置超时时间，每批写入等待分片的时间，使用 bulk-large 配置的服务端超时时间，没有配置时为 2 分钟
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        request.setTimeout(timeout!=null?timeout:TimeValue.timeValueMinutes(2));
         //调用 reIndex 后，刷新索引
         request.setRefresh(true);
 
         try {
-            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.reindex(request,RequestOptions.DEFAULT);
+            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.reindex(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            esUtil.searchCache.invalidate(toIndex);
             if(bulkResponse==null)
                 return;
             //获取总耗时
@@ -872,8 +883,9 @@ public class EsDocument {
         request.setSlices(2);
         //使用 scroll 参数控制 search context 保持活动时间
         request.setScroll(TimeValue.timeValueMinutes(10));
-        //设置超时时间
-        request.setTimeout(TimeValue.timeValueMinutes(2));
+        //设置超时时间，每批写入等待分片的时间，使用 bulk-large 配置的服务端超时时间，没有配置时为 2 分钟
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        request.setTimeout(timeout!=null?timeout:TimeValue.timeValueMinutes(2));
         //调用 reIndex 后，刷新索引
         request.setRefresh(true);
         //设置路由，如果提供路由，那么路由将被复制到滚动查询，从而限制于该路由值匹配的分片处理
@@ -882,7 +894,8 @@ public class EsDocument {
         request.setIndicesOptions(IndicesOptions.LENIENT_EXPAND_OPEN);
 
         try {
-            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.updateByQuery(request,RequestOptions.DEFAULT);
+            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.updateByQuery(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            esUtil.searchCache.invalidate(indexName);
             if(bulkResponse==null)
                 return;
             //获取总耗时
@@ -941,8 +954,9 @@ public class EsDocument {
         request.setSlices(2);
         //使用 scroll 参数控制 search context 保持活动时间
         request.setScroll(TimeValue.timeValueMinutes(10));
-        //设置超时时间
-        request.setTimeout(TimeValue.timeValueMinutes(2));
+        //设置超时时间，每批写入等待分片的时间，使用 bulk-large 配置的服务端超时时间，没有配置时为 2 分钟
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        request.setTimeout(timeout!=null?timeout:TimeValue.timeValueMinutes(2));
         //调用 reIndex 后，刷新索引
         request.setRefresh(true);
         //设置路由，如果提供路由，那么路由将被复制到滚动查询，从而限制于该路由值匹配的分片处理
@@ -951,7 +965,8 @@ public class EsDocument {
         request.setIndicesOptions(IndicesOptions.LENIENT_EXPAND_OPEN);
 
         try {
-            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.deleteByQuery(request,RequestOptions.DEFAULT);
+            BulkByScrollResponse bulkResponse = esUtil.restHighLevelClient.deleteByQuery(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            esUtil.searchCache.invalidate(indexName);
             if(bulkResponse==null)
                 return;
             //获取总耗时
@@ -1011,7 +1026,7 @@ public class EsDocument {
         request = new MultiTermVectorsRequest(ids,tvRequestTemplate);
 
         try {
-            MultiTermVectorsResponse response = esUtil.restHighLevelClient.mtermvectors(request,RequestOptions.DEFAULT);
+            MultiTermVectorsResponse response = esUtil.restHighLevelClient.mtermvectors(request,esUtil.getRequestOptions());
             if(response == null)
                 return;
             List<TermVectorsResponse> tvResponseList = response.getTermVectorsResponses();
@@ -25,10 +25,13 @@ import org.elasticsearch.action.admin.indices.shrink.ResizeType;
 import org.elasticsearch.action.support.ActiveShardCount;
 import org.elasticsearch.action.support.DefaultShardOperationFailedException;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.master.AcknowledgedRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.support.master.MasterNodeRequest;
 import org.elasticsearch.client.GetAliasesResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.SyncedFlushResponse;
+import org.elasticsearch.client.TimedRequest;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
 import org.elasticsearch.client.indices.GetIndexRequest;
@@ -44,6 +47,7 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.IndexNotFoundException;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -129,15 +133,12 @@ public class EsIndex {
     }
 
     public void executeAnalyzeRequest(String text, EsUtil esUtil) {
-        esUtil.initHEs();
         AnalyzeRequest request = buildAnalyzerequest(text);
         try {
-            AnalyzeResponse response = esUtil.restHighLevelClient.indices().analyze(request, RequestOptions.DEFAULT);
+            AnalyzeResponse response = esUtil.restHighLevelClient.indices().analyze(request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processAnalyzeResponse(response);
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            esUtil.closeHEs();
         }
     }
 
@@ -171,6 +172,14 @@ public class EsIndex {
         CreateIndexRequest request = new CreateIndexRequest(index);
         //配置分片数量和副本数量
         request.settings(Settings.builder().put("index.number_of_shards",shardsNumber).put("index.number_of_replicas",replicasNumber));
+        //文档ID的 keyword 副本，keyword 默认带 doc_values，游标分页用它代替 _id 排序，避免加载 _id 的 fielddata
+        Map<String,Object> docId = new HashMap<>();
+        docId.put("type","keyword");
+        Map<String,Object> properties = new HashMap<>();
+        properties.put(SysConstant.ES_DOC_ID_FIELD,docId);
+        Map<String,Object> mapping = new HashMap<>();
+        mapping.put("properties",properties);
+        request.mapping(mapping);
 
         /*//还可以使用 字符串方式提供映射源
         request.mapping("", XContentType.JSON);
@@ -230,14 +239,12 @@ public class EsIndex {
 
     public void executeCreateIndexRequest(String index,EsUtil esUtil){
         CreateIndexRequest request = buildIndexRequest(index,3,2);
-        esUtil.initHEs();
+        applyAdminTimeout(request,esUtil);
         try{
-            CreateIndexResponse createIndexResponse = esUtil.restHighLevelClient.indices().create(request,RequestOptions.DEFAULT);
+            CreateIndexResponse createIndexResponse = esUtil.restHighLevelClient.indices().create(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processCreateIndexResponse(createIndexResponse);
         }catch (Exception e){
             e.printStackTrace();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processCreateIndexResponse(CreateIndexResponse createIndexResponse){
@@ -261,15 +268,13 @@ public class EsIndex {
     }
 
     public void executeGetIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         GetIndexRequest request = buildGetIndexRequest(index);
+        applyAdminTimeout(request,esUtil);
         try {
-            GetIndexResponse getIndexResponse = esUtil.restHighLevelClient.indices().get(request,RequestOptions.DEFAULT);
+            GetIndexResponse getIndexResponse = esUtil.restHighLevelClient.indices().get(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processGetIndexResponse(getIndexResponse,index);
         }catch (Exception e){
             e.printStackTrace();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processGetIndexResponse(GetIndexResponse getIndexResponse,String index){
@@ -325,15 +330,14 @@ public class EsIndex {
      * @Date: 2020/8/25 10:25
      */
     public void executeDeleteIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         DeleteIndexRequest request = buildDeleteIndexRequest(index);
+        applyAdminTimeout(request,esUtil);
         try {
-            AcknowledgedResponse deleteIndexResponse = esUtil.restHighLevelClient.indices().delete(request,RequestOptions.DEFAULT);
+            AcknowledgedResponse deleteIndexResponse = esUtil.restHighLevelClient.indices().delete(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
+            esUtil.searchCache.invalidate(index);
             processAcknowledgedResponse(deleteIndexResponse);
         }catch (Exception e){
             e.printStackTrace();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processAcknowledgedResponse(AcknowledgedResponse deleteIndexResponse){
@@ -361,15 +365,13 @@ public class EsIndex {
         return request;
     }
     public void executeExistsIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         GetIndexRequest request = buildExistsIndexRequest(index);
+        applyAdminTimeout(request,esUtil);
         try {
-            boolean exists = esUtil.restHighLevelClient.indices().exists(request,RequestOptions.DEFAULT);
+            boolean exists = esUtil.restHighLevelClient.indices().exists(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             EsUtil.log.info("exists is "+exists);
         }catch (Exception e){
             e.printStackTrace();
-        }finally {
-            esUtil.closeHEs();
         }
     }
 
@@ -395,10 +397,11 @@ public class EsIndex {
         return request;
     }
     public String executeOpenIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         OpenIndexRequest request = buildOpenIndexRequest(index);
+        applyAdminTimeout(request,esUtil);
         try {
-            OpenIndexResponse openIndexResponse = esUtil.restHighLevelClient.indices().open(request, RequestOptions.DEFAULT);
+            OpenIndexResponse openIndexResponse = esUtil.restHighLevelClient.indices().open(request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
+            esUtil.searchCache.invalidate(index);
             processOpenIndexResponse(openIndexResponse);
             return "Found index:"+index;
         }catch (IndexNotFoundException ex){
@@ -406,8 +409,6 @@ public class EsIndex {
         }catch (Exception e){
             e.printStackTrace();
             return "Found error in index:"+index+" :"+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processOpenIndexResponse(OpenIndexResponse openIndexResponse){
@@ -436,10 +437,11 @@ public class EsIndex {
         return request;
     }
     public String executeCloseIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         CloseIndexRequest request = buildCloseIndexRequest(index);
+        applyAdminTimeout(request,esUtil);
         try{
-            AcknowledgedResponse closeIndexResponse = esUtil.restHighLevelClient.indices().close(request,RequestOptions.DEFAULT);
+            AcknowledgedResponse closeIndexResponse = esUtil.restHighLevelClient.indices().close(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
+            esUtil.searchCache.invalidate(index);
             //所有节点是否已确认请求
             boolean acknowledged = closeIndexResponse.isAcknowledged();
             EsUtil.log.info(index+" acknowledged is "+acknowledged);
@@ -489,17 +491,15 @@ public class EsIndex {
         return request;
     }
     public String executeResizeRequest(String sourceIndex,String targetIndex,EsUtil esUtil){
-        esUtil.initHEs();
         ResizeRequest request = buildResizeRequest(sourceIndex,targetIndex);
+        applyAdminTimeout(request,esUtil);
         try{
-            ResizeResponse resizeResponse = esUtil.restHighLevelClient.indices().shrink(request,RequestOptions.DEFAULT);
+            ResizeResponse resizeResponse = esUtil.restHighLevelClient.indices().shrink(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processResizeResponse(resizeResponse);
             return "index resize successful";
         }catch (Exception e){
             e.printStackTrace();
             return "Index resize failure";
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processResizeResponse(ResizeResponse resizeResponse){
@@ -556,17 +556,15 @@ public class EsIndex {
         return request;
     }
     public String executeSplitRequest(String sourceIndex,String targetIndex,EsUtil esUtil){
-        esUtil.initHEs();
         ResizeRequest request = buildSplitRequest(sourceIndex,targetIndex);
+        applyAdminTimeout(request,esUtil);
         try{
-            ResizeResponse resizeResponse = esUtil.restHighLevelClient.indices().split(request,RequestOptions.DEFAULT);
+            ResizeResponse resizeResponse = esUtil.restHighLevelClient.indices().split(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processSplitResponse(resizeResponse);
             return "index resize successful";
         }catch (Exception e){
             e.printStackTrace();
             return "Index resize failure";
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processSplitResponse(ResizeResponse resizeResponse){
@@ -595,17 +593,14 @@ public class EsIndex {
         return request;
     }
     public String executeRefreshRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         RefreshRequest request = buildRefreshRequest(index);
         try {
-            RefreshResponse refreshResponse = esUtil.restHighLevelClient.indices().refresh(request,RequestOptions.DEFAULT);
+            RefreshResponse refreshResponse = esUtil.restHighLevelClient.indices().refresh(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processRefreshRsponse(refreshResponse);
             return "The index "+index+" refresh successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" refresh failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processRefreshRsponse(RefreshResponse refreshResponse){
@@ -640,17 +635,14 @@ public class EsIndex {
         return request;
     }
     public String executeFlushRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         FlushRequest request = buildFlushRequest(index);
         try {
-            FlushResponse flushResponse = esUtil.restHighLevelClient.indices().flush(request,RequestOptions.DEFAULT);
+            FlushResponse flushResponse = esUtil.restHighLevelClient.indices().flush(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processFlushResponse(flushResponse);
             return "The index "+index+" flush successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" flush failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processFlushResponse(FlushResponse flushResponse){
@@ -684,17 +676,14 @@ public class EsIndex {
         return request;
     }
     public String executeSyncFlushRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         SyncedFlushRequest request = buildSyncedFlushRequest(index);
         try {
-            SyncedFlushResponse flushResponse = esUtil.restHighLevelClient.indices().flushSynced(request,RequestOptions.DEFAULT);
+            SyncedFlushResponse flushResponse = esUtil.restHighLevelClient.indices().flushSynced(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processSyncedFlushResponse(flushResponse);
             return "The index "+index+" Syncflush successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" Syncflush failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processSyncedFlushResponse(SyncedFlushResponse flushResponse){
@@ -725,17 +714,14 @@ public class EsIndex {
         return request;
     }
     public String executeClearIndicesCacheRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         ClearIndicesCacheRequest request = buildClearIndicesCacheRequest(index);
         try {
-            ClearIndicesCacheResponse flushResponse = esUtil.restHighLevelClient.indices().clearCache(request,RequestOptions.DEFAULT);
+            ClearIndicesCacheResponse flushResponse = esUtil.restHighLevelClient.indices().clearCache(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processClearIndicesCacheResponse(flushResponse);
             return "The index "+index+" clearIndexCache successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" clearIndexCache failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processClearIndicesCacheResponse(ClearIndicesCacheResponse flushResponse){
@@ -775,17 +761,14 @@ public class EsIndex {
         return request;
     }
     public String executeForceMergeIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         ForceMergeRequest request = buildForceMergeIndexRequest(index);
         try {
-            ForceMergeResponse flushResponse = esUtil.restHighLevelClient.indices().forcemerge(request,RequestOptions.DEFAULT);
+            ForceMergeResponse flushResponse = esUtil.restHighLevelClient.indices().forcemerge(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processForceMergeIndexResponse(flushResponse);
             return "The index "+index+" fouceMergeIndex successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" fouceMergeIndex failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processForceMergeIndexResponse(ForceMergeResponse forceMergeResponse){
@@ -838,17 +821,15 @@ public class EsIndex {
         return request;
     }
     public String executeRolloverIndexRequest(String index,EsUtil esUtil){
-        esUtil.initHEs();
         RolloverRequest request = buildRolloverRequest(index);
+        applyAdminTimeout(request,esUtil);
         try {
-            RolloverResponse rolloverResponse = esUtil.restHighLevelClient.indices().rollover(request,RequestOptions.DEFAULT);
+            RolloverResponse rolloverResponse = esUtil.restHighLevelClient.indices().rollover(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processrolloverIndexResponse(rolloverResponse);
             return "The index "+index+" rolloverIndex successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" rolloverIndex failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     public void processrolloverIndexResponse(RolloverResponse rolloverResponse){
@@ -894,17 +875,15 @@ public class EsIndex {
         return request;
     }
     public String executeIndicesAliasesRequest(String index,String indexAlias,EsUtil esUtil){
-        esUtil.initHEs();
         IndicesAliasesRequest request = buildIndicatesAliasesRqeust(index,indexAlias);
+        applyAdminTimeout(request,esUtil);
         try {
-            AcknowledgedResponse rolloverResponse = esUtil.restHighLevelClient.indices().updateAliases(request,RequestOptions.DEFAULT);
+            AcknowledgedResponse rolloverResponse = esUtil.restHighLevelClient.indices().updateAliases(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processAcknowledgedResponse(rolloverResponse);
             return "The index "+index+" IndicesAliases successful";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+index+" IndicesAliases failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
 
@@ -930,16 +909,14 @@ public class EsIndex {
     }
 
     public String executeGetAliasesRequest(String indexAlias,EsUtil esUtil){
-        esUtil.initHEs();
         GetAliasesRequest request = buildGetAliasesRequest(indexAlias);
+        applyAdminTimeout(request,esUtil);
         try {
-            boolean exists = esUtil.restHighLevelClient.indices().existsAlias(request,RequestOptions.DEFAULT);
+            boolean exists = esUtil.restHighLevelClient.indices().existsAlias(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             return "The index "+indexAlias+" getAliases exists "+exists;
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+indexAlias+" getAliases failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
 
@@ -948,17 +925,15 @@ public class EsIndex {
     /* 获取索引别名 */
 
     public String executeGetAliasesRequestForAliases(String indexAlias,EsUtil esUtil){
-        esUtil.initHEs();
         GetAliasesRequest request = buildGetAliasesRequest(indexAlias);
+        applyAdminTimeout(request,esUtil);
         try {
-            GetAliasesResponse getAliasesResponse = esUtil.restHighLevelClient.indices().getAlias(request,RequestOptions.DEFAULT);
+            GetAliasesResponse getAliasesResponse = esUtil.restHighLevelClient.indices().getAlias(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
             processGetAliasesResponse(getAliasesResponse);
             return "The index "+indexAlias+" getAliasesAliases successful ";
         }catch (Exception e){
             e.printStackTrace();
             return "The index "+indexAlias+" getAliasesAliases failure: "+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
     private void processGetAliasesResponse(GetAliasesResponse getAliasesResponse){
@@ -980,4 +955,24 @@ public class EsIndex {
             }
         }
     }
+
+    /*
+     * 管理请求使用 admin 配置的超时时间，同时作为等待节点确认和连接主节点的超时时间，没有配置时保留请求自身的设置
+     * 刷新、清理缓存、强制合并等广播请求没有这两个超时参数，不需要设置
+     */
+    private void applyAdminTimeout(MasterNodeRequest<?> request,EsUtil esUtil){
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_ADMIN);
+        if(timeout==null)
+            return;
+        request.masterNodeTimeout(timeout);
+        if(request instanceof AcknowledgedRequest)
+            ((AcknowledgedRequest<?>) request).timeout(timeout);
+    }
+    private void applyAdminTimeout(TimedRequest request,EsUtil esUtil){
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_ADMIN);
+        if(timeout==null)
+            return;
+        request.setMasterTimeout(timeout);
+        request.setTimeout(timeout);
+    }
 }
@@ -0,0 +1,385 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.client.Node;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 〈功能概述〉
+ * ES 请求指标，通过 HttpAsyncClient 的请求、响应拦截器统计经过 EsUtil 客户端的每一次 HTTP 请求，
+ * 高级客户端、初级客户端、批量写入、搜索合并、嗅探器发出的请求都会被统计，调用方不需要修改
+ * 按 操作（search、bulk、count 等，从请求路径解析）、索引、状态码 分组，记录耗时分布（HdrHistogram）、收发字节数
+ * 耗时从请求进入客户端（包括等待连接池）到收到响应头为止；没有收到响应的请求（连接失败、超时）计入 nodeFailures
+ * 批量写入另外记录文档数、每秒文档数（最近一分钟）、被拒绝（429）和重试的文档数
+ *
+ * @className: EsMetrics
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/18 10:30 上午
+ */
+@Component
+public class EsMetrics {
+
+    private static final String SAMPLE_ATTRIBUTE = "es.metrics.sample";
+    private static final String OTHER_INDEX = "other";
+
+    @Resource
+    private EsProperties esProperties;
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> nodeFailures = new ConcurrentHashMap<>();
+    private final Meter bulkItems = new Meter();
+    private final AtomicLong bulkFailedItems = new AtomicLong();
+    private final AtomicLong bulkRejectedItems = new AtomicLong();
+    private final AtomicLong bulkRetriedItems = new AtomicLong();
+    private volatile long since = System.currentTimeMillis();
+
+    /*
+     * 一次请求的采样，在请求拦截器中创建并保存在 HttpContext 中，响应拦截器中取出并记录
+     */
+    private static class Sample {
+        final long start = System.nanoTime();
+        final String operation;
+        final String index;
+        final long bytesSent;
+
+        Sample(String operation, String index, long bytesSent) {
+            this.operation = operation;
+            this.index = index;
+            this.bytesSent = bytesSent;
+        }
+    }
+
+    /*
+     * 同一 操作+索引+状态码 的统计，耗时单位为微秒
+     */
+    private static class Series {
+        final String operation;
+        final String index;
+        final int status;
+        final Histogram latency;
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+
+        Series(String operation, String index, int status, long highestTrackableMicros) {
+            this.operation = operation;
+            this.index = index;
+            this.status = status;
+            this.latency = new ConcurrentHistogram(highestTrackableMicros, 2);
+        }
+    }
+
+    /*
+     * 最近一分钟的速率，按秒分为 60 个桶，每个桶记录所在的秒，过期的桶在下次写入时清零
+     */
+    private static class Meter {
+        final LongAdder total = new LongAdder();
+        final AtomicLongArray counts = new AtomicLongArray(60);
+        final AtomicLongArray seconds = new AtomicLongArray(60);
+
+        void mark(long n) {
+            total.add(n);
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % 60);
+            long current = seconds.get(slot);
+            if (current != second && seconds.compareAndSet(slot, current, second)) {
+                counts.set(slot, 0);
+            }
+            counts.addAndGet(slot, n);
+        }
+
+        double ratePerSecond() {
+            long second = System.currentTimeMillis() / 1000;
+            long sum = 0;
+            for (int i = 0; i < 60; i++) {
+                if (second - seconds.get(i) < 60) {
+                    sum += counts.get(i);
+                }
+            }
+            return sum / 60.0;
+        }
+
+        void reset() {
+            total.reset();
+            for (int i = 0; i < 60; i++) {
+                counts.set(i, 0);
+                seconds.set(i, 0);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return esProperties.getMetrics().isEnabled();
+    }
+
+    /*
+     * 请求拦截器，在 IO 线程中执行，只解析路径和请求体长度
+     */
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            if (!isEnabled()) {
+                return;
+            }
+            String path = pathOf(request);
+            context.setAttribute(SAMPLE_ATTRIBUTE, new Sample(operationOf(request.getRequestLine().getMethod(), path),
+                    indexOf(path), contentLengthOf(request)));
+        };
+    }
+
+    /*
+     * 响应拦截器，收到响应头时记录耗时和状态码，响应字节数取 Content-Length，压缩或分块传输时不统计
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            Object attribute = context.getAttribute(SAMPLE_ATTRIBUTE);
+            if (!(attribute instanceof Sample)) {
+                return;
+            }
+            context.removeAttribute(SAMPLE_ATTRIBUTE);
+            Sample sample = (Sample) attribute;
+            Series target = seriesOf(sample.operation, sample.index, response.getStatusLine().getStatusCode());
+            target.latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sample.start),
+                    target.latency.getHighestTrackableValue()));
+            if (sample.bytesSent > 0) {
+                target.bytesSent.add(sample.bytesSent);
+            }
+            Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+            if (contentLength != null) {
+                try {
+                    target.bytesReceived.add(Long.parseLong(contentLength.getValue()));
+                } catch (NumberFormatException e) {
+                    //忽略
+                }
+            }
+        };
+    }
+
+    /*
+     * 节点请求失败（IO 异常、超时、502/503/504），由 RestClient 的 FailureListener 调用
+     * 没有收到响应的请求不会经过响应拦截器，只在这里按节点计数
+     */
+    public void onNodeFailure(Node node) {
+        nodeFailures.computeIfAbsent(node.getHost().toHostString(), key -> new AtomicLong()).incrementAndGet();
+    }
+
+    /*
+     * 批量写入完成一个批次（包括重试），items 为批次中的文档数，failed 为最终失败的文档数
+     */
+    public void recordBulk(int items, int failed) {
+        bulkItems.mark(items);
+        bulkFailedItems.addAndGet(failed);
+    }
+
+    //批量响应中被拒绝（429）的文档数，每次发送都计数，同一文档重试后再次被拒绝时重复计数
+    public void recordBulkRejections(int items) {
+        bulkRejectedItems.addAndGet(items);
+    }
+
+    //重试发送的文档数
+    public void recordBulkRetries(int items) {
+        bulkRetriedItems.addAndGet(items);
+    }
+
+    public void reset() {
+        series.clear();
+        nodeFailures.clear();
+        bulkItems.reset();
+        bulkFailedItems.set(0);
+        bulkRejectedItems.set(0);
+        bulkRetriedItems.set(0);
+        since = System.currentTimeMillis();
+    }
+
+    /*
+     * 指标快照，耗时单位为毫秒
+     * calls 为每个 操作+索引+状态码 的统计，operations 为每个操作合并所有索引和状态码后的统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("since", since);
+        List<Map<String, Object>> calls = new ArrayList<>();
+        Map<String, Histogram> operations = new TreeMap<>();
+        long rejected = 0;
+        for (Series item : series.values()) {
+            Histogram latency = item.latency.copy();
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put("operation", item.operation);
+            call.put("index", item.index);
+            call.put("status", item.status);
+            putLatency(call, latency);
+            call.put("bytesSent", item.bytesSent.sum());
+            call.put("bytesReceived", item.bytesReceived.sum());
+            calls.add(call);
+            operations.computeIfAbsent(item.operation, key -> new Histogram(latency.getHighestTrackableValue(), 2)).add(latency);
+            if (item.status == 429) {
+                rejected += latency.getTotalCount();
+            }
+        }
+        Map<String, Object> operationStats = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : operations.entrySet()) {
+            Map<String, Object> operation = new LinkedHashMap<>();
+            putLatency(operation, entry.getValue());
+            operationStats.put(entry.getKey(), operation);
+        }
+        stats.put("operations", operationStats);
+        stats.put("calls", calls);
+        stats.put("rejectedRequests", rejected);
+        Map<String, Long> failures = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : nodeFailures.entrySet()) {
+            failures.put(entry.getKey(), entry.getValue().get());
+        }
+        stats.put("nodeFailures", failures);
+        Map<String, Object> bulk = new LinkedHashMap<>();
+        bulk.put("items", bulkItems.total.sum());
+        bulk.put("itemsPerSecond", Math.round(bulkItems.ratePerSecond() * 10) / 10.0);
+        bulk.put("failedItems", bulkFailedItems.get());
+        bulk.put("rejectedItems", bulkRejectedItems.get());
+        bulk.put("retriedItems", bulkRetriedItems.get());
+        stats.put("bulk", bulk);
+        return stats;
+    }
+
+    private static void putLatency(Map<String, Object> target, Histogram latency) {
+        target.put("count", latency.getTotalCount());
+        target.put("p50", millis(latency.getValueAtPercentile(50)));
+        target.put("p90", millis(latency.getValueAtPercentile(90)));
+        target.put("p99", millis(latency.getValueAtPercentile(99)));
+        target.put("p999", millis(latency.getValueAtPercentile(99.9)));
+        target.put("max", millis(latency.getMaxValue()));
+        target.put("mean", Math.round(latency.getMean() / 10) / 100.0);
+    }
+
+    private static double millis(long micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+
+    /*
+     * 组合数超过 maxSeries 后，新出现的索引记为 other，操作和状态码的取值有限，不做限制
+     */
+    private Series seriesOf(String operation, String index, int status) {
+        EsProperties.Metrics config = esProperties.getMetrics();
+        String key = operation + '|' + index + '|' + status;
+        Series target = series.get(key);
+        if (target != null) {
+            return target;
+        }
+        if (series.size() >= config.getMaxSeries()) {
+            index = OTHER_INDEX;
+            key = operation + '|' + index + '|' + status;
+        }
+        String seriesIndex = index;
+        return series.computeIfAbsent(key, k -> new Series(operation, seriesIndex, status,
+                TimeUnit.MILLISECONDS.toMicros(config.getHighestTrackableMillis())));
+    }
+
+    private static String pathOf(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        try {
+            String path = URI.create(uri).getRawPath();
+            return path == null ? "/" : path;
+        } catch (IllegalArgumentException e) {
+            int query = uri.indexOf('?');
+            return query < 0 ? uri : uri.substring(0, query);
+        }
+    }
+
+    private static long contentLengthOf(HttpRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null ? 0 : entity.getContentLength();
+        }
+        return 0;
+    }
+
+    /*
+     * 从请求路径解析操作名称，取第一个以下划线开头的路径段，例如
+     * /posts/_search -> search，/_search/scroll -> scroll，/posts/_doc/1 -> 按请求方法为 get、index、delete、exists
+     * 路径中没有下划线开头的段时为索引管理操作，例如 PUT /posts -> create_index，/ -> info
+     */
+    static String operationOf(String method, String path) {
+        String[] segments = path.split("/");
+        String lowerMethod = method.toLowerCase(Locale.ROOT);
+        boolean root = true;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.startsWith("_")) {
+                String operation = segment.substring(1);
+                if ("search".equals(operation) && i + 1 < segments.length && "scroll".equals(segments[i + 1])) {
+                    return "DELETE".equals(method) ? "clear_scroll" : "scroll";
+                }
+                if ("doc".equals(operation) || "create".equals(operation)) {
+                    switch (lowerMethod) {
+                        case "get":
+                            return "get";
+                        case "delete":
+                            return "delete";
+                        case "head":
+                            return "exists";
+                        default:
+                            return "index";
+                    }
+                }
+                return operation;
+            }
+            root = false;
+        }
+        if (root) {
+            return "info";
+        }
+        switch (lowerMethod) {
+            case "put":
+                return "create_index";
+            case "delete":
+                return "delete_index";
+            case "head":
+                return "exists_index";
+            default:
+                return "get_index";
+        }
+    }
+
+    /*
+     * 第一个路径段不以下划线开头时为索引名称（可能是逗号分隔的多个索引或通配符），否则为 -
+     */
+    static String indexOf(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.indexOf('/', start);
+        String first = end < 0 ? path.substring(start) : path.substring(start, end);
+        if (first.isEmpty() || first.startsWith("_")) {
+            return "-";
+        }
+        try {
+            return URLDecoder.decode(first, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return first;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.ScoreSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.search.suggest.SuggestBuilders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * 搜索请求构建器，调用方只设置需要的功能，没有设置的功能不会出现在请求中
+ * 高亮、建议、模糊匹配、路由、preference 都会增加每次搜索的开销，默认都不开启
+ * 查询条件分为评分条件（must）和过滤条件（filter），过滤条件不计算相关度分数，结果可以被分片的查询缓存复用，
+ * 只有过滤条件的列表查询不计算分数，也不按分数排序
+ * 例如：EsQuery.of("posts").filter("user","kimchy").size(20).trackTotalHits(false).source("title","postDate").build()
+ *
+ * @className: EsQuery
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/15 3:30 下午
+ */
+public class EsQuery {
+
+    private final String[] indices;
+    private final List<QueryBuilder> must = new ArrayList<>();
+    private final List<QueryBuilder> filter = new ArrayList<>();
+    private final List<QueryBuilder> mustNot = new ArrayList<>();
+    private final List<FieldSortBuilder> sorts = new ArrayList<>();
+    private Integer from;
+    private Integer size;
+    private TimeValue timeout;
+    private Boolean trackTotalHits;
+    private Integer trackTotalHitsUpTo;
+    private String[] includes;
+    private String[] excludes;
+    private boolean fetchSource = true;
+    private HighlightBuilder highlight;
+    private SuggestBuilder suggest;
+    private String routing;
+    private String preference;
+    private boolean lenient;
+    private EsDeadline deadline;
+
+    /*
+     * 搜索条件的 JSON 形式，用于接口接收调用方传入的搜索，例如
+     * {"index":"posts","match":{"message":"测试"},"filter":{"user":"kimchy"},"size":5,"source":["title"]}
+     * 来自外部请求，必须指定索引名称，不能搜索全部索引、通配符匹配的索引和系统索引，每个搜索最多返回 MAX_SIZE 条
+     */
+    public static class Spec {
+        public static final int MAX_SIZE = 100;
+
+        private String index;
+        private Map<String, Object> match;
+        private Map<String, Object> filter;
+        private Integer from;
+        private Integer size;
+        private String[] source;
+        private String[] highlight;
+        private Boolean trackTotalHits;
+
+        /*
+         * 检查索引名称，不合法时返回错误信息，合法时返回 null
+         */
+        public String validate() {
+            if (index == null || index.trim().isEmpty()) {
+                return "index is required";
+            }
+            for (String name : index.split(",")) {
+                name = name.trim();
+                if (name.isEmpty() || name.equals("_all") || name.startsWith(".") || name.startsWith("-")
+                        || name.contains("*") || name.contains("?")) {
+                    return "index [" + name + "] is not allowed";
+                }
+            }
+            return null;
+        }
+
+        //调用前先通过 validate 检查索引名称
+        public EsQuery toQuery() {
+            String error = validate();
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            String[] names = index.split(",");
+            for (int i = 0; i < names.length; i++) {
+                names[i] = names[i].trim();
+            }
+            EsQuery query = EsQuery.of(names);
+            if (match != null) {
+                match.forEach(query::match);
+            }
+            if (filter != null) {
+                filter.forEach(query::filter);
+            }
+            if (from != null) {
+                query.from(Math.max(0, from));
+            }
+            if (size != null) {
+                query.size(Math.max(0, Math.min(size, MAX_SIZE)));
+            }
+            if (source != null) {
+                query.source(source);
+            }
+            if (highlight != null) {
+                query.highlight(highlight);
+            }
+            if (trackTotalHits != null) {
+                query.trackTotalHits(trackTotalHits);
+            }
+            return query;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public Map<String, Object> getMatch() {
+            return match;
+        }
+
+        public void setMatch(Map<String, Object> match) {
+            this.match = match;
+        }
+
+        public Map<String, Object> getFilter() {
+            return filter;
+        }
+
+        public void setFilter(Map<String, Object> filter) {
+            this.filter = filter;
+        }
+
+        public Integer getFrom() {
+            return from;
+        }
+
+        public void setFrom(Integer from) {
+            this.from = from;
+        }
+
+        public Integer getSize() {
+            return size;
+        }
+
+        public void setSize(Integer size) {
+            this.size = size;
+        }
+
+        public String[] getSource() {
+            return source;
+        }
+
+        public void setSource(String[] source) {
+            this.source = source;
+        }
+
+        public String[] getHighlight() {
+            return highlight;
+        }
+
+        public void setHighlight(String[] highlight) {
+            this.highlight = highlight;
+        }
+
+        public Boolean getTrackTotalHits() {
+            return trackTotalHits;
+        }
+
+        public void setTrackTotalHits(Boolean trackTotalHits) {
+            this.trackTotalHits = trackTotalHits;
+        }
+    }
+
+    private EsQuery(String... indices) {
+        this.indices = indices == null ? new String[0] : indices;
+    }
+
+    /*
+     * 不指定索引时搜索所有索引
+     */
+    public static EsQuery of(String... indices) {
+        return new EsQuery(indices);
+    }
+
+    //全文匹配，参与评分
+    public EsQuery match(String field, Object value) {
+        must.add(QueryBuilders.matchQuery(field, value));
+        return this;
+    }
+
+    /*
+     * 模糊匹配，参与评分
+     * fuzziness 为 AUTO 时按词长度决定允许的编辑距离，prefixLength 为不参与模糊的前缀长度，maxExpansions 控制模糊扩展的词条数
+     */
+    public EsQuery fuzzyMatch(String field, Object value, Fuzziness fuzziness, int prefixLength, int maxExpansions) {
+        MatchQueryBuilder matchQueryBuilder = QueryBuilders.matchQuery(field, value);
+        matchQueryBuilder.fuzziness(fuzziness);
+        matchQueryBuilder.prefixLength(prefixLength);
+        matchQueryBuilder.maxExpansions(maxExpansions);
+        must.add(matchQueryBuilder);
+        return this;
+    }
+
+    //精确过滤，不参与评分
+    public EsQuery filter(String field, Object value) {
+        filter.add(QueryBuilders.termQuery(field, value));
+        return this;
+    }
+
+    //多值过滤，字段等于其中任意一个值即可
+    public EsQuery filterIn(String field, Object... values) {
+        filter.add(QueryBuilders.termsQuery(field, values));
+        return this;
+    }
+
+    //范围过滤，from 或 to 为空表示不限，包含边界
+    public EsQuery filterRange(String field, Object from, Object to) {
+        RangeQueryBuilder rangeQueryBuilder = QueryBuilders.rangeQuery(field);
+        if (from != null) {
+            rangeQueryBuilder.gte(from);
+        }
+        if (to != null) {
+            rangeQueryBuilder.lte(to);
+        }
+        filter.add(rangeQueryBuilder);
+        return this;
+    }
+
+    //任意过滤条件，例如 exists、prefix
+    public EsQuery filter(QueryBuilder query) {
+        filter.add(query);
+        return this;
+    }
+
+    public EsQuery exclude(String field, Object value) {
+        mustNot.add(QueryBuilders.termQuery(field, value));
+        return this;
+    }
+
+    public EsQuery from(int from) {
+        this.from = from;
+        return this;
+    }
+
+    public EsQuery size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    //按字段排序，没有设置排序且有评分条件时按分数降序
+    public EsQuery sort(String field, SortOrder order) {
+        sorts.add(new FieldSortBuilder(field).order(order));
+        return this;
+    }
+
+    public EsQuery timeout(TimeValue timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /*
+     * 是否统计命中总数，ES 7 默认精确统计到 10000，列表只需要判断是否有下一页时可以关闭
+     */
+    public EsQuery trackTotalHits(boolean trackTotalHits) {
+        this.trackTotalHits = trackTotalHits;
+        this.trackTotalHitsUpTo = null;
+        return this;
+    }
+
+    //精确统计到 upTo 为止，超过后返回的总数为下限
+    public EsQuery trackTotalHitsUpTo(int upTo) {
+        this.trackTotalHitsUpTo = upTo;
+        this.trackTotalHits = null;
+        return this;
+    }
+
+    //只返回文档源中的指定字段
+    public EsQuery source(String... includes) {
+        this.includes = includes;
+        this.fetchSource = true;
+        return this;
+    }
+
+    public EsQuery sourceExcludes(String... excludes) {
+        this.excludes = excludes;
+        this.fetchSource = true;
+        return this;
+    }
+
+    //不返回文档源，只需要文档ID时使用
+    public EsQuery noSource() {
+        this.fetchSource = false;
+        return this;
+    }
+
+    //高亮指定字段，使用 unified 高亮器
+    public EsQuery highlight(String... fields) {
+        if (highlight == null) {
+            highlight = new HighlightBuilder().highlighterType("unified");
+        }
+        for (String field : fields) {
+            highlight.field(new HighlightBuilder.Field(field));
+        }
+        return this;
+    }
+
+    //词条建议，结果以 name 为键返回
+    public EsQuery suggest(String name, String field, String text) {
+        if (suggest == null) {
+            suggest = new SuggestBuilder();
+        }
+        suggest.addSuggestion(name, SuggestBuilders.termSuggestion(field).text(text));
+        return this;
+    }
+
+    public EsQuery routing(String routing) {
+        this.routing = routing;
+        return this;
+    }
+
+    public EsQuery preference(String preference) {
+        this.preference = preference;
+        return this;
+    }
+
+    //索引不存在或已关闭时忽略，不报错
+    public EsQuery lenient() {
+        this.lenient = true;
+        return this;
+    }
+
+    /*
+     * 请求的截止时间，EsSearch 据此设置服务端超时，异步搜索到期后不再等待结果
+     */
+    public EsQuery deadline(EsDeadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public String[] getIndices() {
+        return indices;
+    }
+
+    public EsDeadline getDeadline() {
+        return deadline;
+    }
+
+    public SearchRequest build() {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        if (routing != null) {
+            searchRequest.routing(routing);
+        }
+        if (preference != null) {
+            searchRequest.preference(preference);
+        }
+        if (lenient) {
+            searchRequest.indicesOptions(IndicesOptions.lenientExpand());
+        }
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(buildQuery());
+        if (from != null) {
+            searchSourceBuilder.from(from);
+        }
+        if (size != null) {
+            searchSourceBuilder.size(size);
+        }
+        if (timeout != null) {
+            searchSourceBuilder.timeout(timeout);
+        }
+        if (trackTotalHits != null) {
+            searchSourceBuilder.trackTotalHits(trackTotalHits);
+        } else if (trackTotalHitsUpTo != null) {
+            searchSourceBuilder.trackTotalHitsUpTo(trackTotalHitsUpTo);
+        }
+        if (!fetchSource) {
+            searchSourceBuilder.fetchSource(false);
+        } else if (includes != null || excludes != null) {
+            searchSourceBuilder.fetchSource(includes, excludes);
+        }
+        if (sorts.isEmpty()) {
+            //没有评分条件时不按分数排序，按索引顺序返回
+            if (!must.isEmpty()) {
+                searchSourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
+            } else {
+                searchSourceBuilder.sort(new FieldSortBuilder("_doc"));
+            }
+        } else {
+            for (FieldSortBuilder sort : sorts) {
+                searchSourceBuilder.sort(sort);
+            }
+        }
+        if (highlight != null) {
+            searchSourceBuilder.highlighter(highlight);
+        }
+        if (suggest != null) {
+            searchSourceBuilder.suggest(suggest);
+        }
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    /*
+     * 只有一个评分条件时直接使用该条件，只有过滤条件时使用 bool filter，不计算分数
+     */
+    private QueryBuilder buildQuery() {
+        if (must.isEmpty() && filter.isEmpty() && mustNot.isEmpty()) {
+            return QueryBuilders.matchAllQuery();
+        }
+        if (must.size() == 1 && filter.isEmpty() && mustNot.isEmpty()) {
+            return must.get(0);
+        }
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+        must.forEach(boolQueryBuilder::must);
+        filter.forEach(boolQueryBuilder::filter);
+        mustNot.forEach(boolQueryBuilder::mustNot);
+        return boolQueryBuilder;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(indices) + " " + build().source();
+    }
+}
@@ -1,8 +1,13 @@
 package com.dygstudio.myblog.service.common;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.deser.InstantDeserializer;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.explain.ExplainRequest;
 import org.elasticsearch.action.explain.ExplainResponse;
 import org.elasticsearch.action.fieldcaps.FieldCapabilities;
@@ -14,42 +19,48 @@ import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.common.document.DocumentField;
-import org.elasticsearch.common.text.Text;
-import org.elasticsearch.common.unit.Fuzziness;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.get.GetResult;
-import org.elasticsearch.index.query.MatchQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.rankeval.*;
-import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.Aggregations;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
-import org.elasticsearch.search.aggregations.metrics.Avg;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
-import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
-import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
-import org.elasticsearch.search.sort.ScoreSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
-import org.elasticsearch.search.suggest.Suggest;
-import org.elasticsearch.search.suggest.SuggestBuilder;
-import org.elasticsearch.search.suggest.SuggestBuilders;
-import org.elasticsearch.search.suggest.SuggestionBuilder;
-import org.elasticsearch.search.suggest.term.TermSuggestion;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /* 搜索实战
 * 允许用户执行搜索查询并返回匹配查询的搜索命中结果，可以跨一个或多个索引，以及跨一个或多个类型来执行
 *  */
 public class EsSearch {
 
+    //导出时逐条写出 JSON，JsonFactory 线程安全，可以共享
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    //游标的编码和解码
+    private static final ObjectMapper CURSOR_MAPPER = new ObjectMapper();
+    //游标分页的排序字段：先按发布时间倒序，发布时间相同时按文档ID（SysConstant.ES_DOC_ID_FIELD）排序，保证排序稳定
+    public static final String SEARCH_AFTER_SORT_FIELD = "postDate";
+    //游标分页每页最多返回的条数，与 /list 相同
+    public static final int SEARCH_AFTER_MAX_SIZE = 100;
+    //导出时每次滚动取回的最多条数，批次越大响应缓冲区占用越大
+    public static final int EXPORT_MAX_SIZE = 1000;
+
     /* 搜索过程解析
     * 对已知文档的搜索：
     * 如果被搜索的文档能够从主分片或任意一个副本分片中被检索到，则与索引文档过程相同，对已知文档的搜索也会用到路由算法
@@ -93,228 +104,241 @@ public class EsSearch {
     * 测试测查询语句：http://localhost:8080/api/es/sr?field=message&value=age
     *  */
 
+    /* 默认的搜索只包含匹配查询和分页
+    * 路由、preference、模糊匹配、高亮、建议等都会增加每次搜索的开销，不再无条件添加，由调用方通过 EsQuery 按需设置，例如：
+    * 模糊匹配：fuzzyMatch(field,value,Fuzziness.AUTO,3,10)，prefixLength 为不参与模糊的前缀长度，maxExpansions 控制模糊的扩展过程
+    * 高亮：highlight("message")，结果中会包含 "highlight":{"message":["这个是测试数据 用来测试 Message的。"]}
+    * 建议：suggest("suggest_message","message","测试")，结果中会包含 suggest_message 的候选词
+    * 筛选源：source("title","message") 只返回指定字段，noSource() 不返回文档源
+    * 列表查询：只使用 filter 条件，不计算分数，trackTotalHits(false) 不统计命中总数
+    *  */
     public SearchRequest buildSearchRequest(String field,String value){
-        SearchRequest searchRequest = new SearchRequest();
-        //大多数搜索参数都添加到 SearchSourceBuilder 中，为进入搜索请求主体的所有内容提供 setter
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        //searchSourceBuilder.query(QueryBuilders.matchAllQuery());
-
-        //请求对象的可选配置
-
-        //设置路由参数
-        searchRequest.routing("routing");
-        //设置 IndicesOption 控制方法
-        searchRequest.indicesOptions(IndicesOptions.lenientExpand());
-        //使用 首选参数，例如 执行搜索以首选本地分片，默认是在分片之间搜索的
-        searchRequest.preference("_local");
-
-        //在 SearchSourceBuilder 相关的可选配置
-        //设置指定词向量的查询条件
-        //说明：这里使用
-        // matchQuery 表示模糊查询(还有个问题，就是查询的话，会是同 词向量 模糊查询)，例如 xxx Message xxxx ，这时候查询 Message会查询到，查询 age 则查询不到数据
-        // termQuery 表示匹配词向量匹配查询，必须全部匹配
-        //searchSourceBuilder.query(QueryBuilders.matchQuery(field,value));
-        //设置搜索结果索引的起始地址，默认为0
-        searchSourceBuilder.from(0);
-        //设置要返回的搜索命中数的大小，默认为 10
-        searchSourceBuilder.size(5);
-        //设置一个可选的超时时间，控制允许搜索的时间
-        searchSourceBuilder.timeout(new TimeValue(60, TimeUnit.SECONDS));
-
-
-        /* 生成查询
-        * 搜索查询时基于 QueryBuilder 创建的，ES中每个搜索查询都需要用到 QueryBuilder，是基于 Elasticsearch DSL 实现的
-        * QueryBuilder 既可以使用其构建函数来创建，也可以使用 QueryBuilders 工具来创建，工具提供了流式编程格式来创建 QueryBuilder
-        *  */
-        //方法 1
-        MatchQueryBuilder matchQueryBuilder = new MatchQueryBuilder(field,value);
-        //创建 QueryBuilder，提供配合搜索查询选项的方法（fuzziness：模糊性）
-        // AUTO 表示模糊查询(还有个问题，就是查询的话，会是同 词向量 模糊查询)，例如 xxx Message xxxx ，这时候查询 Message会查询到，查询 age 则查询不到数据
-        // FIELD 查询 message 字段的 age 值，报错 Elasticsearch exception [type=search_phase_execution_exception, reason=all shards failed]
-        // ONE 结果为 表示模糊查询(还有个问题，就是查询的话，会是同 词向量 模糊查询)，例如 xxx Message xxxx ，这时候查询 Message会查询到，查询 age 则查询不到数据
-        // TWO 结果为 表示模糊查询(还有个问题，就是查询的话，会是同 词向量 模糊查询)，例如 xxx Message xxxx ，这时候查询 Message会查询到，查询 age 则查询不到数据
-        // ONE 结果为 表示模糊查询(还有个问题，就是查询的话，会是同 词向量 模糊查询)，例如 xxx Message xxxx ，这时候查询 Message会查询到，查询 age 则查询不到数据
-        matchQueryBuilder.fuzziness(Fuzziness.AUTO);
-        //在匹配查询上设置前缀长度
-        matchQueryBuilder.prefixLength(3);
-        //设置最大扩展选项以控制查询的模糊过程
-        matchQueryBuilder.maxExpansions(10);
-
-        //matchQueryBuilder = QueryBuilders.matchQuery("content","货币").fuzziness(Fuzziness.AUTO).prefixLength(3).maxExpansions(10);
-
-        //添加 matchQueryBuilder 到 searchSourceBuilder 中
-        searchSourceBuilder.query(matchQueryBuilder);
-
-        /* 设定排序策略
-        * ES 支持用户配置搜索结果的排序策略，常见的排序策略有按时间和按相关性排序两种
-        * SearchSourceBuilder 允许添加一个或多个 SortBuilder 实例，有4种特殊的实现类，FieldSortBuilder，SourceSortBuilder，GeoDistanceSortBuilder，ScriptSortBuilder
-        *  */
-        //按分数降序排序（默认）
-        searchSourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
-        //按 ID 升序排序
-        //searchSourceBuilder.sort(new FieldSortBuilder("_id").order(SortOrder.ASC));
-
-        /* 筛选源
-        * 默认情况下，搜索请求一般会返回文档源的内容，用户可以覆盖此行为，可以完全关闭源检索，在 SearchSourceBuilder 配置源搜索开关
-        * fetch（获取）
-        *  */
-        //searchSourceBuilder.fetchSource(false);  //经过测试，设置了这个值后，将获取不到数据
-        //还可以设置要获取的 类 和不需要获取的列
-        //searchSourceBuilder.fetchSource(new String[]{"title","message"},new String[]{});   //经过测试，设置了这个配置后，只显示 title，message 两个字段内容了
-        //该方法还接收一个或多个通配符模式的数组，以便更细度方式控制那些字段被包括或被排除
-        //String[] includeFields = new String[]{"title","innerObject"};
-        //String[] excludeFields = new String[]{"user"};
-        //searchSourceBuilder.fetchSource(includeFields,excludeFields);
-
-        /* 请求高亮显示
-        * 在 SearchSourceBuilder 上设置 HighlightBuilder，添加一个或多个 HighlightBuilder.Field 实例，可以为每个字段定义不同的高亮显示行为
-        * 经过测试：在 Source中会包含 "highlight":{"message":["这个是测试数据 用来测试 Message的。"]} 这种数据
-        * */
-        HighlightBuilder highlightBuilder = new HighlightBuilder();
-        //为 title 字段创建高亮字段
-        HighlightBuilder.Field highlightTitle = new HighlightBuilder.Field("message");
-        //设置字段高亮类型
-        highlightBuilder.highlighterType("unified");
-        highlightBuilder.field(highlightTitle);
-        //添加第二个高亮显示字段
-        //HighlightBuilder.Field highlightUser = new HighlightBuilder.Field("user");
-        //highlightBuilder.field(highlightUser);
-        //添加高亮配置
-        searchSourceBuilder.highlighter(highlightBuilder);
-
-        /* 请求聚合
-        * 可以设置请求聚合结果，需要先创建聚合构建器 AggregationBuilder，然后将其添加到 SearchSourceBuilder 中
-        *  */
-        //TermsAggregationBuilder aggregationBuilder = AggregationBuilders.terms("by_company").field("company.keyword");
-        //aggregationBuilder.subAggregation(AggregationBuilders.avg("average_age").field("age"));
-        //searchSourceBuilder.aggregation(aggregationBuilder);
-
-        /* 建议请求
-        * 设置请求结果，给出 自动提示（自动感知）
-        * 在 ES中，要想在搜索请求中添加请求，需要使用 SuggestBuilder 工厂类，是SuggestionBuilder 类的实现类之一
-        * SuggestionBuilder工厂类 需要添加到 顶级 SuggestBuilder 中，并将顶级 SuggestBuilder 添加到 SearchSourceBuilder中
-        * 经过测试，删除文档中会增加 "suggest":{"suggest_message":[{"text":"测","offset":0,"length":1,"options":[]},{"text":"试","offset":1,"length":1,"options":[]}]} 输出
-        *  */
-        SuggestionBuilder termSuggestionBuilder = SuggestBuilders.termSuggestion("message").text("测试");
-        SuggestBuilder suggestBuilder = new SuggestBuilder();
-        suggestBuilder.addSuggestion("suggest_message",termSuggestionBuilder);
-        searchSourceBuilder.suggest(suggestBuilder);
-
-        /* 分析聚合查询
-        * 从 ES 2.2 开始，提供 ProfileAPI，供用户 检索、聚合、过滤 执行时间和其他细节信息，帮助分析每次检索各个环节所用的时间
-        * 使用时，用户必须在 SearchSourceBuilder 实例中将配置标志设置为 true
-        *  */
-       // searchSourceBuilder.profile(true);
-
-        //将 searchSourceBuilder 添加到 SearchRequest 中
-        searchRequest.source(searchSourceBuilder);
-        return searchRequest;
-    }
-
-    public String executeSearchRequest(String field,String value,EsUtil esUtil){
-        esUtil.initHEs();
-        SearchRequest request = buildSearchRequest(field,value);
+        return buildSearchQuery(field,value).build();
+    }
+
+    public EsQuery buildSearchQuery(String field,String value){
+        //设置 IndicesOption 控制方法，不存在或已关闭的索引不报错
+        return EsQuery.of().lenient().match(field,value).from(0).size(5);
+    }
+
+    public SearchResult executeSearchRequest(String field,String value,EsUtil esUtil){
+        return executeSearchRequest(buildSearchQuery(field,value),esUtil);
+    }
 
+    /*
+    * 构建搜索请求并设置服务端超时时间
+    * 没有指定超时时间时，热点搜索使用 search-fast 配置的超时时间，设置了截止时间时不超过剩余时间
+    *  */
+    private SearchRequest prepareSearchRequest(EsQuery query,EsUtil esUtil){
+        SearchRequest request = query.build();
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_SEARCH_FAST,request.source().timeout(),query.getDeadline());
+        if(timeout!=null){
+            request.source().timeout(timeout);
+        }
+        return request;
+    }
+
+    public SearchResult executeSearchRequest(EsQuery query,EsUtil esUtil){
+        SearchRequest request = prepareSearchRequest(query,esUtil);
+
+        //相同的搜索直接返回缓存的结果
+        String cacheKey = esUtil.searchCache.keyOf(request);
+        SearchResult cached = esUtil.searchCache.get(cacheKey);
+        if(cached!=null){
+            return cached;
+        }
+        //调用方已经不再等待结果时不发送请求
+        EsDeadline deadline = query.getDeadline();
+        if(deadline!=null && deadline.isExpired()){
+            return SearchResult.failure("execute SearchRequest error :deadline exceeded");
+        }
         try {
-            SearchResponse response = esUtil.restHighLevelClient.search(request, RequestOptions.DEFAULT);
-            return precessSearchResponse(response)+"; source string is:"+response.toString();
+            long start = System.currentTimeMillis();
+            //有截止时间时调用线程最多等待到截止时间，节点无响应时不再等待 socketTimeout
+            RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST);
+            SearchResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.searchAsync(request,options,listener),deadline);
+            esUtil.slowSearchLog.record(request,response,System.currentTimeMillis()-start);
+            SearchResult result = SearchResult.from(response);
+            esUtil.searchCache.put(cacheKey,result);
+            return result;
         }catch (Exception e){
             e.printStackTrace();
-            return "execute SearchRequest error :"+e.getMessage();
-        }
-        finally {
-            esUtil.closeHEs();
+            return SearchResult.failure("execute SearchRequest error :"+e.getMessage());
         }
     }
-    private String precessSearchResponse(SearchResponse response){
-        String resultText = "";
-        if(response == null)
-            return "the search response is null !";
-        //获取 HTTP 状态码
-        RestStatus status = response.status();
-        //获取请求执行时间
-        TimeValue took = response.getTook();
-        //获取请求是否提前终止
-        Boolean terminatedEarly = response.isTerminatedEarly();
-        //获取请求是否超时
-        boolean timeOut = response.isTimedOut();
-        resultText+= "status is "+status+"; took is "+took+"; terminatedEarly is "+terminatedEarly+"; timedOut is "+timeOut;
-
-        //搜索请求相关的分片
-        //response 提供了有关搜索影响的分片奏疏，以及成功与失败的统计信息，并提供了有关分片级别执行的信息，失败的信息通过 ShardSearchFailure 实例数组元素处理
-        //搜索成功的分片的统计信息
-        int totalShards = response.getTotalShards();
-        //搜索失败的分片的统计信息
-        int successfulShards = response.getSuccessfulShards();
-        int failedShards = response.getFailedShards();
-        resultText+="; totalShards is "+totalShards+"; successfulShards is "+successfulShards+"; failedShards is "+failedShards;
-        for (ShardSearchFailure failure : response.getShardFailures()){
-            resultText+="; fail is "+failure.toString();
-        }
-
-        //获取搜索结果 （Search Hits）
-        //其中包含了有关所有搜索结果的全部信息，如 点击总数，最高分数等
-        SearchHits hits = response.getHits();
-        //搜索结果的总数量
-        TotalHits totalHits = hits.getTotalHits();
-        long numHits = totalHits.value;
-        //搜索结果的相关性数据
-        TotalHits.Relation relation = totalHits.relation;
-        float maxScore = hits.getMaxScore();
-        resultText+="; numHits is "+numHits+"; maxScore is "+maxScore;
-
-        //对 SearchHits 的解析还可以通过 遍历 SearchHit 数组来访问，提供了对文档的基本信息的访问，如索引名称，文档ID，每次搜索得分 等
-        SearchHit[] searchHits = hits.getHits();
-        for (SearchHit hit : searchHits){
-            String index = hit.getIndex();
-            String id = hit.getId();
-            float score = hit.getScore();
-            resultText+="; docId is "+id+"; docIndex is "+index+"; docScore is "+score;
-            //ES 允许以简单的 JSON字符串或键值对形式返回文档源，
-            // 映射中，常规字段由字段名作为键值，包含字段值，而多值字段作为对象列表返回，嵌套对象作为另一个键值返回
-            String sourceAsString = hit.getSourceAsString();
-            Map<String,Object> sourceAsMap = hit.getSourceAsMap();
-            String documentTitle = (String)sourceAsMap.get("title");
-            //List<Object> users = (List<Object>)sourceAsMap.get("user");
-            //Map<String,Object> innerObject = (Map<String,Object>)sourceAsMap.get("innerObject");
-            resultText+="; sourceAsString is "+sourceAsString+"; sourceAsMap size is "+sourceAsMap.size();
-
-            //搜索结果高亮显示
-            Map<String, HighlightField> highlightFields = hit.getHighlightFields();
-            HighlightField highlight = highlightFields.get("message");
-            Text[] fragments = highlight.fragments();
-            String fragmentString = fragments[0].string();
-            resultText+="; fragmentString is "+fragmentString;
-        }
-
-        //搜索聚合结果
-        //通过 response 实例获取搜索的聚合结果，首先获取聚合树的根，即聚合对象，然后按照名称获取搜索聚合结果
-        //Aggregations aggregations = response.getAggregations();
-        //按 content 聚合
-        //Terms byCompanyAggregation = aggregations.get("by_content");
-        //获取 Elastic 为关键字的 buckets
-        //Terms.Bucket elasticBucket = byCompanyAggregation.getBucketByKey("Elastic");
-        //获取平均年龄的子聚合
-        //Avg averageAge = elasticBucket.getAggregations().get("average_age");
-        //double avg = averageAge.getValue();
-        //resultText += "; avg is "+avg;
-
-        //解析 Suggestions 结果
-        //首先在 response 实例中使用 Suggest 对象作为入口点，然后检索嵌套的 Suggest对象
-        Suggest suggest = response.getSuggest();
-        //按 content 搜索 Suggest
-        TermSuggestion termSuggestion = suggest.getSuggestion("suggest_message");
-        for(TermSuggestion.Entry entry : termSuggestion.getEntries()){
-            for (TermSuggestion.Entry.Option option : entry){
-                String suggestText = option.getText().string();
-                resultText+="; suggestText is "+suggestText;
-            }
-        }
 
-        return resultText;
+    /* 异步执行搜索请求
+    * 使用 searchAsync 发送请求，ES 处理期间不占用调用线程，响应由客户端的 IO 线程通过 ActionListener 回调
+    * 请求交给 EsSearchBatcher，几毫秒内并发到达的搜索会合并为一个 _msearch 请求
+    * 响应在 esUtil.responseExecutor 中转换为 SearchResult 并完成 CompletableFuture，不占用 IO 线程，Controller 直接返回该 Future，
+    * Spring MVC 会释放 Servlet 线程，待 Future 完成后再写出响应
+    *  */
+    public CompletableFuture<SearchResult> executeSearchRequestAsync(String field,String value,EsUtil esUtil){
+        return executeSearchRequestAsync(buildSearchQuery(field,value),esUtil);
     }
 
+    public CompletableFuture<SearchResult> executeSearchRequestAsync(EsQuery query,EsUtil esUtil){
+        SearchRequest request = prepareSearchRequest(query,esUtil);
 
+        String cacheKey = esUtil.searchCache.keyOf(request);
+        SearchResult cached = esUtil.searchCache.get(cacheKey);
+        if(cached!=null){
+            return CompletableFuture.completedFuture(cached);
+        }
+        EsDeadline deadline = query.getDeadline();
+        if(deadline!=null && deadline.isExpired()){
+            return CompletableFuture.completedFuture(SearchResult.failure("execute SearchRequest error :deadline exceeded"));
+        }
+        //通过 searchBatcher 发送，与同一时间窗口内的其他搜索合并为一个 _msearch，耗时包括合并等待的时间
+        //有截止时间时，到期后返回的 Future 以 TimeoutException 完成
+        long start = System.currentTimeMillis();
+        //Future 在 IO 线程上完成，一个 _msearch 的所有响应同时完成，转换和慢搜索日志交给 responseExecutor 并行处理
+        return esUtil.searchBatcher.submit(request,deadline).thenApplyAsync(searchResponse -> {
+            esUtil.slowSearchLog.record(request,searchResponse,System.currentTimeMillis()-start);
+            SearchResult result = SearchResult.from(searchResponse);
+            esUtil.searchCache.put(cacheKey,result);
+            return result;
+        },esUtil.responseExecutor);
+    }
+
+    /* 批量执行多个命名的搜索，一次 _msearch 请求返回所有结果，key 与传入的名称一致
+    * 已缓存的搜索不再发送，某个搜索失败时只有该名称对应的结果为失败，不影响其他搜索
+    *  */
+    public Map<String,SearchResult> executeMultiSearchRequest(Map<String,EsQuery> queries,EsUtil esUtil){
+        Map<String,SearchResult> results = new LinkedHashMap<>();
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        List<String> names = new ArrayList<>();
+        List<String> cacheKeys = new ArrayList<>();
+        List<EsDeadline> deadlines = new ArrayList<>();
+        for(Map.Entry<String,EsQuery> entry : queries.entrySet()){
+            SearchRequest request = prepareSearchRequest(entry.getValue(),esUtil);
+            String cacheKey = esUtil.searchCache.keyOf(request);
+            SearchResult cached = esUtil.searchCache.get(cacheKey);
+            //先占住位置，保证结果顺序与传入顺序一致
+            results.put(entry.getKey(),cached);
+            if(cached==null){
+                multiSearchRequest.add(request);
+                names.add(entry.getKey());
+                cacheKeys.add(cacheKey);
+                deadlines.add(entry.getValue().getDeadline());
+            }
+        }
+        if(names.isEmpty()){
+            return results;
+        }
+        //各个搜索的服务端超时按各自的截止时间设置，所有搜索都已经到截止时间（最晚的截止时间已过）时不再发送，调用线程最多等待到最晚的截止时间
+        EsDeadline deadline = EsDeadline.latest(deadlines);
+        if(deadline!=null && deadline.isExpired()){
+            for(String name : names){
+                results.put(name,SearchResult.failure("execute MultiSearchRequest error :deadline exceeded"));
+            }
+            return results;
+        }
+        try {
+            RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST);
+            MultiSearchResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.msearchAsync(multiSearchRequest,options,listener),deadline);
+            MultiSearchResponse.Item[] items = response.getResponses();
+            for(int i=0;i<names.size();i++){
+                if(items[i].isFailure()){
+                    results.put(names.get(i),SearchResult.failure("execute SearchRequest error :"+items[i].getFailureMessage()));
+                }else{
+                    //各个搜索的客户端耗时相同，都是整个 _msearch 的耗时，慢搜索只按各自的 took 判断
+                    esUtil.slowSearchLog.record(multiSearchRequest.requests().get(i),items[i].getResponse(),0);
+                    SearchResult result = SearchResult.from(items[i].getResponse());
+                    esUtil.searchCache.put(cacheKeys.get(i),result);
+                    results.put(names.get(i),result);
+                }
+            }
+        }catch (Exception e){
+            e.printStackTrace();
+            for(String name : names){
+                results.put(name,SearchResult.failure("execute MultiSearchRequest error :"+e.getMessage()));
+            }
+        }
+        return results;
+    }
+    /* 游标分页（search_after）
+    * from/size 分页时，每个分片都要取出 from+size 条结果再由协调节点排序，页数越深代价越大
+    * search_after 使用上一页最后一条结果的排序值作为下一页的起点，每个分片只需要取 size 条，第 1000 页与第 1 页的代价相同
+    * 排序必须唯一且稳定，这里使用 发布时间+文档ID 作为排序，排序值编码为不透明的游标字符串返回给前端，请求下一页时原样传回
+    * 文档ID 不使用 _id 排序：ES 7.x 按 _id 排序会把整个索引的 _id fielddata 加载到堆内存（7.6 起废弃，8.x 默认禁止）
+    * 而是使用写入时填入的 keyword 字段 SysConstant.ES_DOC_ID_FIELD，keyword 默认带 doc_values，创建索引时在映射中声明
+    * 没有映射该字段的旧索引按 keyword 处理不会报错，但缺少该字段的文档之间排序不稳定，需要重新写入一次
+    * 游标分页只能逐页向后翻，不能跳页，每页条数限制在 1 到 SEARCH_AFTER_MAX_SIZE 之间
+    * 服务端超时使用 search-fast 的配置，设置了截止时间时不超过剩余时间，调用线程最多等待到截止时间
+    *  */
+    public SearchRequest buildSearchAfterRequest(String indexName,String field,String value,int size,String cursor) throws IOException{
+        SearchRequest request = new SearchRequest(indexName);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        if(field==null || field.isEmpty() || value==null || value.isEmpty()){
+            searchSourceBuilder.query(QueryBuilders.matchAllQuery());
+        }else{
+            searchSourceBuilder.query(QueryBuilders.matchQuery(field,value));
+        }
+        searchSourceBuilder.size(size);
+        searchSourceBuilder.sort(new FieldSortBuilder(SEARCH_AFTER_SORT_FIELD).order(SortOrder.DESC));
+        searchSourceBuilder.sort(new FieldSortBuilder(SysConstant.ES_DOC_ID_FIELD).order(SortOrder.ASC).unmappedType("keyword"));
+        if(cursor!=null && !cursor.isEmpty()){
+            searchSourceBuilder.searchAfter(decodeCursor(cursor));
+        }
+        request.source(searchSourceBuilder);
+        return request;
+    }
+    public PageResult<SearchResult.Hit> executeSearchAfterRequest(String indexName,String field,String value,int size,String cursor,EsUtil esUtil){
+        return executeSearchAfterRequest(indexName,field,value,size,cursor,null,esUtil);
+    }
+    public PageResult<SearchResult.Hit> executeSearchAfterRequest(String indexName,String field,String value,int size,String cursor,EsDeadline deadline,EsUtil esUtil){
+        size = Math.max(1,Math.min(size,SEARCH_AFTER_MAX_SIZE));
+        if(deadline!=null && deadline.isExpired()){
+            PageResult<SearchResult.Hit> result = new PageResult<>();
+            result.setCode(SysConstant.RESULT_CODE_FAILURE);
+            result.setMsg("execute search after request error :deadline exceeded");
+            return result;
+        }
+        try {
+            SearchRequest request = buildSearchAfterRequest(indexName,field,value,size,cursor);
+            TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_SEARCH_FAST,request.source().timeout(),deadline);
+            if(timeout!=null){
+                request.source().timeout(timeout);
+            }
+            RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST);
+            long start = System.currentTimeMillis();
+            SearchResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.searchAsync(request,options,listener),deadline);
+            esUtil.slowSearchLog.record(request,response,System.currentTimeMillis()-start);
+            SearchHit[] searchHits = response.getHits().getHits();
+            List<SearchResult.Hit> rows = new ArrayList<>(searchHits.length);
+            for(SearchHit searchHit : searchHits){
+                rows.add(SearchResult.toHit(searchHit));
+            }
+            TotalHits totalHits = response.getHits().getTotalHits();
+            PageResult<SearchResult.Hit> result = new PageResult<>(totalHits==null ? rows.size() : totalHits.value,rows);
+            //超时的搜索缺少部分分片的结果，用它生成游标会跳过这些分片上的文档，不返回游标，由调用方使用同一个游标重试
+            if(response.isTimedOut()){
+                result.setCode(SysConstant.RESULT_CODE_FAILURE);
+                result.setMsg("search after request timed out, retry with the same cursor");
+                return result;
+            }
+            //返回条数等于 size 时才可能有下一页，用最后一条的排序值生成游标
+            if(searchHits.length==size){
+                result.setCursor(encodeCursor(searchHits[searchHits.length-1].getSortValues()));
+            }
+            return result;
+        }catch (Exception e){
+            e.printStackTrace();
+            PageResult<SearchResult.Hit> result = new PageResult<>();
+            result.setCode(SysConstant.RESULT_CODE_FAILURE);
+            result.setMsg("execute search after request error :"+e.getMessage());
+            return result;
+        }
+    }
+    static String encodeCursor(Object[] sortValues) throws IOException{
+        byte[] json = CURSOR_MAPPER.writeValueAsBytes(sortValues);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+    static Object[] decodeCursor(String cursor) throws IOException{
+        byte[] json = Base64.getUrlDecoder().decode(cursor);
+        return CURSOR_MAPPER.readValue(json,Object[].class);
+    }
 
     /* 滚动搜索
     * 可通过搜索请求，获取大量的搜索结果，类似于数据库中的分页查询
@@ -334,23 +358,17 @@ public class EsSearch {
         request.scroll(TimeValue.timeValueMinutes(1L));   //设置滚动间隔
         return request;
     }
-    public String executeScrollSearchRequest(String indexName,String size,EsUtil esUtil){
-        esUtil.initHEs();
+    public SearchResult executeScrollSearchRequest(String indexName,String size,EsUtil esUtil){
         SearchRequest request = buildExecuteScrollSearchRequest(indexName,Integer.parseInt(size));
         try {
-            SearchResponse response = esUtil.restHighLevelClient.search(request,RequestOptions.DEFAULT);
-            //返回的滚动 ID，该ID指向保持活动状态的搜索上下文，并在后续的搜索滚动中需要使用
+            SearchResponse response = esUtil.restHighLevelClient.search(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
+            //第一次滚动获取的结果，返回的滚动 ID 指向保持活动状态的搜索上下文，在后续的搜索滚动中需要使用，一并放在结果中返回
             //测试后返回 ScrollID：DnF1ZXJ5VGhlbkZldGNoAwAAAAAAAAEiFnNtcjRjRjJsVHV1eDRoWWw4ZWlaQUEAAAAAAAABIxZzbXI0Y0YybFR1dXg0aFlsOGVpWk
             // FBAAAAAAAAAKEWTDBRRnNGb0lTY2VCMDQ0WHJ0aUJxQQ==
-            String scrollId = response.getScrollId();
-            //第一次滚动获取的结果
-            SearchHits hits = response.getHits();
-            return "ScrollId is: "+scrollId+"; hits is: "+hits.toString()+"; source is: "+response.toString();
+            return SearchResult.from(response);
         }catch (Exception e){
             e.printStackTrace();
-            return "execute scroll search request is error :"+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
+            return SearchResult.failure("execute scroll search request is error :"+e.getMessage());
         }
     }
     /* 滚动检索所有文档
@@ -360,35 +378,235 @@ public class EsSearch {
     * 这个过程重复执行，直到不再返回任何结果，意味着搜索完毕，所有匹配的文档都被检索了。
     * */
 
-    public String executeAllScrollSearchRequest(String indexName,String size,EsUtil esUtil){
-        String resultText = "";
-        esUtil.initHEs();
+    public SearchResult executeAllScrollSearchRequest(String indexName,String size,EsUtil esUtil){
         SearchRequest request = buildExecuteScrollSearchRequest(indexName,Integer.parseInt(size));
         try {
-            SearchResponse searchResponse = esUtil.restHighLevelClient.search(request,RequestOptions.DEFAULT);
+            SearchResponse searchResponse = esUtil.restHighLevelClient.search(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
             String scrollId = searchResponse.getScrollId();
             SearchHits hits = searchResponse.getHits();
-            resultText+=" scrollId is "+scrollId;
-            resultText+="total hits is "+hits.getTotalHits().value+"; now hits is "+hits.getHits().length;
+            //只统计每一批的数量和耗时，不保留命中结果，结果大小与索引大小无关
+            SearchResult result = new SearchResult();
+            result.setTotal(hits.getTotalHits().value);
+            long took = searchResponse.getTook().getMillis();
+            long fetched = hits.getHits().length;
+            int pages = 1;
 
             while (hits != null && hits.getHits().length != 0){
                 SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
                 //设置滚动搜索的过期时间，如果没有设置滚动标识符，则一但初始滚动时间过期，则滚动搜索的上下文也会过期
                 scrollRequest.scroll(TimeValue.timeValueSeconds(30));
-                SearchResponse searchScrollResponse = esUtil.restHighLevelClient.scroll(scrollRequest,RequestOptions.DEFAULT);
+                SearchResponse searchScrollResponse = esUtil.restHighLevelClient.scroll(scrollRequest,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE));
                 scrollId = searchScrollResponse.getScrollId();
                 hits = searchScrollResponse.getHits();
-                resultText+=" scrollId is "+scrollId;
-                resultText+="total hits is "+hits.getTotalHits().value+"; now hits is "+hits.getHits().length;
+                took += searchScrollResponse.getTook().getMillis();
+                fetched += hits.getHits().length;
+                pages++;
             }
-            return resultText;
+            result.setCode(SysConstant.RESULT_CODE_SUCCESSFUL);
+            result.setMsg("fetched "+fetched+" hits in "+pages+" pages");
+            result.setTook(took);
+            result.setScrollId(scrollId);
+            return result;
         }catch (Exception e){
             e.printStackTrace();
-            return "execute all scroll search request is error :"+e.getMessage();
+            return SearchResult.failure("execute all scroll search request is error :"+e.getMessage());
+        }
+    }
+
+    /* 流式导出索引
+    * 滚动读取整个索引，每取到一批结果就按 NDJSON 格式（每行一个 JSON 文档）写到输出流并 flush，
+    * 写出完成后才发起下一次滚动请求，客户端读取慢时，写出会阻塞，也就不会继续向 ES 拉取数据，内存占用与索引大小无关
+    * 导出按 _doc 排序，这是滚动搜索中开销最小的排序方式，结束或出错时都会清除滚动搜索的上下文
+    * 滚动搜索只使用 bulk-large 的响应缓冲区，不设置服务端超时：超时的分片只返回部分结果，滚动会静默漏掉文档
+    * 最后一行固定为 {"_export":{"complete":true,"exported":N}}，滚动失败、滚动上下文过期（客户端读取太慢超过 1 分钟）
+    * 或者超过截止时间时为 {"_export":{"complete":false,"exported":N,"error":"..."}}，客户端没有读到这一行或者 complete 为 false 时，导出不完整
+    * 截止时间应早于 Spring MVC 异步请求的超时时间，保证请求超时之前能写出最后一行
+    *  */
+    private SearchRequest buildExportScrollSearchRequest(String indexName,int size){
+        SearchRequest request = new SearchRequest(indexName);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
+        searchSourceBuilder.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+        searchSourceBuilder.size(size);
+        request.source(searchSourceBuilder);
+        request.scroll(TimeValue.timeValueMinutes(1L));
+        return request;
+    }
+    public long executeExportScrollSearchRequest(String indexName,int size,OutputStream out,EsUtil esUtil){
+        return executeExportScrollSearchRequest(indexName,size,1,null,out,esUtil);
+    }
+    //slices 大于 1 时按切片并行导出，结果无序
+    public long executeExportScrollSearchRequest(String indexName,int size,int slices,EsDeadline deadline,OutputStream out,EsUtil esUtil){
+        AtomicLong exported = new AtomicLong();
+        Exception error = null;
+        try {
+            executeSlicedScrollSearchRequest(indexName,size,slices,hits -> {
+                if(deadline!=null && deadline.isExpired()){
+                    throw new IOException("export time limit exceeded");
+                }
+                synchronized (out){
+                    writeHits(hits,out);
+                }
+                exported.addAndGet(hits.length);
+            },esUtil);
+        }catch (Exception e){
+            error = e;
+            EsUtil.log.warn("export of "+indexName+" stopped after "+exported.get()+" documents: "+e.getMessage());
+        }
+        try {
+            synchronized (out){
+                writeTrailer(exported.get(),error,out);
+            }
+        }catch (IOException e){
+            //客户端已经断开，没有地方再写出结果
+            EsUtil.log.warn("export of "+indexName+" trailer not written: "+e.getMessage());
+        }
+        return exported.get();
+    }
+    /* 切片滚动扫描
+    * 单个滚动搜索只有一个游标，只能串行读取。ES 支持把一次滚动拆分为多个切片（Slice），每个切片是一个独立的滚动，可以并行读取
+    * 切片数一般设置为索引的分片数，切片数超过分片数时，ES 需要额外过滤文档，反而会变慢
+    * 每个切片作为一个任务提交到 esUtil.scanExecutor 线程池中执行，读取到的每一批结果交给 HitsConsumer 处理
+    * HitsConsumer 会被多个线程同时调用，需要自行保证线程安全，结果之间没有顺序
+    * 按完成的先后顺序等待切片，任意一个切片失败时立即取消其余切片，并抛出第一个异常；每个切片结束时都会清除自己的滚动上下文
+    * 线程池队列满时切片由调用线程执行，取消不到这样的切片，所以失败时还会设置共享的标志，其余切片处理完当前一批后停止
+    * 每个切片占用一个扫描线程和一个滚动上下文，切片数限制在 1 到 min(扫描线程数, 索引分片数) 之间，
+    * 也就不会超过 ES 的 index.max_slices_per_scroll
+    *  */
+    public interface HitsConsumer {
+        void accept(SearchHit[] hits) throws IOException;
+    }
+    private SearchRequest buildSlicedScrollSearchRequest(String indexName,int size,int sliceId,int maxSlices){
+        SearchRequest request = buildExportScrollSearchRequest(indexName,size);
+        //只有一个切片时就是普通的滚动搜索，SliceBuilder 要求 max 大于 1
+        if(maxSlices>1){
+            request.source().slice(new SliceBuilder(sliceId,maxSlices));
+        }
+        return request;
+    }
+    private long scrollSlice(String indexName,int size,int sliceId,int maxSlices,HitsConsumer consumer,AtomicBoolean failed,EsUtil esUtil) throws IOException{
+        SearchRequest request = buildSlicedScrollSearchRequest(indexName,size,sliceId,maxSlices);
+        RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_BULK_LARGE);
+        String scrollId = null;
+        long scanned = 0;
+        try {
+            SearchResponse searchResponse = esUtil.restHighLevelClient.search(request,options);
+            scrollId = searchResponse.getScrollId();
+            SearchHit[] hits = searchResponse.getHits().getHits();
+            while (hits != null && hits.length != 0 && !failed.get() && !Thread.currentThread().isInterrupted()){
+                consumer.accept(hits);
+                scanned += hits.length;
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(TimeValue.timeValueMinutes(1L));
+                SearchResponse searchScrollResponse = esUtil.restHighLevelClient.scroll(scrollRequest,options);
+                scrollId = searchScrollResponse.getScrollId();
+                hits = searchScrollResponse.getHits().getHits();
+            }
+            return scanned;
         }finally {
-            esUtil.closeHEs();
+            if(scrollId!=null){
+                try {
+                    esUtil.restHighLevelClient.clearScroll(buildClearScrollRequest(scrollId),esUtil.getRequestOptions());
+                }catch (Exception e){
+                    e.printStackTrace();
+                }
+            }
         }
     }
+    int sliceCountOf(String indexName,int slices,EsUtil esUtil) throws IOException{
+        int max = Math.min(slices,esUtil.getScanThreads());
+        if(max<=1){
+            return 1;
+        }
+        //索引名可以是别名或通配符，按匹配到的索引中最少的分片数计算
+        GetSettingsRequest request = new GetSettingsRequest().indices(indexName).names("index.number_of_shards");
+        GetSettingsResponse response = esUtil.restHighLevelClient.indices().getSettings(request,esUtil.getRequestOptions(SysConstant.ES_OPTIONS_ADMIN));
+        Iterator<String> indices = response.getIndexToSettings().keysIt();
+        while (indices.hasNext()){
+            String shards = response.getSetting(indices.next(),"index.number_of_shards");
+            if(shards!=null){
+                max = Math.min(max,Integer.parseInt(shards));
+            }
+        }
+        return Math.max(1,max);
+    }
+    public long executeSlicedScrollSearchRequest(String indexName,int size,int requestedSlices,HitsConsumer consumer,EsUtil esUtil) throws IOException{
+        int slices = sliceCountOf(indexName,requestedSlices,esUtil);
+        if(slices<=1){
+            return scrollSlice(indexName,size,0,1,consumer,new AtomicBoolean(),esUtil);
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        CompletionService<Long> completionService = new ExecutorCompletionService<>(esUtil.scanExecutor);
+        List<Future<Long>> futures = new ArrayList<>(slices);
+        for(int i=0;i<slices;i++){
+            int sliceId = i;
+            futures.add(completionService.submit(() -> {
+                try {
+                    return scrollSlice(indexName,size,sliceId,slices,consumer,failed,esUtil);
+                }catch (Exception e){
+                    failed.set(true);
+                    throw e;
+                }
+            }));
+        }
+        long scanned = 0;
+        try {
+            for(int i=0;i<slices;i++){
+                scanned += completionService.take().get();
+            }
+            return scanned;
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("sliced scroll interrupted",e);
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException){
+                throw (IOException)cause;
+            }
+            throw new IOException("sliced scroll failed: "+cause.getMessage(),cause);
+        }finally {
+            for(Future<Long> future : futures){
+                future.cancel(true);
+            }
+        }
+    }
+    /* 切片并行导出，多个切片同时写同一个输出流，按批加锁写出，结果之间没有顺序 */
+
+    private void writeHits(SearchHit[] hits,OutputStream out) throws IOException{
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        for(SearchHit hit : hits){
+            generator.writeStartObject();
+            generator.writeStringField("_index",hit.getIndex());
+            generator.writeStringField("_id",hit.getId());
+            generator.writeFieldName("_source");
+            //文档源本身就是 JSON，原样写出，不解析成 Map
+            if(hit.hasSource()){
+                generator.writeRawValue(hit.getSourceAsString());
+            }else{
+                generator.writeNull();
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+        out.flush();
+    }
+
+    private void writeTrailer(long exported,Exception error,OutputStream out) throws IOException{
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("_export");
+        generator.writeBooleanField("complete",error==null);
+        generator.writeNumberField("exported",exported);
+        if(error!=null){
+            generator.writeStringField("error",String.valueOf(error.getMessage()));
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+        out.flush();
+    }
 
     /* 清除滚动搜索的上下文
     * 使用 Clear Scroll API 删除最后一个滚动标识，以释放滚动搜索的上下文，当滚动搜索超时时间到期时，这个过程也会自动发生
@@ -408,10 +626,9 @@ public class EsSearch {
         return request;
     }
     public String executeClearScrollRequest(String scrollId,EsUtil esUtil){
-        esUtil.initHEs();
         ClearScrollRequest request = buildClearScrollRequest(scrollId);
         try {
-            ClearScrollResponse response = esUtil.restHighLevelClient.clearScroll(request,RequestOptions.DEFAULT);
+            ClearScrollResponse response = esUtil.restHighLevelClient.clearScroll(request,esUtil.getRequestOptions());
             //如果请求成功，则会返回 true
             boolean success = response.isSucceeded();
             //返回已释放的搜索上下文数
@@ -420,8 +637,6 @@ public class EsSearch {
         }catch (Exception e){
             e.printStackTrace();
             return "execute clear scroll search request is error :"+e.getMessage();
-        }finally {
-            esUtil.closeHEs();
         }
     }
 
@@ -520,18 +735,14 @@ public class EsSearch {
         return request;
     }
     public String executeRankEvalRequest(String index,String documentId,String field,String content,EsUtil esUtil){
-        esUtil.initHEs();
         RankEvalRequest request = buildRankEvalRequest(index,documentId,field,content);
         try {
-            RankEvalResponse response = esUtil.restHighLevelClient.rankEval(request, RequestOptions.DEFAULT);
+            RankEvalResponse response = esUtil.restHighLevelClient.rankEval(request, esUtil.getRequestOptions());
             return processRankEvalResponse(response);
         }catch (Exception e){
             e.printStackTrace();
             return "execute rankEval request  error :"+e.getMessage();
         }
-        finally {
-            esUtil.closeHEs();
-        }
     }
     public String processRankEvalResponse(RankEvalResponse response){
         String resultText = "";
@@ -641,36 +852,69 @@ public class EsSearch {
         request.source(searchSourceBuilder);
         return request;
     }
-    public void executeCountRequest(String index,String routeName,String field,String content,EsUtil esUtil){
+    public CountResult executeCountRequest(String index,String routeName,String field,String content,EsUtil esUtil){
         CountRequest request = buildCountRequest(index,routeName,field,content);
         try {
-            CountResponse response = esUtil.restHighLevelClient.count(request,RequestOptions.DEFAULT);
-            //统计请求对应的结果命中总数
-            long count = response.getCount();
-            // HTTP状态代码
-            RestStatus status = response.status();
-            // 请求是否提前终止
-            Boolean terminatedEarly = response.isTerminatedEarly();
-            EsUtil.log.info("count is "+count+"; status is "+status.getStatus()+"; terminatedEarly is "+terminatedEarly);
-            //与统计请求对应的分片总数
-            int totalShards = response.getTotalShards();
-            //执行统计请求跳过的分片数量
-            int skippedShards = response.getSkippedShards();
-            //执行统计请求成功的分片数量
-            int successfulShards = response.getSuccessfulShards();
-            //执行统计请求失败的分片数量
-            int failedShards = response.getFailedShards();
-            EsUtil.log.info("totalShards is "+totalShards+"; skippedShards is "+skippedShards+"; successfulShards is "+successfulShards+"; failedShards is "+failedShards);
+            CountResponse response = esUtil.restHighLevelClient.count(request,esUtil.getRequestOptions());
             //通过遍历 ShardSearchFailures 数组来处理可能的失败信息
-            if(response.getShardFailures()==null){
-                return;
-            }
-            for(ShardSearchFailure failure:response.getShardFailures()){
-                EsUtil.log.info("fail index is "+failure.index());
+            if(response.getShardFailures()!=null){
+                for(ShardSearchFailure failure:response.getShardFailures()){
+                    EsUtil.log.info("fail index is "+failure.index());
+                }
             }
+            //统计结果中包含命中总数，分片总数、失败的分片数量，请求是否提前终止
+            return CountResult.from(response);
+        }catch (Exception e){
+            e.printStackTrace();
+            return CountResult.failure("execute CountRequest error :"+e.getMessage());
+        }
+    }
 
+    /* 按阈值统计
+    * threshold 大于 0 时使用 size 为 0 的搜索，track_total_hits 设为 threshold，数量不超过阈值时为精确值，超过时每个分片数到阈值就停止，返回 "threshold+"
+    * threshold 小于等于 0 时使用 Count API 精确统计，匹配的文档越多越慢
+    * 相同的条件和阈值在 countTtlMillis 内直接返回缓存的结果，索引写入后缓存失效
+    *  */
+    public CountResult executeCount(EsQuery query,int threshold,EsUtil esUtil){
+        //build 每次生成新的 SearchSourceBuilder，统计用的 size 和 track_total_hits 只设置在这次请求上，调用方的 EsQuery 保持不变
+        SearchRequest searchRequest = prepareSearchRequest(query,esUtil);
+        searchRequest.source().size(0);
+        if(threshold>0){
+            searchRequest.source().trackTotalHitsUpTo(threshold);
+        }else{
+            searchRequest.source().trackTotalHits(true);
+        }
+        String cacheKey = esUtil.searchCache.countKeyOf(searchRequest);
+        CountResult cached = esUtil.searchCache.getCount(cacheKey);
+        if(cached!=null){
+            return cached;
+        }
+        //Count API 没有服务端超时，截止时间用于发送前的检查和限制调用线程的等待时间
+        EsDeadline deadline = query.getDeadline();
+        if(deadline!=null && deadline.isExpired()){
+            return CountResult.failure("execute count error :deadline exceeded");
+        }
+        RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST);
+        try {
+            CountResult result;
+            if(threshold>0){
+                long start = System.currentTimeMillis();
+                SearchResponse response = esUtil.execute(listener -> esUtil.restHighLevelClient.searchAsync(searchRequest,options,listener),deadline);
+                esUtil.slowSearchLog.record(searchRequest,response,System.currentTimeMillis()-start);
+                result = CountResult.from(response);
+            }else{
+                CountRequest countRequest = new CountRequest(searchRequest.indices())
+                        .routing(searchRequest.routing())
+                        .preference(searchRequest.preference())
+                        .indicesOptions(searchRequest.indicesOptions());
+                countRequest.source(new SearchSourceBuilder().query(searchRequest.source().query()));
+                result = CountResult.from(esUtil.<CountResponse>execute(listener -> esUtil.restHighLevelClient.countAsync(countRequest,options,listener),deadline));
+            }
+            esUtil.searchCache.putCount(cacheKey,result);
+            return result;
         }catch (Exception e){
             e.printStackTrace();
+            return CountResult.failure("execute count error :"+e.getMessage());
         }
     }
 
@@ -0,0 +1,189 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 〈功能概述〉
+ * 搜索请求合并，把 windowMillis 毫秒内并发提交的单个搜索合并为一个 _msearch 请求发送，减少 HTTP 往返次数
+ * 第一个请求到达时开始计时，到达时间窗口或等待的请求数达到 maxBatchSize 时立即发送
+ * 只有一个请求时直接使用 _search，_msearch 中每个搜索的成功或失败分别完成各自的 CompletableFuture
+ *
+ * @className: EsSearchBatcher
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/16 10:30 上午
+ */
+@Component
+public class EsSearchBatcher {
+
+    @Resource
+    private EsUtil esUtil;
+
+    @Resource
+    private EsProperties esProperties;
+
+    private ScheduledExecutorService scheduler;
+    private List<Pending> pending = new ArrayList<>();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private static class Pending {
+        private final SearchRequest request;
+        private final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+
+        private Pending(SearchRequest request) {
+            this.request = request;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "es-search-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    /*
+     * 提交一个搜索，返回的 Future 在所在批次的响应返回后完成
+     */
+    public CompletableFuture<SearchResponse> submit(SearchRequest request) {
+        return submit(request, null);
+    }
+
+    /*
+     * 有截止时间时，到期后 Future 以 TimeoutException 完成，调用方不再等待，已经发出的 HTTP 请求按服务端超时正常结束
+     */
+    public CompletableFuture<SearchResponse> submit(SearchRequest request, EsDeadline deadline) {
+        EsProperties.SearchBatch config = esProperties.getSearchBatch();
+        Pending item = new Pending(request);
+        if (deadline != null) {
+            deadline.bound(item.future, scheduler);
+        }
+        searches.incrementAndGet();
+        if (!config.isEnabled() || config.getMaxBatchSize() <= 1) {
+            send(item);
+            return item.future;
+        }
+        List<Pending> full = null;
+        boolean first;
+        synchronized (this) {
+            pending.add(item);
+            first = pending.size() == 1;
+            if (pending.size() >= config.getMaxBatchSize()) {
+                full = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            send(full);
+        } else if (first) {
+            scheduler.schedule(this::flush, config.getWindowMillis(), TimeUnit.MILLISECONDS);
+        }
+        return item.future;
+    }
+
+    /*
+     * 发送等待中的请求，计时结束时调用，等待的请求已经因为达到 maxBatchSize 被发送时什么也不做
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<Pending> batch) {
+        //等待合并期间已经到截止时间的搜索不再发送
+        batch.removeIf(item -> item.future.isDone());
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            send(batch.get(0));
+            return;
+        }
+        batches.incrementAndGet();
+        MultiSearchRequest request = new MultiSearchRequest();
+        for (Pending item : batch) {
+            request.add(item.request);
+        }
+        RequestOptions options = esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST);
+        esUtil.restHighLevelClient.msearchAsync(request, options, new ActionListener<MultiSearchResponse>() {
+            @Override
+            public void onResponse(MultiSearchResponse response) {
+                MultiSearchResponse.Item[] items = response.getResponses();
+                for (int i = 0; i < batch.size(); i++) {
+                    CompletableFuture<SearchResponse> future = batch.get(i).future;
+                    if (i >= items.length) {
+                        future.completeExceptionally(new IllegalStateException("missing response in msearch"));
+                    } else if (items[i].isFailure()) {
+                        future.completeExceptionally(items[i].getFailure());
+                    } else {
+                        future.complete(items[i].getResponse());
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                for (Pending item : batch) {
+                    item.future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private void send(Pending item) {
+        esUtil.restHighLevelClient.searchAsync(item.request, esUtil.getRequestOptions(SysConstant.ES_OPTIONS_SEARCH_FAST), new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                item.future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                item.future.completeExceptionally(e);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("searches", searches.get());
+        stats.put("batches", batches.get());
+        return stats;
+    }
+}
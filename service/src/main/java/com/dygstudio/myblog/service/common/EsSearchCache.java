@@ -0,0 +1,233 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.action.search.SearchRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 〈功能概述〉
+ * 搜索结果缓存，相同的搜索直接返回缓存的 SearchResult，不再请求集群
+ * 缓存键为 索引、路由、preference、搜索主体（查询、from/size、排序、高亮等）规范化后的 SHA-256，以及所涉及索引的版本号
+ * 规范化：搜索主体转为 JSON 后按字段名排序，去掉不影响结果的 timeout，字段顺序不同但内容相同的搜索使用同一个缓存
+ * 通过 EsDocument 等写入索引时增加该索引的版本号，旧版本的缓存不再命中，由 LRU 和过期时间清理
+ * 写入的文档在索引刷新（refresh_interval，默认 1 秒）后才能被搜索到，写入后经过 refreshDelayMillis 再增加一次版本号，
+ * 避免写入到刷新之间的搜索把旧结果按新版本缓存下来
+ * 统计结果（CountResult）使用相同的键单独缓存，过期时间为 countTtlMillis，列表分页显示的总数不需要每次请求都重新统计
+ *
+ * @className: EsSearchCache
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/15 10:20 上午
+ */
+@Component
+public class EsSearchCache {
+
+    //没有指定索引或使用通配符、多个索引的搜索使用的版本号，任何索引写入时都会增加
+    private static final String ALL_INDICES = "_all";
+    private static final ObjectMapper KEY_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    @Resource
+    private EsProperties esProperties;
+
+    private LocalCache cache;
+    private LocalCache countCache;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        EsProperties.SearchCache config = esProperties.getSearchCache();
+        //每个缓存结果权重为 1，容量即为最大缓存条数
+        cache = new LocalCache(config.isEnabled() ? config.getMaxEntries() : 0, config.getTtlMillis());
+        countCache = new LocalCache(config.getCountTtlMillis() > 0 ? config.getMaxEntries() : 0, config.getCountTtlMillis());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "es-search-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    /*
+     * 生成缓存键，无法生成时返回 null，不使用缓存
+     * 滚动搜索和开启 profile 的搜索不缓存
+     * 除查询内容外，影响结果的请求参数（索引选项、搜索类型、是否允许部分结果）也放入缓存键，
+     * 例如忽略不存在索引的搜索返回的空结果，不能用于不忽略的搜索，后者应当返回索引不存在的错误
+     */
+    public String keyOf(SearchRequest request) {
+        if (!isEnabled()) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        return digestOf(request);
+    }
+
+    //统计结果的缓存键，count 缓存单独开关
+    public String countKeyOf(SearchRequest request) {
+        if (!countCache.isEnabled()) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        return digestOf(request);
+    }
+
+    private String digestOf(SearchRequest request) {
+        if (request.scroll() != null || request.source() == null || request.source().profile()) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        try {
+            StringBuilder key = new StringBuilder();
+            String[] indices = request.indices() == null ? new String[0] : request.indices().clone();
+            Arrays.sort(indices);
+            key.append(String.join(",", indices)).append('|')
+                    .append(request.routing()).append('|')
+                    .append(request.preference()).append('|')
+                    .append(request.indicesOptions()).append('|')
+                    .append(request.searchType()).append('|')
+                    .append(request.allowPartialSearchResults()).append('|')
+                    .append(normalize(request.source().toString())).append('|');
+            appendGenerations(key, indices);
+            return digest(key.toString());
+        } catch (IOException e) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public SearchResult get(String key) {
+        if (key == null) {
+            return null;
+        }
+        LocalCache.Entry entry = cache.get(key);
+        return entry == null ? null : (SearchResult) entry.value;
+    }
+
+    //只缓存成功且没有超时的结果
+    public void put(String key, SearchResult result) {
+        if (key == null || result == null || result.isTimedOut()
+                || !SysConstant.RESULT_CODE_SUCCESSFUL.equals(result.getCode())) {
+            return;
+        }
+        cache.put(key, result, 1);
+    }
+
+    public CountResult getCount(String key) {
+        if (key == null) {
+            return null;
+        }
+        LocalCache.Entry entry = countCache.get(key);
+        return entry == null ? null : (CountResult) entry.value;
+    }
+
+    //只缓存成功、没有超时且没有分片失败的统计结果
+    public void putCount(String key, CountResult result) {
+        if (key == null || result == null || result.isTimedOut() || result.getFailedShards() > 0
+                || !SysConstant.RESULT_CODE_SUCCESSFUL.equals(result.getCode())) {
+            return;
+        }
+        countCache.put(key, result, 1);
+    }
+
+    /*
+     * 索引写入后调用，立即增加一次版本号，索引刷新后再增加一次
+     */
+    public void invalidate(String... indices) {
+        bump(indices);
+        long delay = esProperties.getSearchCache().getRefreshDelayMillis();
+        if (delay > 0) {
+            scheduler.schedule(() -> bump(indices), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void bump(String... indices) {
+        invalidations.incrementAndGet();
+        generationOf(ALL_INDICES).incrementAndGet();
+        if (indices != null) {
+            for (String index : indices) {
+                if (index != null) {
+                    generationOf(index).incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(cache.getStats());
+        stats.put("count", countCache.getStats());
+        stats.put("bypasses", bypasses.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private AtomicLong generationOf(String index) {
+        return generations.computeIfAbsent(index, key -> new AtomicLong());
+    }
+
+    private void appendGenerations(StringBuilder key, String[] indices) {
+        boolean exact = indices.length > 0;
+        for (String index : indices) {
+            if (index.contains("*") || index.equals(ALL_INDICES) || index.startsWith("-")) {
+                exact = false;
+            }
+        }
+        if (!exact) {
+            key.append(ALL_INDICES).append('=').append(generationOf(ALL_INDICES).get());
+            return;
+        }
+        for (String index : indices) {
+            key.append(index).append('=').append(generationOf(index).get()).append(',');
+        }
+    }
+
+    //规范化的搜索主体，慢搜索日志中记录的查询也使用这个格式，相同的查询在日志中完全一致，便于按查询归类
+    static String normalize(String sourceJson) throws IOException {
+        JsonNode node = KEY_MAPPER.readTree(sourceJson);
+        if (node instanceof ObjectNode) {
+            ((ObjectNode) node).remove("timeout");
+        }
+        //转为 Map 后写出，ORDER_MAP_ENTRIES_BY_KEYS 使各层字段按名称排序
+        return KEY_MAPPER.writeValueAsString(KEY_MAPPER.treeToValue(node, Object.class));
+    }
+
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
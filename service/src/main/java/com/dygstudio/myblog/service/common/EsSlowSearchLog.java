@@ -0,0 +1,292 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.PipelineAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.profile.SearchProfileShardResults;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 〈功能概述〉
+ * 慢搜索日志，作用与 Druid 的 slowSqlMillis 相同
+ * 耗时达到 thresholdMillis 的搜索输出一条日志，包括规范化的查询 JSON、客户端耗时、ES 返回的 took、分片统计，并保留在内存中最近的 maxEntries 条
+ * 按 profileSampleRate 抽样，在后台使用 profile=true 重新执行慢搜索，把各分片的 profile 树保存到对应的记录中，通过 /api/es/slowSearches 查看
+ * profile 会让 ES 记录每个查询节点的耗时，开销较大，所以只抽样执行，并且只有一个后台线程，队列满时不再重新执行
+ *
+ * @className: EsSlowSearchLog
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/18 3:20 下午
+ */
+@Component
+public class EsSlowSearchLog {
+    //单独的日志名称，可以在日志配置中把慢搜索输出到单独的文件
+    public static Log log = LogFactory.getLog(EsSlowSearchLog.class);
+
+    private static final int PROFILE_QUEUE_CAPACITY = 4;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Resource
+    private EsUtil esUtil;
+
+    @Resource
+    private EsProperties esProperties;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private ThreadPoolExecutor profileExecutor;
+
+    /*
+     * 一条慢搜索记录，profile 在后台重新执行完成后才有值
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Entry {
+        private long timestamp;
+        private String indices;
+        private long elapsedMillis;
+        private long tookMillis;
+        private int totalShards;
+        private int successfulShards;
+        private int skippedShards;
+        private int failedShards;
+        private boolean timedOut;
+        private String query;
+        private volatile String profileStatus;
+        private volatile JsonNode profile;
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getIndices() {
+            return indices;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getTookMillis() {
+            return tookMillis;
+        }
+
+        public int getTotalShards() {
+            return totalShards;
+        }
+
+        public int getSuccessfulShards() {
+            return successfulShards;
+        }
+
+        public int getSkippedShards() {
+            return skippedShards;
+        }
+
+        public int getFailedShards() {
+            return failedShards;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getProfileStatus() {
+            return profileStatus;
+        }
+
+        public JsonNode getProfile() {
+            return profile;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        profileExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PROFILE_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "es-slow-search-profile");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        profileExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        profileExecutor.shutdownNow();
+    }
+
+    /*
+     * 记录一次已完成的搜索，未达到阈值时直接返回
+     * elapsedMillis 为客户端测量的耗时，包括排队、网络传输；took 为 ES 执行的耗时，两者中较大的一个与阈值比较
+     */
+    public void record(SearchRequest request, SearchResponse response, long elapsedMillis) {
+        EsProperties.SlowSearch config = esProperties.getSlowSearch();
+        long took = response.getTook() == null ? 0 : response.getTook().millis();
+        if (!config.isEnabled() || Math.max(elapsedMillis, took) < config.getThresholdMillis()) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.timestamp = System.currentTimeMillis();
+        entry.indices = request.indices() == null ? "" : String.join(",", request.indices());
+        entry.elapsedMillis = elapsedMillis;
+        entry.tookMillis = took;
+        entry.totalShards = response.getTotalShards();
+        entry.successfulShards = response.getSuccessfulShards();
+        entry.skippedShards = response.getSkippedShards();
+        entry.failedShards = response.getFailedShards();
+        entry.timedOut = response.isTimedOut();
+        entry.query = queryOf(request);
+        log.warn("slow search on [" + entry.indices + "] elapsed " + elapsedMillis + "ms, took " + took
+                + "ms, shards " + entry.successfulShards + "/" + entry.totalShards
+                + " (skipped " + entry.skippedShards + ", failed " + entry.failedShards + ")"
+                + (entry.timedOut ? ", timed out" : "") + ", query " + entry.query);
+        synchronized (entries) {
+            entries.addFirst(entry);
+            while (entries.size() > Math.max(0, config.getMaxEntries())) {
+                entries.removeLast();
+            }
+        }
+        //滚动搜索重新执行会打开新的搜索上下文，已经开启 profile 的搜索结果中本身就有 profile
+        if (request.scroll() == null && request.source() != null && !request.source().profile()
+                && ThreadLocalRandom.current().nextDouble() < config.getProfileSampleRate()) {
+            entry.profileStatus = "pending";
+            try {
+                profileExecutor.execute(() -> profile(request, entry));
+            } catch (RejectedExecutionException e) {
+                entry.profileStatus = "skipped: queue full";
+            }
+        }
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /*
+     * 使用相同的索引、路由和查询重新执行，只开启 profile，不修改原来的请求对象
+     */
+    private void profile(SearchRequest request, Entry entry) {
+        entry.profileStatus = "running";
+        try {
+            SearchRequest profileRequest = new SearchRequest(request.indices())
+                    .routing(request.routing())
+                    .preference(request.preference())
+                    .indicesOptions(request.indicesOptions())
+                    .source(profileSourceOf(request.source(), esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_SEARCH_FAST)));
+            SearchResponse response = esUtil.restHighLevelClient.search(profileRequest, esUtil.getRequestOptions());
+            if (response.getProfileResults() == null || response.getProfileResults().isEmpty()) {
+                entry.profileStatus = "empty";
+                return;
+            }
+            String json = Strings.toString(new SearchProfileShardResults(response.getProfileResults()));
+            entry.profile = MAPPER.readTree(json).path("profile");
+            //超时的 profile 只包含超时前执行的部分
+            entry.profileStatus = response.isTimedOut() ? "done, timed out" : "done";
+        } catch (Exception e) {
+            entry.profileStatus = "failed: " + e.getMessage();
+            log.info("profile slow search failed: " + e.getMessage());
+        }
+    }
+
+    /*
+     * 复制影响查询和聚合执行的部分：查询、过滤、排序、分页、聚合、重评分、折叠等
+     * 高亮和返回字段只在取回阶段执行，不出现在 profile 树中，不复制，也不返回文档源，减少重新执行的开销
+     * 超时不复制：原来的超时可能已经按请求截止时间缩短（最短 1ms），用它重新执行得到的是被截断的搜索，
+     * 这里使用 search-fast 配置的超时时间，既能完整执行一般的慢搜索，也不会让失控的查询一直占用集群
+     */
+    static SearchSourceBuilder profileSourceOf(SearchSourceBuilder original, TimeValue timeout) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(original.query())
+                .postFilter(original.postFilter())
+                .terminateAfter(original.terminateAfter())
+                .timeout(timeout)
+                .collapse(original.collapse())
+                .fetchSource(false)
+                .profile(true);
+        //没有设置分页时为 -1，使用 ES 的默认值
+        if (original.from() >= 0) {
+            source.from(original.from());
+        }
+        if (original.size() >= 0) {
+            source.size(original.size());
+        }
+        if (original.minScore() != null) {
+            source.minScore(original.minScore());
+        }
+        if (original.trackTotalHitsUpTo() != null) {
+            source.trackTotalHitsUpTo(original.trackTotalHitsUpTo());
+        }
+        if (original.searchAfter() != null) {
+            source.searchAfter(original.searchAfter());
+        }
+        if (original.sorts() != null) {
+            for (SortBuilder<?> sort : original.sorts()) {
+                source.sort(sort);
+            }
+        }
+        if (original.aggregations() != null) {
+            for (AggregationBuilder aggregation : original.aggregations().getAggregatorFactories()) {
+                source.aggregation(aggregation);
+            }
+            for (PipelineAggregationBuilder aggregation : original.aggregations().getPipelineAggregatorFactories()) {
+                source.aggregation(aggregation);
+            }
+        }
+        if (original.rescores() != null) {
+            for (RescorerBuilder<?> rescorer : original.rescores()) {
+                source.addRescorer(rescorer);
+            }
+        }
+        return source;
+    }
+
+    private static String queryOf(SearchRequest request) {
+        if (request.source() == null) {
+            return "{}";
+        }
+        try {
+            return EsSearchCache.normalize(request.source().toString());
+        } catch (IOException e) {
+            return request.source().toString();
+        }
+    }
+}
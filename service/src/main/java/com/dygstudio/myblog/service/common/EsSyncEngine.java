@@ -0,0 +1,260 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import com.dygstudio.myblog.service.entity.Dictionary;
+import com.dygstudio.myblog.service.entity.User;
+import com.dygstudio.myblog.service.mapper.DictionaryMapper;
+import com.dygstudio.myblog.service.mapper.UserMapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 〈功能概述〉
+ * MySQL 到 ElasticSearch 的增量同步
+ * 定时按同步位置（更新时间、id）从各个数据源分批读取新的数据，转换为 ES 文档后批量写入，IsDel=1 的数据从索引中删除
+ * 每批写入完成（成功，或失败后写入死信文件）之后才推进并保存同步位置，重启后从保存的位置继续，不会漏掉数据
+ * 每次同步每个数据源最多读取 maxBatchesPerRun 批，限制对数据库的压力
+ *
+ * @className: EsSyncEngine
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/11 10:30 上午
+ */
+@Component
+public class EsSyncEngine {
+
+    private static final ObjectMapper CHECKPOINT_MAPPER = new ObjectMapper();
+
+    @Resource
+    private EsUtil esUtil;
+
+    @Resource
+    private EsProperties esProperties;
+
+    @Resource
+    private EsBulkFailureHandler esBulkFailureHandler;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private DictionaryMapper dictionaryMapper;
+
+    private final List<EsSyncSource<?>> sources = new ArrayList<>();
+    private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /*
+     * 同步位置，timestamp 为最后同步的一行的更新时间（毫秒），id 为最后同步的一行的 id
+     */
+    public static class Checkpoint {
+        public Long timestamp;
+        public String id;
+        public long synced;   //累计同步的行数，包括回看窗口内重复读取的行
+        public long lastSyncTime;
+    }
+
+    @PostConstruct
+    public void init() {
+        EsProperties.Sync config = esProperties.getSync();
+        EsProperties.SyncSource userConfig = config.getSources().get("user");
+        if (userConfig != null) {
+            sources.add(new EsSyncSource<>("user", userConfig.getIndex(), userConfig.getTimestampColumn(), User.class,
+                    userMapper, User::getId, user -> isDeleted(user.getIsDel()), EsSyncEngine::toDocument));
+        }
+        EsProperties.SyncSource dictionaryConfig = config.getSources().get("dictionary");
+        if (dictionaryConfig != null) {
+            sources.add(new EsSyncSource<>("dictionary", dictionaryConfig.getIndex(), dictionaryConfig.getTimestampColumn(), Dictionary.class,
+                    dictionaryMapper, Dictionary::getId, dictionary -> isDeleted(dictionary.getIsDel()), EsSyncEngine::toDocument));
+        }
+        loadCheckpoints();
+        if (config.isEnabled() && !sources.isEmpty()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "es-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledSync, config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledSync() {
+        try {
+            syncAll();
+        } catch (Exception e) {
+            //定时任务中的异常需要捕获，否则后续的同步不会再执行
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * 同步所有数据源，返回每个数据源本次同步的行数
+     * 定时任务和手动触发可能同时执行，串行执行避免同一个同步位置被并发推进
+     */
+    public synchronized Map<String, Integer> syncAll() throws IOException {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (EsSyncSource<?> source : sources) {
+            result.put(source.getName(), syncSource(source));
+        }
+        return result;
+    }
+
+    private <T> int syncSource(EsSyncSource<T> source) throws IOException {
+        EsProperties.Sync config = esProperties.getSync();
+        Checkpoint checkpoint = checkpoints.computeIfAbsent(source.getName(), key -> new Checkpoint());
+        TimeValue timeout = esUtil.getRequestTimeout(SysConstant.ES_OPTIONS_BULK_LARGE);
+        //严格按 (ts, id) 递增读取会永久漏掉更新时间早于同步位置、但在同步位置之后才提交的行（长事务、应用服务器之间的时钟偏差）
+        //按更新时间同步时从同步位置往前回看 lookbackMillis 开始读取，按 id 写入 ES 是幂等的，重复读取只会重复写入相同的文档
+        Long fromTimestamp = checkpoint.timestamp;
+        String fromId = checkpoint.id;
+        if (source.hasTimestamp() && fromTimestamp != null && config.getLookbackMillis() > 0) {
+            fromTimestamp = fromTimestamp - config.getLookbackMillis();
+            fromId = null;
+        }
+        int synced = 0;
+        for (int batch = 0; batch < config.getMaxBatchesPerRun(); batch++) {
+            List<T> rows = source.fetch(fromTimestamp, fromId, config.getBatchSize());
+            if (rows.isEmpty()) {
+                break;
+            }
+            BulkRequest request = new BulkRequest();
+            if (timeout != null) {
+                request.timeout(timeout);
+            }
+            for (T row : rows) {
+                String id = source.idOf(row);
+                if (source.isDeleted(row)) {
+                    request.add(new DeleteRequest(source.getIndex(), id));
+                } else {
+                    //写入文档ID的 keyword 副本，供游标分页排序使用
+                    Map<String, Object> document = new LinkedHashMap<>(source.toDocument(row));
+                    document.put(SysConstant.ES_DOC_ID_FIELD, id);
+                    request.add(new IndexRequest(source.getIndex()).id(id).source(document));
+                }
+            }
+            EsBulkFailureHandler.BulkOutcome outcome = esBulkFailureHandler.execute(request);
+            if (!outcome.isSuccessful()) {
+                EsUtil.log.info("sync " + source.getName() + " batch partially failed: " + outcome);
+            }
+            T last = rows.get(rows.size() - 1);
+            fromTimestamp = source.timestampOf(last);
+            fromId = source.idOf(last);
+            //同步位置只前进，回看窗口内读取的行不会把它往回移
+            if (isAfter(fromTimestamp, fromId, checkpoint)) {
+                checkpoint.timestamp = fromTimestamp;
+                checkpoint.id = fromId;
+            }
+            checkpoint.synced += rows.size();
+            checkpoint.lastSyncTime = System.currentTimeMillis();
+            saveCheckpoints();
+            synced += rows.size();
+            if (rows.size() < config.getBatchSize()) {
+                break;
+            }
+        }
+        return synced;
+    }
+
+    //按 (ts, id) 比较，没有更新时间列时只按 id 递增读取，读到的行总在同步位置之后
+    static boolean isAfter(Long timestamp, String id, Checkpoint checkpoint) {
+        if (timestamp == null || checkpoint.timestamp == null) {
+            return true;
+        }
+        int compare = Long.compare(timestamp, checkpoint.timestamp);
+        return compare > 0 || (compare == 0 && (checkpoint.id == null || id.compareTo(checkpoint.id) > 0));
+    }
+
+    public Map<String, Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    private void loadCheckpoints() {
+        Path path = Paths.get(esProperties.getSync().getCheckpointPath());
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Map<String, Checkpoint> saved = CHECKPOINT_MAPPER.readValue(path.toFile(), new TypeReference<Map<String, Checkpoint>>() {
+            });
+            checkpoints.putAll(saved);
+            EsUtil.log.info("sync checkpoints loaded: " + checkpoints.keySet());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * 先写临时文件再替换，避免写入过程中宕机导致同步位置文件损坏
+     */
+    private void saveCheckpoints() throws IOException {
+        Path path = Paths.get(esProperties.getSync().getCheckpointPath());
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        CHECKPOINT_MAPPER.writeValue(temp.toFile(), checkpoints);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isDeleted(Integer isDel) {
+        return isDel != null && isDel == 1;
+    }
+
+    //用户文档不包含密码和联系方式
+    private static Map<String, Object> toDocument(User user) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("id", user.getId());
+        document.put("loginName", user.getLoginName());
+        document.put("name", user.getName());
+        document.put("handPic", user.getHandPic());
+        document.put("registerDate", user.getRegisterDate());
+        document.put("industry", user.getIndustry());
+        document.put("professional", user.getProfessional());
+        document.put("age", user.getAge());
+        document.put("status", user.getStatus());
+        document.put("descriptions", user.getDescriptions());
+        document.put("web", user.getWeb());
+        document.put("city", user.getCity());
+        return document;
+    }
+
+    private static Map<String, Object> toDocument(Dictionary dictionary) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("id", dictionary.getId());
+        document.put("name", dictionary.getName());
+        document.put("code", dictionary.getCode());
+        document.put("sort", dictionary.getSort());
+        document.put("pid", dictionary.getPid());
+        document.put("status", dictionary.getStatus());
+        return document;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
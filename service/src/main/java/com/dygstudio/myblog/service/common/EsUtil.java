@@ -11,16 +11,33 @@ import org.apache.http.message.BasicHeader;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.*;
 import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
 import org.elasticsearch.client.sniff.NodesSniffer;
 import org.elasticsearch.client.sniff.SniffOnFailureListener;
 import org.elasticsearch.client.sniff.Sniffer;
-import org.springframework.context.annotation.Configuration;
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * 〈功能概述〉
@@ -30,6 +47,7 @@ import java.util.concurrent.CountDownLatch;
  * @author: diyaguang
  * @date: 2020/8/19 5:09 下午
  */
+@Component
 public class EsUtil {
     public static Log log = LogFactory.getLog(EsUtil.class);
 
@@ -49,40 +67,112 @@ public class EsUtil {
     public RestClient restClient;
     public RestHighLevelClient restHighLevelClient;
     public Sniffer sniffer;
+    //切片滚动扫描的线程池，线程数和队列长度都有上限，队列满时由调用线程执行切片
+    public ExecutorService scanExecutor;
+    //异步搜索响应的处理线程池，把 SearchResponse 转换为结果、记录慢搜索、写缓存，不占用 HTTP 客户端的 IO 线程
+    public ExecutorService responseExecutor;
+    //截止时间到期时完成等待中的 Future，只执行定时任务，不执行请求
+    public ScheduledExecutorService deadlineScheduler;
+    //搜索结果缓存，写入索引后需要调用 invalidate
+    @Resource
+    public EsSearchCache searchCache;
+    //搜索请求合并，异步的单个搜索通过它发送
+    @Resource
+    public EsSearchBatcher searchBatcher;
+    //请求指标，通过 HTTP 客户端的拦截器统计所有请求
+    @Resource
+    public EsMetrics metrics;
+    //慢搜索日志，EsSearch 中的搜索完成后记录
+    @Resource
+    public EsSlowSearchLog slowSearchLog;
+
+    /* 客户端配置
+     * 节点地址、超时时间、IO线程数、连接池大小、缓冲区大小都来自 application.yml 中的 elasticsearch 节点
+     * 客户端由 Spring 管理为单实例，所有请求共享同一个连接池和 IO 线程，不再每次请求都创建和关闭客户端
+     * maxConnTotal 为连接池的最大连接数，maxConnPerRoute 为每个节点（路由）的最大连接数
+     */
+    @Resource
+    private EsProperties esProperties;
 
     //设置全局单实例 RequestOption，创建好后尅在发出请求时使用
-    private static final RequestOptions COMMON_OPTIONS;
+    private RequestOptions commonOptions;
+    //按名称配置的 RequestOptions，在 initEs 时一次性创建，请求时直接复用
+    private Map<String, RequestOptions> namedOptions = new HashMap<>();
 
-    static {
+    /*
+     * 创建 RequestOptions
+     * setHttpAsyncResponseConsumerFactory 自定义响应消费者 提供谓词，终节点，可选查询字符串参数，可选请求主体
+     * 以及用于为每个请求尝试创建org.apache.http.nio.protocol.HttpAsyncResponseConsumer回调实例的可选工厂 来发送异步请求。
+     * 控制响应正文如何从客户端的非阻塞HTTP连接进行流式传输。
+     * 如果未提供，则使用默认实现，将整个响应主体缓存在堆内存中，最大为100 MB。
+     * HeapBufferedResponseConsumerFactory 属于 Java REST客户端
+     * 搜索等热点请求使用较小的缓冲区，批量、重建索引等请求使用较大的缓冲区
+     */
+    private RequestOptions buildRequestOptions(int bufferLimit, Map<String, String> headers) {
         RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
         //AddHeader用于授权或在ES前使用代理所需的头信息
-        builder.addHeader("Authorization", "diyaguang " + "my-token");
-        /* setHttpAsyncResponseConsumerFactory 自定义响应消费者 提供谓词，终节点，可选查询字符串参数，可选请求主体
-         * 以及用于为每个请求尝试创建org.apache.http.nio.protocol.HttpAsyncResponseConsumer回调实例的可选工厂 来发送异步请求。
-         * 控制响应正文如何从客户端的非阻塞HTTP连接进行流式传输。
-         * 如果未提供，则使用默认实现，将整个响应主体缓存在堆内存中，最大为100 MB。
-         * HeapBufferedResponseConsumerFactory 属于 Java REST客户端
-         */
+        if (esProperties.getAuthorization() != null && !esProperties.getAuthorization().isEmpty()) {
+            builder.addHeader("Authorization", esProperties.getAuthorization());
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.addHeader(header.getKey(), header.getValue());
+            }
+        }
         builder.setHttpAsyncResponseConsumerFactory(
                 new HttpAsyncResponseConsumerFactory
-                        .HeapBufferedResponseConsumerFactory(30 * 1024 * 1024 * 1024));
-        COMMON_OPTIONS = builder.build();
+                        .HeapBufferedResponseConsumerFactory(bufferLimit > 0 ? bufferLimit : esProperties.getBufferLimit()));
+        return builder.build();
+    }
+
+    public RequestOptions getRequestOptions() {
+        return commonOptions;
     }
 
     /*
-     * 初始化高级别客户端
-     * 在 高级别客户端中，请求对象 Request，请求结果的解析，与初级客户端的用法相同。
-     * 与之类似的 RequestOptions 的使用以及客户端的常见设置相同
+     * 按名称获取 RequestOptions，名称对应 elasticsearch.options 下的配置，没有配置的名称使用公共的 RequestOptions
      */
-    public void initHEs(){
+    public RequestOptions getRequestOptions(String name) {
+        RequestOptions options = name == null ? null : namedOptions.get(name);
+        return options == null ? commonOptions : options;
+    }
 
-        restHighLevelClient = new RestHighLevelClient(RestClient.builder(
-                new HttpHost("120.53.7.166", 9200, "http"),
-                new HttpHost("111.229.51.186", 9200, "http")
-        ));
+    /*
+     * 按名称获取服务端执行的超时时间，没有配置时返回 null，由调用方保留请求自身的超时设置
+     */
+    public TimeValue getRequestTimeout(String name) {
+        EsProperties.Options options = name == null ? null : esProperties.getOptions().get(name);
+        if (options == null || options.getTimeout() <= 0) {
+            return null;
+        }
+        return TimeValue.timeValueMillis(options.getTimeout());
+    }
 
-        log.info("ElaseticSearch init in service.");
+    /*
+     * 服务端执行的超时时间，timeout 为请求自身设置的超时时间，为 null 时使用按名称配置的超时时间
+     * 有截止时间时不超过剩余时间减去预留的网络传输时间
+     */
+    public TimeValue getRequestTimeout(String name, TimeValue timeout, EsDeadline deadline) {
+        if (timeout == null) {
+            timeout = getRequestTimeout(name);
+        }
+        return deadline == null ? timeout : deadline.serverTimeout(timeout, esProperties.getDeadline().getServerMarginMillis());
+    }
+
+    //切片滚动扫描的线程数，同时执行的切片数不超过它
+    public int getScanThreads() {
+        return esProperties.getScanThreads();
+    }
+
+    //接口没有指定截止时间时使用配置的默认值，都没有时返回 null
+    public EsDeadline deadlineOf(Long millis) {
+        if (millis != null && millis > 0) {
+            return EsDeadline.in(millis);
+        }
+        long defaultMillis = esProperties.getDeadline().getDefaultMillis();
+        return defaultMillis > 0 ? EsDeadline.in(defaultMillis) : null;
     }
+
     /*
      * 功能描述: 初始化 ESClient
      * 其中 @PostConstruct是在 java5引入的注解，在项目启动时会执行这个方法，或者说实在 Spring容器启动时执行。
@@ -92,7 +182,7 @@ public class EsUtil {
      * 如果想在生成对象时候，完成某些初始化操作，偏偏这些初始化操作依赖于依赖注入，就无法在构造函数中实现，使用这个注解
      * 完成初始化，这个方法会在依赖注入完成后被自动调用。
      */
-    //@PostConstruct
+    @PostConstruct
     public void initEs() {
        /*  创建普通的 客户端连接
                 restClient = RestClient.builder(
@@ -101,11 +191,14 @@ public class EsUtil {
         ).build();
         */
 
-        /* 配置构建 RestClient是选择性的设置配置参数，使用 RestClientBuilder 对象进行配置 */
-        RestClientBuilder builder = RestClient.builder(
-                new HttpHost("120.53.7.166", 9200, "http"),
-                new HttpHost("111.229.51.186", 9200, "http")
-        );
+        /* 配置构建 RestClient是选择性的设置配置参数，使用 RestClientBuilder 对象进行配置
+         * 节点地址从配置中读取，例如 http://120.53.7.166:9200
+         */
+        HttpHost[] hosts = new HttpHost[esProperties.getHosts().size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = HttpHost.create(esProperties.getHosts().get(i));
+        }
+        RestClientBuilder builder = RestClient.builder(hosts);
 
         //配置请求头
         Header[] defaultHeaders = new Header[]{new BasicHeader("header", "value")};
@@ -126,20 +219,25 @@ public class EsUtil {
         builder.setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
             @Override
             public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
-                return requestConfigBuilder.setSocketTimeout(10000);//.setSocketTimeout(60000);
+                return requestConfigBuilder
+                        .setConnectTimeout(esProperties.getConnectTimeout())
+                        .setSocketTimeout(esProperties.getSocketTimeout())
+                        .setConnectionRequestTimeout(esProperties.getConnectionRequestTimeout());
             }
         });
 
         /* 线程设置 */
         // Apache HTTP 异步客户端默认启用一个调度程序线程，连接管理器使用的多个工作线程。
         // 线程数主要取决于 Runtime.getRuntime().availableProcessors() 返回的结果。ES 允许用户修改线程数
-        Integer number = 5;
+        int number = esProperties.getIoThreadCount() > 0 ? esProperties.getIoThreadCount() : Runtime.getRuntime().availableProcessors();
         builder.setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
             @Override
             public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpAsyncClientBuilder) {
                 return httpAsyncClientBuilder.setDefaultIOReactorConfig(
-                        IOReactorConfig.custom().setIoThreadCount(number).build()
-                );
+                        IOReactorConfig.custom().setIoThreadCount(number).setSelectInterval(esProperties.getIoSelectIntervalMillis()).build()
+                ).setMaxConnTotal(esProperties.getMaxConnTotal()).setMaxConnPerRoute(esProperties.getMaxConnPerRoute())
+                        .addInterceptorFirst(metrics.requestInterceptor())
+                        .addInterceptorLast(metrics.responseInterceptor());
             }
         });
 
@@ -186,10 +284,23 @@ public class EsUtil {
          * 在创建后，同一个 SniffOnFailureListener实例会相互关联，以便在每次失败时候都通知该实例，并使用 嗅探器执行嗅探动作
          */
         SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
-        builder.setFailureListener(sniffOnFailureListener);
+        //只能设置一个失败监听器，节点失败时先计数，再通知嗅探器，没有启用嗅探器时通知会抛出异常
+        builder.setFailureListener(new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                metrics.onNodeFailure(node);
+                if (sniffer != null) {
+                    sniffOnFailureListener.onFailure(node);
+                }
+            }
+        });
 
-        /* Build 出 RestClient */
-        restClient = builder.build();
+        /* Build 出 RestHighLevelClient
+         * 高级客户端基于同一个 RestClientBuilder 创建，内部的初级客户端通过 getLowLevelClient 获取
+         * 这样高级客户端和初级客户端共享一个连接池，嗅探器也能作用于高级客户端的请求
+         */
+        restHighLevelClient = new RestHighLevelClient(builder);
+        restClient = restHighLevelClient.getLowLevelClient();
 
         /* 配置嗅探器
          * 允许自动发现运行中的 ES 集群中的节点，并将其设置为现有的 RestClient 实例
@@ -202,7 +313,10 @@ public class EsUtil {
          * ES 节点信息 API 不会返回连接到节点时要使用的协议，而是只返回他们的 host：port，默认会使用 HTTP
          * 如果需要使用 HTTPS，则必须手动创建并提供 ElasticSearchNodesNiffer 实例
          */
-         sniffer = Sniffer.builder(restClient).setSniffIntervalMillis(60000).build();
+         if (esProperties.getSniffIntervalMillis() > 0) {
+             sniffer = Sniffer.builder(restClient).setSniffIntervalMillis(esProperties.getSniffIntervalMillis()).build();
+             sniffOnFailureListener.setSniffer(sniffer);
+         }
 
          /* 配置嗅探器
           * ES 节点信息 API 不会返回连接到节点时要使用的协议，而是只返回他们的 host：port，默认会使用 HTTP
@@ -216,9 +330,62 @@ public class EsUtil {
 
 
 
+        commonOptions = buildRequestOptions(esProperties.getBufferLimit(), null);
+        for (Map.Entry<String, EsProperties.Options> entry : esProperties.getOptions().entrySet()) {
+            namedOptions.put(entry.getKey(), buildRequestOptions(entry.getValue().getBufferLimit(), entry.getValue().getHeaders()));
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        scanExecutor = new ThreadPoolExecutor(esProperties.getScanThreads(), esProperties.getScanThreads(),
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(esProperties.getScanQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "es-scan-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        //队列满时由完成 Future 的线程（IO 线程）处理，退化为直接在回调中处理，不会丢失响应
+        int responseThreads = esProperties.getResponseThreads() > 0 ? esProperties.getResponseThreads() : Runtime.getRuntime().availableProcessors();
+        AtomicInteger responseThreadNumber = new AtomicInteger();
+        responseExecutor = new ThreadPoolExecutor(responseThreads, responseThreads,
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(esProperties.getResponseQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "es-response-" + responseThreadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        deadlineScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         log.info("ElasticSearch init in service.");
     }
 
+    /*
+     * 带截止时间的同步调用，call 使用传入的 ActionListener 调用高级客户端的 *Async 方法
+     * 调用线程最多等待到截止时间，到期后抛出 TimeoutException，不再等待 HTTP 客户端的 socketTimeout
+     * 注意：7.2 的客户端没有 Cancellable，到期后只是调用线程返回，已经发出的 HTTP 请求无法取消，
+     * 仍然占用连接，直到 ES 按服务端超时返回或者 socketTimeout，写入请求在这之后仍可能成功
+     * deadline 为 null 时等待到响应返回或 socketTimeout，与同步方法相同
+     */
+    public <T> T execute(Consumer<ActionListener<T>> call, EsDeadline deadline) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(ActionListener.wrap(future::complete, future::completeExceptionally));
+        if (deadline != null) {
+            return deadline.await(future, deadlineScheduler);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     /*
      * 创建基础请求
      */
@@ -233,12 +400,12 @@ public class EsUtil {
         // Request还有一些可选的请求构建选项，通过 RequestOptions 来实现
         // 在 RequestOption类中保存的请求，
         // 可以在同一个应用程序的多个请求之间共享，可以创建单一实例，在所有请求之间共享。
-        //request.setOptions(COMMON_OPTIONS);
+        //request.setOptions(commonOptions);
 
         // ES允许用户根据每个请求可以定制这些选项，例如：
-        RequestOptions.Builder options = COMMON_OPTIONS.toBuilder();
+        RequestOptions.Builder options = commonOptions.toBuilder();
         options.addHeader("title", "any other things");
-        //request.setOptions(COMMON_OPTIONS);
+        //request.setOptions(commonOptions);
 
         return request;
     }
@@ -273,13 +440,6 @@ public class EsUtil {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        try {
-            restClient.close();
-            if(sniffer!=null)
-                sniffer.close();   //关闭嗅探器
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
         return "Get result failed!";
     }
 
@@ -301,13 +461,6 @@ public class EsUtil {
             }
         });
 
-        try {
-            restClient.close();
-            if(sniffer!=null)
-                sniffer.close();   //关闭嗅探器
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
         return "Get result failed!";
     }
 
@@ -346,20 +499,33 @@ public class EsUtil {
         }
     }
 
+    /*
+     * 关闭客户端
+     * 客户端是单实例的，只在 Spring 容器销毁时关闭一次，先停止扫描线程池和嗅探器，再关闭高级客户端（同时关闭内部的初级客户端）
+     * searchBatcher、slowSearchLog 与 EsUtil 相互引用，Spring 不能保证它们的销毁顺序，所以在这里先发送合并中的搜索、停止 profile 线程，
+     * 保证它们不会在客户端关闭后再使用客户端，两者的 close 可以重复调用
+     */
+    @PreDestroy
     public void closeEs() {
+        if(searchBatcher!=null)
+            searchBatcher.close();
+        if(slowSearchLog!=null)
+            slowSearchLog.close();
+        if(scanExecutor!=null)
+            scanExecutor.shutdownNow();
+        if(deadlineScheduler!=null)
+            deadlineScheduler.shutdownNow();
         try {
-            restClient.close();
             if(sniffer!=null)
                 sniffer.close();   //关闭嗅探器
+            if(restHighLevelClient!=null)
+                restHighLevelClient.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
-    }
-    public void closeHEs(){
-        try {
-            restHighLevelClient.close();
-        }catch (Exception e){
-            e.printStackTrace();
-        }
+        //客户端关闭后不再有新的响应，最后关闭响应处理线程池，已经提交的响应仍会处理完
+        if(responseExecutor!=null)
+            responseExecutor.shutdown();
+        log.info("ElasticSearch closed in service.");
     }
 }
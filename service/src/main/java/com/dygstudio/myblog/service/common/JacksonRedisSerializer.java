@@ -0,0 +1,89 @@
+package com.dygstudio.myblog.service.common;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * 〈功能概述〉
+ * 缓存值的序列化，支持 json、smile、cbor 三种格式，smile 和 cbor 为二进制格式，体积更小，解析更快
+ * 配置了值类型时按该类型序列化，不在值中写入类名；没有配置时与原来一样开启 DefaultTyping，在值中写入类名以便反序列化
+ *
+ * @className: JacksonRedisSerializer
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/14 3:20 下午
+ */
+public class JacksonRedisSerializer implements RedisSerializer<Object> {
+    public final static String FORMAT_JSON = "json";
+    public final static String FORMAT_SMILE = "smile";
+    public final static String FORMAT_CBOR = "cbor";
+
+    private final String format;
+    private final ObjectMapper mapper;
+    private final JavaType type;
+
+    /*
+     * format 为序列化格式，type 为值的类型，写法与 Jackson TypeFactory 的 canonical 名称一致，
+     * 例如 com.dygstudio.myblog.service.common.PageResult<com.dygstudio.myblog.service.entity.UserSummary>
+     */
+    public JacksonRedisSerializer(String format, String type) {
+        this.format = format == null ? FORMAT_JSON : format;
+        this.mapper = new ObjectMapper(createFactory(this.format));
+        this.mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        if (type == null || type.isEmpty()) {
+            this.mapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+            this.type = mapper.getTypeFactory().constructType(Object.class);
+        } else {
+            this.type = mapper.getTypeFactory().constructFromCanonical(type);
+        }
+    }
+
+    private static JsonFactory createFactory(String format) {
+        switch (format) {
+            case FORMAT_JSON:
+                return new JsonFactory();
+            case FORMAT_SMILE:
+                return new SmileFactory();
+            case FORMAT_CBOR:
+                return new CBORFactory();
+            default:
+                throw new IllegalArgumentException("unknown cache serializer " + format);
+        }
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        try {
+            return mapper.writerFor(type).writeValueAsBytes(value);
+        } catch (Exception e) {
+            throw new SerializationException("could not write " + format + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (Exception e) {
+            throw new SerializationException("could not read " + format + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.dygstudio.myblog.service.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 〈功能概述〉
+ * 进程内的本地缓存，两级缓存中的一级缓存
+ * 按近似的最近最少使用淘汰（CLOCK 算法），容量按每个值的权重（值在 Redis 中序列化后的字节数）计算，总权重超过上限时淘汰最近没有被访问的值
+ * 每个值有过期时间，过期后读取时删除
+ *
+ * 读取不加锁：值保存在 ConcurrentHashMap 中，命中时只设置访问标记，热点键的并发读取不会在同一个锁上排队
+ * 写入时按写入顺序把值放入淘汰队列，超过容量时从队头取出，有访问标记的清除标记后放回队尾（第二次机会），没有的淘汰
+ * 淘汰只在写入时执行，由 evictionLock 串行，不影响读取
+ *
+ * @className: LocalCache
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/14 10:30 上午
+ */
+public class LocalCache {
+    //淘汰队列中已经删除的节点数超过当前值的数量加上这个值时，清理一次队列
+    private static final int SWEEP_THRESHOLD = 64;
+
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<Object, Node> entries = new ConcurrentHashMap<>();
+    //淘汰队列，按写入顺序排列，已经删除的节点留在队列中，淘汰或清理时跳过
+    private final Queue<Node> evictionQueue = new ConcurrentLinkedQueue<>();
+    private final Object evictionLock = new Object();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicInteger removedInQueue = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public static class Entry {
+        public final Object value;
+        public final int weight;
+        public final long expireAt;
+
+        Entry(Object value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /*
+     * 一个键在淘汰队列中的节点，同一个键再次写入时替换 entry，节点在队列中的位置不变
+     */
+    private static class Node {
+        final Object key;
+        volatile Entry entry;
+        //最近被读取过，淘汰时跳过一次
+        volatile boolean referenced;
+        //已经从 entries 中删除，留在队列中等待跳过
+        volatile boolean removed;
+
+        Node(Object key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    public LocalCache(long maxWeight, long ttlMillis) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0 && maxWeight > 0;
+    }
+
+    public Entry get(Object key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Node node = entries.get(key);
+        Entry entry = node == null ? null : node.entry;
+        if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+            remove(key, node);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        //已经有标记时不再写，避免多个线程反复写同一个缓存行
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    public void put(Object key, Object value, int valueWeight) {
+        //单个值超过容量上限时不放入本地缓存
+        if (!isEnabled() || valueWeight > maxWeight) {
+            return;
+        }
+        Entry entry = new Entry(value, valueWeight, System.currentTimeMillis() + ttlMillis);
+        long[] delta = new long[]{valueWeight};
+        entries.compute(key, (k, node) -> {
+            if (node == null) {
+                node = new Node(k, entry);
+                evictionQueue.offer(node);
+            } else {
+                delta[0] -= node.entry.weight;
+                node.entry = entry;
+            }
+            return node;
+        });
+        if (weight.addAndGet(delta[0]) > maxWeight) {
+            evictToCapacity();
+        }
+    }
+
+    private void evictToCapacity() {
+        synchronized (evictionLock) {
+            while (weight.get() > maxWeight) {
+                Node node = evictionQueue.poll();
+                if (node == null) {
+                    break;
+                }
+                if (node.removed) {
+                    removedInQueue.decrementAndGet();
+                    continue;
+                }
+                if (node.referenced) {
+                    node.referenced = false;
+                    evictionQueue.offer(node);
+                    continue;
+                }
+                if (entries.remove(node.key, node)) {
+                    node.removed = true;
+                    weight.addAndGet(-node.entry.weight);
+                    evictions.increment();
+                } else {
+                    //同时被 remove 删除，它计入的队列中已删除节点已经随这里取出离开队列
+                    removedInQueue.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    public void evict(Object key) {
+        Node node = entries.get(key);
+        if (node != null) {
+            remove(key, node);
+        }
+    }
+
+    public void clear() {
+        for (Map.Entry<Object, Node> entry : entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(Object key, Node node) {
+        if (!entries.remove(key, node)) {
+            return;
+        }
+        node.removed = true;
+        weight.addAndGet(-node.entry.weight);
+        //删除的节点在淘汰时跳过，很少写入时不会执行淘汰，删除的节点过多时清理一次队列
+        if (removedInQueue.incrementAndGet() > entries.size() + SWEEP_THRESHOLD) {
+            synchronized (evictionLock) {
+                int swept = 0;
+                for (Iterator<Node> iterator = evictionQueue.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().removed) {
+                        iterator.remove();
+                        swept++;
+                    }
+                }
+                removedInQueue.addAndGet(-swept);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("weight", weight.get());
+        stats.put("maxWeight", maxWeight);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+}
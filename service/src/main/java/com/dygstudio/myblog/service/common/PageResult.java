@@ -15,6 +15,7 @@ public class PageResult<T> {
     private String msg;  //提示信息
     private long count; // 总数量, bootstrapTable是total
     private List<T> data; // 当前数据, bootstrapTable是rows
+    private String cursor; // 下一页游标，游标分页时使用，没有下一页时为空
 
     public PageResult() {
     }
@@ -56,6 +57,14 @@ public class PageResult<T> {
         this.count = count;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public List<T> getData() {
         return data;
     }
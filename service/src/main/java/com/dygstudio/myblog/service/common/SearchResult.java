@@ -0,0 +1,280 @@
+package com.dygstudio.myblog.service.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.suggest.Suggest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * 搜索结果，由 SearchResponse 转换而来，直接作为接口返回值由 Jackson 流式写出到响应中
+ * 不再通过字符串拼接 hits.toString()、response.toString() 生成结果文本，结果大小与命中数成线性关系
+ *
+ * @className: SearchResult
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/9 10:20 上午
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SearchResult {
+    private String code; //状态码
+    private String msg;  //提示信息
+    private long total;  //命中总数
+    private String totalRelation; //命中总数是精确值(eq)还是下限(gte)
+    private long took;   //执行时间，毫秒
+    private boolean timedOut;
+    private Float maxScore;
+    private String scrollId; //滚动搜索时返回的滚动标识
+    private List<Hit> hits = new ArrayList<>();
+    //聚合结果直接保存为 ES 输出的 JSON，序列化时原样写出，避免再转换成 Map
+    @JsonRawValue
+    private String aggregations;
+    //建议结果，key 为建议名称，value 为所有候选词
+    private Map<String, List<String>> suggestions;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Hit {
+        private String id;
+        private String index;
+        private float score;
+        private Map<String, Object> source;
+        //高亮结果，key 为字段名，value 为高亮片段
+        private Map<String, List<String>> highlights;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public void setScore(float score) {
+            this.score = score;
+        }
+
+        public Map<String, Object> getSource() {
+            return source;
+        }
+
+        public void setSource(Map<String, Object> source) {
+            this.source = source;
+        }
+
+        public Map<String, List<String>> getHighlights() {
+            return highlights;
+        }
+
+        public void setHighlights(Map<String, List<String>> highlights) {
+            this.highlights = highlights;
+        }
+    }
+
+    public SearchResult() {
+    }
+
+    public static SearchResult from(SearchResponse response) {
+        SearchResult result = new SearchResult();
+        result.code = SysConstant.RESULT_CODE_SUCCESSFUL;
+        result.msg = SysConstant.RESULT_MSG_SUCCESSFUL;
+        result.took = response.getTook().getMillis();
+        result.timedOut = response.isTimedOut();
+        result.scrollId = response.getScrollId();
+
+        //获取搜索结果 （Search Hits），包含点击总数，最高分数，以及每个文档的索引名称，文档ID，得分，文档源，高亮结果
+        SearchHits hits = response.getHits();
+        TotalHits totalHits = hits.getTotalHits();
+        if (totalHits != null) {
+            result.total = totalHits.value;
+            result.totalRelation = totalHits.relation == TotalHits.Relation.EQUAL_TO ? "eq" : "gte";
+        }
+        if (!Float.isNaN(hits.getMaxScore())) {
+            result.maxScore = hits.getMaxScore();
+        }
+        SearchHit[] searchHits = hits.getHits();
+        result.hits = new ArrayList<>(searchHits.length);
+        for (SearchHit searchHit : searchHits) {
+            result.hits.add(toHit(searchHit));
+        }
+
+        //搜索聚合结果
+        Aggregations aggregations = response.getAggregations();
+        if (aggregations != null) {
+            result.aggregations = toJson(aggregations);
+        }
+
+        //解析 Suggestions 结果，收集每个建议下所有候选词
+        Suggest suggest = response.getSuggest();
+        if (suggest != null) {
+            result.suggestions = new LinkedHashMap<>();
+            for (Suggest.Suggestion<? extends Suggest.Suggestion.Entry<? extends Suggest.Suggestion.Entry.Option>> suggestion : suggest) {
+                List<String> texts = new ArrayList<>();
+                for (Suggest.Suggestion.Entry<? extends Suggest.Suggestion.Entry.Option> entry : suggestion) {
+                    for (Suggest.Suggestion.Entry.Option option : entry) {
+                        texts.add(option.getText().string());
+                    }
+                }
+                result.suggestions.put(suggestion.getName(), texts);
+            }
+        }
+        return result;
+    }
+
+    public static Hit toHit(SearchHit searchHit) {
+        Hit hit = new Hit();
+        hit.id = searchHit.getId();
+        hit.index = searchHit.getIndex();
+        hit.score = searchHit.getScore();
+        hit.source = searchHit.getSourceAsMap();
+        Map<String, HighlightField> highlightFields = searchHit.getHighlightFields();
+        if (highlightFields != null && !highlightFields.isEmpty()) {
+            hit.highlights = new LinkedHashMap<>();
+            for (HighlightField highlightField : highlightFields.values()) {
+                List<String> fragments = new ArrayList<>();
+                if (highlightField.fragments() != null) {
+                    for (Text fragment : highlightField.fragments()) {
+                        fragments.add(fragment.string());
+                    }
+                }
+                hit.highlights.put(highlightField.getName(), fragments);
+            }
+        }
+        return hit;
+    }
+
+    private static String toJson(Aggregations aggregations) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject();
+            aggregations.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            builder.endObject();
+            return Strings.toString(builder);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static SearchResult failure(String msg) {
+        SearchResult result = new SearchResult();
+        result.code = SysConstant.RESULT_CODE_FAILURE;
+        result.msg = msg;
+        return result;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+
+    public void setMsg(String msg) {
+        this.msg = msg;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public String getTotalRelation() {
+        return totalRelation;
+    }
+
+    public void setTotalRelation(String totalRelation) {
+        this.totalRelation = totalRelation;
+    }
+
+    public long getTook() {
+        return took;
+    }
+
+    public void setTook(long took) {
+        this.took = took;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    public Float getMaxScore() {
+        return maxScore;
+    }
+
+    public void setMaxScore(Float maxScore) {
+        this.maxScore = maxScore;
+    }
+
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    public void setScrollId(String scrollId) {
+        this.scrollId = scrollId;
+    }
+
+    public List<Hit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<Hit> hits) {
+        this.hits = hits;
+    }
+
+    public String getAggregations() {
+        return aggregations;
+    }
+
+    public void setAggregations(String aggregations) {
+        this.aggregations = aggregations;
+    }
+
+    public Map<String, List<String>> getSuggestions() {
+        return suggestions;
+    }
+
+    public void setSuggestions(Map<String, List<String>> suggestions) {
+        this.suggestions = suggestions;
+    }
+}
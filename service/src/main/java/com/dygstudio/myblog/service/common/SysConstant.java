@@ -13,4 +13,11 @@ public class SysConstant {
     public final static String RESULT_CODE_FAILURE="000";
     public final static String RESULT_MSG_SUCCESSFUL="ok";
     public final static String RESULT_MSG_FAILURE="failure";
+
+    //ElasticSearch RequestOptions 配置名称，对应 application.yml 中 elasticsearch.options 的配置
+    public final static String ES_OPTIONS_SEARCH_FAST="search-fast";
+    public final static String ES_OPTIONS_BULK_LARGE="bulk-large";
+    public final static String ES_OPTIONS_ADMIN="admin";
+    //文档ID的 keyword 副本字段，写入文档时填入文档ID，使用 doc_values 排序，避免按 _id 排序时把 _id 的 fielddata 加载到堆内存
+    public final static String ES_DOC_ID_FIELD="docId";
 }
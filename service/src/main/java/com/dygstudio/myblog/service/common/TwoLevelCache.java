@@ -0,0 +1,319 @@
+package com.dygstudio.myblog.service.common;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 〈功能概述〉
+ * 两级缓存，一级为进程内的 LocalCache，二级为 Redis
+ * 读取时先查本地缓存，未命中再查 Redis，从 Redis 读到的值放入本地缓存；写入和删除同时修改两级缓存，并通知其他节点删除本地缓存
+ * Redis 中的键为 前缀+缓存名称::键，前缀为空时与 RedisCache 一致
+ * 允许缓存空值时，空值在 Redis 中保存为只有头部的值
+ *
+ * 防止缓存击穿（大量请求在热点键过期时同时查询数据库）：
+ * 1.过期时间加随机抖动，同一时间写入的键不会在同一时刻过期
+ * 2.同一节点上同一个键只有一个线程执行加载，其他线程等待同一个加载结果（@Cacheable 需设置 sync = true）
+ * 3.提前刷新，按 XFetch 算法，越接近过期、加载越慢，越可能在过期前由某个请求提前重新加载，提前刷新期间其他请求继续返回旧值
+ * Redis 中的值前面有 17 字节的头部：1 字节标记 + 8 字节过期时间 + 8 字节加载耗时，用于各节点计算是否提前刷新
+ *
+ * @className: TwoLevelCache
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/14 11:00 上午
+ */
+public class TwoLevelCache extends AbstractValueAdaptingCache {
+
+    private static final byte HEADER_MARK = 0;
+    private static final int HEADER_LENGTH = 17;
+
+    /*
+     * 缓存变更通知，由 TwoLevelCacheManager 通过 Redis 发布给其他节点，key 为空表示清空整个缓存
+     */
+    public interface InvalidationPublisher {
+        void publish(String cacheName, String key);
+    }
+
+    /*
+     * 缓存的值及其过期时间、加载耗时，过期时间为 0 表示未知（没有头部的旧值），不参与提前刷新
+     */
+    static class Envelope {
+        final Object value;
+        final long expireAt;
+        final long loadMillis;
+
+        Envelope(Object value, long expireAt, long loadMillis) {
+            this.value = value;
+            this.expireAt = expireAt;
+            this.loadMillis = loadMillis;
+        }
+    }
+
+    private final String name;
+    private final String keyPrefix;
+    private final RedisCacheWriter cacheWriter;
+    private final JacksonRedisSerializer valueSerializer;
+    private final Duration ttl;
+    private final double ttlJitter;
+    private final double earlyRefreshBeta;
+    private final LocalCache localCache;
+    private final InvalidationPublisher publisher;
+    //正在加载的键，同一个键的其他请求等待同一个结果
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadWaits = new AtomicLong();
+    private final AtomicLong earlyRefreshes = new AtomicLong();
+
+    public TwoLevelCache(String name, String keyPrefix, boolean allowNullValues, RedisCacheWriter cacheWriter,
+                         JacksonRedisSerializer valueSerializer, Duration ttl, double ttlJitter, double earlyRefreshBeta,
+                         LocalCache localCache, InvalidationPublisher publisher) {
+        super(allowNullValues);
+        this.name = name;
+        this.keyPrefix = keyPrefix == null ? "" : keyPrefix;
+        this.cacheWriter = cacheWriter;
+        this.valueSerializer = valueSerializer;
+        this.ttl = ttl;
+        this.ttlJitter = ttlJitter;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+        this.localCache = localCache;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    /*
+     * 没有加载方法的读取（@Cacheable 未设置 sync），需要提前刷新时按未命中返回，由调用方重新执行方法并写入
+     */
+    @Override
+    protected Object lookup(Object key) {
+        Envelope envelope = lookupEnvelope(toCacheKey(key));
+        if (envelope == null) {
+            return null;
+        }
+        if (shouldRefreshEarly(envelope)) {
+            earlyRefreshes.incrementAndGet();
+            return null;
+        }
+        return envelope.value;
+    }
+
+    private Envelope lookupEnvelope(String cacheKey) {
+        LocalCache.Entry entry = localCache.get(cacheKey);
+        if (entry != null) {
+            return (Envelope) entry.value;
+        }
+        byte[] bytes = cacheWriter.get(name, toRedisKey(cacheKey));
+        if (bytes == null) {
+            return null;
+        }
+        Envelope envelope = fromBytes(bytes);
+        if (envelope != null) {
+            localCache.put(cacheKey, envelope, bytes.length);
+        }
+        return envelope;
+    }
+
+    /*
+     * 带加载方法的读取（@Cacheable(sync = true)）
+     * 未命中时同一个键只有一个线程加载，其他线程等待；需要提前刷新时由一个线程重新加载，其他线程直接返回旧值
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String cacheKey = toCacheKey(key);
+        Envelope envelope = lookupEnvelope(cacheKey);
+        boolean refreshEarly = envelope != null && shouldRefreshEarly(envelope);
+        if (envelope != null && !refreshEarly) {
+            return (T) fromStoreValue(envelope.value);
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(cacheKey, future);
+        if (existing != null) {
+            if (envelope != null) {
+                return (T) fromStoreValue(envelope.value);
+            }
+            loadWaits.incrementAndGet();
+            try {
+                return (T) fromStoreValue(existing.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ValueRetrievalException(key, valueLoader, e);
+            } catch (ExecutionException e) {
+                throw new ValueRetrievalException(key, valueLoader, e.getCause());
+            }
+        }
+        try {
+            if (refreshEarly) {
+                earlyRefreshes.incrementAndGet();
+            }
+            loads.incrementAndGet();
+            long start = System.nanoTime();
+            T value = valueLoader.call();
+            long loadMillis = (System.nanoTime() - start) / 1000000;
+            Object storeValue = toStoreValue(value);
+            put(cacheKey, storeValue, loadMillis);
+            future.complete(storeValue);
+            return value;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw new ValueRetrievalException(key, valueLoader, e);
+        } finally {
+            loading.remove(cacheKey, future);
+        }
+    }
+
+    /*
+     * XFetch：当前时间 - 加载耗时 * beta * ln(随机数) >= 过期时间 时提前刷新
+     * ln(随机数) 为负数，离过期越近、加载耗时越长，提前刷新的概率越大
+     */
+    boolean shouldRefreshEarly(Envelope envelope) {
+        if (earlyRefreshBeta <= 0 || envelope.expireAt <= 0) {
+            return false;
+        }
+        double random = ThreadLocalRandom.current().nextDouble();
+        long gap = (long) (-Math.max(envelope.loadMillis, 1) * earlyRefreshBeta * Math.log(random));
+        return System.currentTimeMillis() + gap >= envelope.expireAt;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        put(toCacheKey(key), toStoreValue(value), 0);
+    }
+
+    private void put(String cacheKey, Object storeValue, long loadMillis) {
+        Duration entryTtl = jitteredTtl();
+        Envelope envelope = new Envelope(storeValue, System.currentTimeMillis() + entryTtl.toMillis(), loadMillis);
+        byte[] bytes = toBytes(envelope);
+        cacheWriter.put(name, toRedisKey(cacheKey), bytes, entryTtl);
+        localCache.put(cacheKey, envelope, bytes.length);
+        publisher.publish(name, cacheKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        String cacheKey = toCacheKey(key);
+        Duration entryTtl = jitteredTtl();
+        Envelope envelope = new Envelope(toStoreValue(value), System.currentTimeMillis() + entryTtl.toMillis(), 0);
+        byte[] bytes = toBytes(envelope);
+        byte[] existing = cacheWriter.putIfAbsent(name, toRedisKey(cacheKey), bytes, entryTtl);
+        if (existing != null) {
+            Envelope current = fromBytes(existing);
+            return current == null ? null : toValueWrapper(current.value);
+        }
+        localCache.put(cacheKey, envelope, bytes.length);
+        publisher.publish(name, cacheKey);
+        return null;
+    }
+
+    @Override
+    public void evict(Object key) {
+        String cacheKey = toCacheKey(key);
+        cacheWriter.remove(name, toRedisKey(cacheKey));
+        localCache.evict(cacheKey);
+        publisher.publish(name, cacheKey);
+    }
+
+    @Override
+    public void clear() {
+        cacheWriter.clean(name, (keyPrefix + name + "::*").getBytes(StandardCharsets.UTF_8));
+        localCache.clear();
+        publisher.publish(name, null);
+    }
+
+    /*
+     * 收到其他节点的变更通知时只删除本地缓存，Redis 中的值已由发出通知的节点修改
+     */
+    public void evictLocal(String cacheKey) {
+        if (cacheKey == null) {
+            localCache.clear();
+        } else {
+            localCache.evict(cacheKey);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttlMillis", ttl.toMillis());
+        stats.put("serializer", valueSerializer.getFormat());
+        stats.put("cacheNulls", isAllowNullValues());
+        stats.put("loads", loads.get());
+        stats.put("loadWaits", loadWaits.get());
+        stats.put("earlyRefreshes", earlyRefreshes.get());
+        stats.put("local", localCache.getStats());
+        return stats;
+    }
+
+    //过期时间在 ttl*(1-jitter) 到 ttl*(1+jitter) 之间随机
+    private Duration jitteredTtl() {
+        if (ttlJitter <= 0 || ttl.isZero()) {
+            return ttl;
+        }
+        double factor = 1 + ttlJitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        return Duration.ofMillis(Math.max(1, (long) (ttl.toMillis() * factor)));
+    }
+
+    private byte[] toBytes(Envelope envelope) {
+        byte[] payload = envelope.value == NullValue.INSTANCE ? new byte[0] : valueSerializer.serialize(envelope.value);
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .put(HEADER_MARK)
+                .putLong(envelope.expireAt)
+                .putLong(envelope.loadMillis)
+                .put(payload)
+                .array();
+    }
+
+    /*
+     * 没有头部的值为之前版本写入的，直接按序列化后的值读取；不允许缓存空值时，Redis 中遗留的空值按未命中处理
+     */
+    private Envelope fromBytes(byte[] bytes) {
+        long expireAt = 0;
+        long loadMillis = 0;
+        byte[] payload = bytes;
+        if (bytes.length >= HEADER_LENGTH && bytes[0] == HEADER_MARK) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, HEADER_LENGTH - 1);
+            expireAt = buffer.getLong();
+            loadMillis = buffer.getLong();
+            payload = Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length);
+        }
+        Object value;
+        if (payload.length == 0) {
+            if (!isAllowNullValues()) {
+                return null;
+            }
+            value = NullValue.INSTANCE;
+        } else {
+            value = valueSerializer.deserialize(payload);
+        }
+        return new Envelope(value, expireAt, loadMillis);
+    }
+
+    private static String toCacheKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    private byte[] toRedisKey(String cacheKey) {
+        return (keyPrefix + name + "::" + cacheKey).getBytes(StandardCharsets.UTF_8);
+    }
+}
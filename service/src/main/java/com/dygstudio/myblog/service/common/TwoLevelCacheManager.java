@@ -0,0 +1,92 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.CacheProperties;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 〈功能概述〉
+ * 两级缓存管理器，按名称创建 TwoLevelCache，每个缓存的 Redis 过期时间、本地缓存过期时间和容量、键前缀、空值缓存、序列化方式来自 CacheProperties
+ * 缓存变更时通过 Redis 发布订阅通知其他节点删除对应的本地缓存，保证各节点本地缓存与 Redis 一致
+ * 通知内容为 节点标识\n缓存名称\n键，没有键表示清空整个缓存，节点忽略自己发出的通知
+ *
+ * @className: TwoLevelCacheManager
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/14 11:40 上午
+ */
+public class TwoLevelCacheManager implements CacheManager, MessageListener {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final RedisCacheWriter cacheWriter;
+    private final CacheProperties cacheProperties;
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+
+    public TwoLevelCacheManager(RedisCacheWriter cacheWriter, CacheProperties cacheProperties, StringRedisTemplate redisTemplate) {
+        this.cacheWriter = cacheWriter;
+        this.cacheProperties = cacheProperties;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    private TwoLevelCache createCache(String name) {
+        CacheProperties.Spec spec = cacheProperties.resolve(name);
+        LocalCache localCache = new LocalCache(spec.getLocalMaxBytes(), spec.getLocalTtl());
+        JacksonRedisSerializer valueSerializer = new JacksonRedisSerializer(spec.getSerializer(), spec.getType());
+        return new TwoLevelCache(name, spec.getKeyPrefix(), spec.getCacheNulls(), cacheWriter, valueSerializer,
+                Duration.ofMillis(spec.getTtl()), spec.getTtlJitter(), spec.getEarlyRefreshBeta(), localCache, this::publish);
+    }
+
+    private void publish(String cacheName, String key) {
+        String message = nodeId + "\n" + cacheName + (key == null ? "" : "\n" + key);
+        try {
+            redisTemplate.convertAndSend(cacheProperties.getChannel(), message);
+        } catch (Exception e) {
+            //通知失败时其他节点的本地缓存在 localTtl 后过期
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\n", 3);
+        if (parts.length < 2 || nodeId.equals(parts[0])) {
+            return;
+        }
+        TwoLevelCache cache = caches.get(parts[1]);
+        if (cache != null) {
+            cache.evictLocal(parts.length == 3 ? parts[2] : null);
+        }
+    }
+
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, TwoLevelCache> entry : caches.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,181 @@
+package com.dygstudio.myblog.service.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * 两级缓存配置，对应 application.yml 中的 cache 节点
+ * defaults 为所有缓存的默认配置，caches 按缓存名称覆盖其中的部分配置，时间单位均为毫秒
+ * 每个缓存可以单独配置 Redis 过期时间、本地缓存、键前缀、是否缓存空值、序列化格式和值类型，以及过期时间抖动和提前刷新系数
+ *
+ * @className: CacheProperties
+ * @package: com.dygstudio.myblog.service.config
+ * @author: diyaguang
+ * @date: 2020/9/14 10:10 上午
+ */
+@Component
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+    //各节点之间通知本地缓存失效的 Redis 频道
+    private String channel = "cache:invalidate";
+    private Spec defaults = new Spec(30000L, 5000L, 16L * 1024 * 1024, "", false, "json", 0.1, 1.0);
+    private Map<String, Spec> caches = new LinkedHashMap<>();
+
+    public static class Spec {
+        //Redis 中的过期时间
+        private Long ttl;
+        //本地缓存的过期时间，0 表示不使用本地缓存
+        private Long localTtl;
+        //本地缓存的容量上限，按值序列化后的字节数计算
+        private Long localMaxBytes;
+        //Redis 键的前缀，完整的键为 前缀+缓存名称::键
+        private String keyPrefix;
+        //是否缓存空值，缓存空值可以避免不存在的数据每次都查询数据库
+        private Boolean cacheNulls;
+        //值的序列化格式：json，smile，cbor
+        private String serializer;
+        //值的类型，配置后不在值中写入类名，只对单个缓存配置，不从默认配置继承
+        private String type;
+        //过期时间的随机抖动比例，例如 0.1 表示在 ttl 的 90% 到 110% 之间随机
+        private Double ttlJitter;
+        //提前刷新系数，越大越早刷新，0 表示不提前刷新
+        private Double earlyRefreshBeta;
+
+        public Spec() {
+        }
+
+        public Spec(Long ttl, Long localTtl, Long localMaxBytes, String keyPrefix, Boolean cacheNulls, String serializer,
+                    Double ttlJitter, Double earlyRefreshBeta) {
+            this.ttl = ttl;
+            this.localTtl = localTtl;
+            this.localMaxBytes = localMaxBytes;
+            this.keyPrefix = keyPrefix;
+            this.cacheNulls = cacheNulls;
+            this.serializer = serializer;
+            this.ttlJitter = ttlJitter;
+            this.earlyRefreshBeta = earlyRefreshBeta;
+        }
+
+        /*
+         * 没有配置的项使用默认配置中的值
+         */
+        public Spec merge(Spec defaults) {
+            Spec spec = new Spec();
+            spec.ttl = ttl != null ? ttl : defaults.ttl;
+            spec.localTtl = localTtl != null ? localTtl : defaults.localTtl;
+            spec.localMaxBytes = localMaxBytes != null ? localMaxBytes : defaults.localMaxBytes;
+            spec.keyPrefix = keyPrefix != null ? keyPrefix : defaults.keyPrefix;
+            spec.cacheNulls = cacheNulls != null ? cacheNulls : defaults.cacheNulls;
+            spec.serializer = serializer != null ? serializer : defaults.serializer;
+            spec.type = type;
+            spec.ttlJitter = ttlJitter != null ? ttlJitter : defaults.ttlJitter;
+            spec.earlyRefreshBeta = earlyRefreshBeta != null ? earlyRefreshBeta : defaults.earlyRefreshBeta;
+            return spec;
+        }
+
+        public Long getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Long ttl) {
+            this.ttl = ttl;
+        }
+
+        public Long getLocalTtl() {
+            return localTtl;
+        }
+
+        public void setLocalTtl(Long localTtl) {
+            this.localTtl = localTtl;
+        }
+
+        public Long getLocalMaxBytes() {
+            return localMaxBytes;
+        }
+
+        public void setLocalMaxBytes(Long localMaxBytes) {
+            this.localMaxBytes = localMaxBytes;
+        }
+
+        public String getKeyPrefix() {
+            return keyPrefix;
+        }
+
+        public void setKeyPrefix(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        public Boolean getCacheNulls() {
+            return cacheNulls;
+        }
+
+        public void setCacheNulls(Boolean cacheNulls) {
+            this.cacheNulls = cacheNulls;
+        }
+
+        public String getSerializer() {
+            return serializer;
+        }
+
+        public void setSerializer(String serializer) {
+            this.serializer = serializer;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public Double getTtlJitter() {
+            return ttlJitter;
+        }
+
+        public void setTtlJitter(Double ttlJitter) {
+            this.ttlJitter = ttlJitter;
+        }
+
+        public Double getEarlyRefreshBeta() {
+            return earlyRefreshBeta;
+        }
+
+        public void setEarlyRefreshBeta(Double earlyRefreshBeta) {
+            this.earlyRefreshBeta = earlyRefreshBeta;
+        }
+    }
+
+    public Spec resolve(String cacheName) {
+        Spec spec = caches.get(cacheName);
+        return spec == null ? defaults.merge(defaults) : spec.merge(defaults);
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public Spec getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Spec defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Spec> getCaches() {
+        return caches;
+    }
+
+    public void setCaches(Map<String, Spec> caches) {
+        this.caches = caches;
+    }
+}
@@ -0,0 +1,661 @@
+package com.dygstudio.myblog.service.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * ElasticSearch 客户端配置，对应 application.yml 中的 elasticsearch 节点
+ * 时间单位均为毫秒，缓冲区大小单位均为字节
+ *
+ * @className: EsProperties
+ * @package: com.dygstudio.myblog.service.config
+ * @author: diyaguang
+ * @date: 2020/9/8 2:30 下午
+ */
+@Component
+@ConfigurationProperties(prefix = "elasticsearch")
+public class EsProperties {
+    //节点地址，格式为 scheme://host:port
+    private List<String> hosts = new ArrayList<>();
+    //建立连接的超时时间
+    private int connectTimeout = 1000;
+    //等待响应数据的超时时间
+    private int socketTimeout = 10000;
+    //从连接池获取连接的超时时间
+    private int connectionRequestTimeout = 500;
+    //IO 线程数，0 表示使用 CPU 核数
+    private int ioThreadCount = 0;
+    //IO 线程检查超时的间隔，超时最多延迟这么久才生效，HttpAsyncClient 默认为 1000
+    private int ioSelectIntervalMillis = 100;
+    private int maxConnTotal = 100;
+    private int maxConnPerRoute = 50;
+    //嗅探间隔，0 表示不启用嗅探器
+    private int sniffIntervalMillis = 60000;
+    //授权头信息，为空则不添加
+    private String authorization;
+    //默认的响应缓冲区上限
+    private int bufferLimit = 100 * 1024 * 1024;
+    //按名称配置的 RequestOptions，例如 search-fast，bulk-large，admin
+    private Map<String, Options> options = new LinkedHashMap<>();
+    //切片滚动扫描使用的线程数，以及等待执行的切片队列长度
+    private int scanThreads = 4;
+    private int scanQueueCapacity = 64;
+    //异步搜索响应的处理线程数（0 表示使用 CPU 核数），以及等待处理的响应队列长度
+    private int responseThreads = 0;
+    private int responseQueueCapacity = 1000;
+    //流式导出的超时时间，只作用于导出接口
+    private long exportTimeoutMillis = 600000;
+    //批量写入配置
+    private Bulk bulk = new Bulk();
+    //MySQL 到 ES 的增量同步配置
+    private Sync sync = new Sync();
+    //搜索结果缓存配置
+    private SearchCache searchCache = new SearchCache();
+    //搜索请求合并配置
+    private SearchBatch searchBatch = new SearchBatch();
+    //请求耗时、字节数等指标的统计配置
+    private Metrics metrics = new Metrics();
+    //慢搜索日志配置
+    private SlowSearch slowSearch = new SlowSearch();
+    //请求截止时间配置
+    private Deadline deadline = new Deadline();
+
+    public static class Deadline {
+        //接口没有指定截止时间时使用的默认值，0 表示不设置截止时间
+        private long defaultMillis = 0;
+        //设置 ES 服务端超时时预留的时间，用于网络传输和协调节点合并结果，服务端超时 = 剩余时间 - serverMarginMillis
+        private long serverMarginMillis = 20;
+
+        public long getDefaultMillis() {
+            return defaultMillis;
+        }
+
+        public void setDefaultMillis(long defaultMillis) {
+            this.defaultMillis = defaultMillis;
+        }
+
+        public long getServerMarginMillis() {
+            return serverMarginMillis;
+        }
+
+        public void setServerMarginMillis(long serverMarginMillis) {
+            this.serverMarginMillis = serverMarginMillis;
+        }
+    }
+
+    public static class SlowSearch {
+        private boolean enabled = true;
+        //耗时（客户端耗时和 ES 返回的 took 中较大的一个）达到该值的搜索记为慢搜索，与 Druid 的 slowSqlMillis 作用相同
+        private long thresholdMillis = 1000;
+        //内存中保留的最近慢搜索条数
+        private int maxEntries = 100;
+        //慢搜索在后台使用 profile=true 重新执行的比例，0 表示不重新执行，1 表示每条都重新执行
+        private double profileSampleRate = 0.1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getThresholdMillis() {
+            return thresholdMillis;
+        }
+
+        public void setThresholdMillis(long thresholdMillis) {
+            this.thresholdMillis = thresholdMillis;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public double getProfileSampleRate() {
+            return profileSampleRate;
+        }
+
+        public void setProfileSampleRate(double profileSampleRate) {
+            this.profileSampleRate = profileSampleRate;
+        }
+    }
+
+    public static class Metrics {
+        private boolean enabled = true;
+        //记录的最大耗时，超过的按该值记录
+        private long highestTrackableMillis = 60000;
+        //最多统计的 操作+索引+状态码 组合数，超过后新出现的索引名称记为 other，避免索引名称过多时内存无限增长
+        private int maxSeries = 200;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getHighestTrackableMillis() {
+            return highestTrackableMillis;
+        }
+
+        public void setHighestTrackableMillis(long highestTrackableMillis) {
+            this.highestTrackableMillis = highestTrackableMillis;
+        }
+
+        public int getMaxSeries() {
+            return maxSeries;
+        }
+
+        public void setMaxSeries(int maxSeries) {
+            this.maxSeries = maxSeries;
+        }
+    }
+
+    public static class SearchBatch {
+        private boolean enabled = true;
+        //合并的时间窗口，第一个请求到达后最多等待的时间
+        private long windowMillis = 2;
+        //一次 _msearch 最多包含的搜索数，达到后立即发送
+        private int maxBatchSize = 20;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+    }
+
+    public static class SearchCache {
+        private boolean enabled = true;
+        //缓存结果的过期时间
+        private long ttlMillis = 5000;
+        //最多缓存的搜索结果数
+        private int maxEntries = 1000;
+        //写入后索引刷新所需的时间，与索引的 refresh_interval 一致，写入后经过该时间再使缓存失效一次
+        private long refreshDelayMillis = 1000;
+        //统计结果的过期时间，0 表示不缓存统计结果
+        private long countTtlMillis = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getTtlMillis() {
+            return ttlMillis;
+        }
+
+        public void setTtlMillis(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getRefreshDelayMillis() {
+            return refreshDelayMillis;
+        }
+
+        public void setRefreshDelayMillis(long refreshDelayMillis) {
+            this.refreshDelayMillis = refreshDelayMillis;
+        }
+
+        public long getCountTtlMillis() {
+            return countTtlMillis;
+        }
+
+        public void setCountTtlMillis(long countTtlMillis) {
+            this.countTtlMillis = countTtlMillis;
+        }
+    }
+
+    public static class Sync {
+        private boolean enabled = false;
+        //两次同步之间的间隔
+        private long intervalMillis = 5000;
+        //每次从数据库读取的行数
+        private int batchSize = 500;
+        //每次同步每个数据源最多读取的批次数，用于限制数据库压力，剩余的数据在下次同步时继续读取
+        private int maxBatchesPerRun = 20;
+        //按更新时间同步时，每次从同步位置往前回看的时间，重新读取更新时间较早但提交较晚的行（长事务、服务器时钟偏差）
+        //回看窗口内的行数应小于 batchSize * maxBatchesPerRun，否则一次同步读不完窗口，同步位置无法前进
+        private long lookbackMillis = 60000;
+        //同步位置的保存文件，重启后从保存的位置继续同步
+        private String checkpointPath = "data/es-sync-checkpoint.json";
+        //数据源配置，key 为数据源名称，例如 user，dictionary
+        private Map<String, SyncSource> sources = new LinkedHashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        public void setIntervalMillis(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getMaxBatchesPerRun() {
+            return maxBatchesPerRun;
+        }
+
+        public void setMaxBatchesPerRun(int maxBatchesPerRun) {
+            this.maxBatchesPerRun = maxBatchesPerRun;
+        }
+
+        public long getLookbackMillis() {
+            return lookbackMillis;
+        }
+
+        public void setLookbackMillis(long lookbackMillis) {
+            this.lookbackMillis = lookbackMillis;
+        }
+
+        public String getCheckpointPath() {
+            return checkpointPath;
+        }
+
+        public void setCheckpointPath(String checkpointPath) {
+            this.checkpointPath = checkpointPath;
+        }
+
+        public Map<String, SyncSource> getSources() {
+            return sources;
+        }
+
+        public void setSources(Map<String, SyncSource> sources) {
+            this.sources = sources;
+        }
+    }
+
+    public static class SyncSource {
+        //写入的索引名称
+        private String index;
+        //数据更新时间的列名，为空时只按 id 递增同步，只能同步新增的数据
+        private String timestampColumn;
+
+        public String getIndex() {
+            return index;
+        }
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public String getTimestampColumn() {
+            return timestampColumn;
+        }
+
+        public void setTimestampColumn(String timestampColumn) {
+            this.timestampColumn = timestampColumn;
+        }
+    }
+
+    public static class Bulk {
+        //每批的最大请求数，-1 表示不按请求数刷新
+        private int bulkActions = 1000;
+        //每批的最大字节数，-1 表示不按大小刷新
+        private long bulkSize = 5 * 1024 * 1024;
+        //定时刷新间隔，0 表示不定时刷新
+        private long flushInterval = 1000;
+        //同时执行的批次数，0 表示由添加请求的线程同步执行
+        private int concurrentRequests = 2;
+        //指数退避的初始间隔和最大重试次数
+        private long backoffInitialDelay = 100;
+        private int backoffMaxRetries = 5;
+        //已提交但未完成的请求字节数上限，超过时写入方阻塞
+        private int maxInFlightBytes = 64 * 1024 * 1024;
+        //关闭时等待批次完成的最长时间，单位秒
+        private long awaitCloseSeconds = 30;
+        //写入失败且无法重试的文档保存到该死信文件，之后可以重放
+        private String deadLetterPath = "data/es-dead-letter.ndjson";
+
+        public int getBulkActions() {
+            return bulkActions;
+        }
+
+        public void setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+        }
+
+        public long getBulkSize() {
+            return bulkSize;
+        }
+
+        public void setBulkSize(long bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        public long getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(long flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getConcurrentRequests() {
+            return concurrentRequests;
+        }
+
+        public void setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+        }
+
+        public long getBackoffInitialDelay() {
+            return backoffInitialDelay;
+        }
+
+        public void setBackoffInitialDelay(long backoffInitialDelay) {
+            this.backoffInitialDelay = backoffInitialDelay;
+        }
+
+        public int getBackoffMaxRetries() {
+            return backoffMaxRetries;
+        }
+
+        public void setBackoffMaxRetries(int backoffMaxRetries) {
+            this.backoffMaxRetries = backoffMaxRetries;
+        }
+
+        public int getMaxInFlightBytes() {
+            return maxInFlightBytes;
+        }
+
+        public void setMaxInFlightBytes(int maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+        }
+
+        public long getAwaitCloseSeconds() {
+            return awaitCloseSeconds;
+        }
+
+        public void setAwaitCloseSeconds(long awaitCloseSeconds) {
+            this.awaitCloseSeconds = awaitCloseSeconds;
+        }
+
+        public String getDeadLetterPath() {
+            return deadLetterPath;
+        }
+
+        public void setDeadLetterPath(String deadLetterPath) {
+            this.deadLetterPath = deadLetterPath;
+        }
+    }
+
+    public static class Options {
+        //响应缓冲区上限，0 表示使用默认值
+        private int bufferLimit;
+        //服务端执行的超时时间，0 表示不设置
+        private long timeout;
+        private Map<String, String> headers = new LinkedHashMap<>();
+
+        public int getBufferLimit() {
+            return bufferLimit;
+        }
+
+        public void setBufferLimit(int bufferLimit) {
+            this.bufferLimit = bufferLimit;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(Map<String, String> headers) {
+            this.headers = headers;
+        }
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(List<String> hosts) {
+        this.hosts = hosts;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    public int getIoSelectIntervalMillis() {
+        return ioSelectIntervalMillis;
+    }
+
+    public void setIoSelectIntervalMillis(int ioSelectIntervalMillis) {
+        this.ioSelectIntervalMillis = ioSelectIntervalMillis;
+    }
+
+    public int getMaxConnTotal() {
+        return maxConnTotal;
+    }
+
+    public void setMaxConnTotal(int maxConnTotal) {
+        this.maxConnTotal = maxConnTotal;
+    }
+
+    public int getMaxConnPerRoute() {
+        return maxConnPerRoute;
+    }
+
+    public void setMaxConnPerRoute(int maxConnPerRoute) {
+        this.maxConnPerRoute = maxConnPerRoute;
+    }
+
+    public int getSniffIntervalMillis() {
+        return sniffIntervalMillis;
+    }
+
+    public void setSniffIntervalMillis(int sniffIntervalMillis) {
+        this.sniffIntervalMillis = sniffIntervalMillis;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    public void setAuthorization(String authorization) {
+        this.authorization = authorization;
+    }
+
+    public int getBufferLimit() {
+        return bufferLimit;
+    }
+
+    public void setBufferLimit(int bufferLimit) {
+        this.bufferLimit = bufferLimit;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    public int getScanQueueCapacity() {
+        return scanQueueCapacity;
+    }
+
+    public void setScanQueueCapacity(int scanQueueCapacity) {
+        this.scanQueueCapacity = scanQueueCapacity;
+    }
+
+    public int getResponseThreads() {
+        return responseThreads;
+    }
+
+    public void setResponseThreads(int responseThreads) {
+        this.responseThreads = responseThreads;
+    }
+
+    public int getResponseQueueCapacity() {
+        return responseQueueCapacity;
+    }
+
+    public void setResponseQueueCapacity(int responseQueueCapacity) {
+        this.responseQueueCapacity = responseQueueCapacity;
+    }
+
+    public long getExportTimeoutMillis() {
+        return exportTimeoutMillis;
+    }
+
+    public void setExportTimeoutMillis(long exportTimeoutMillis) {
+        this.exportTimeoutMillis = exportTimeoutMillis;
+    }
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Bulk bulk) {
+        this.bulk = bulk;
+    }
+
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    public void setSearchCache(SearchCache searchCache) {
+        this.searchCache = searchCache;
+    }
+
+    public SearchBatch getSearchBatch() {
+        return searchBatch;
+    }
+
+    public void setSearchBatch(SearchBatch searchBatch) {
+        this.searchBatch = searchBatch;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public SlowSearch getSlowSearch() {
+        return slowSearch;
+    }
+
+    public void setSlowSearch(SlowSearch slowSearch) {
+        this.slowSearch = slowSearch;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    public Sync getSync() {
+        return sync;
+    }
+
+    public void setSync(Sync sync) {
+        this.sync = sync;
+    }
+
+    public Map<String, Options> getOptions() {
+        return options;
+    }
+
+    public void setOptions(Map<String, Options> options) {
+        this.options = options;
+    }
+}
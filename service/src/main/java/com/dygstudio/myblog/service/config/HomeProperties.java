@@ -0,0 +1,103 @@
+package com.dygstudio.myblog.service.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 〈功能概述〉
+ * 首页接口配置，对应 application.yml 中的 home 节点
+ * 首页的作者信息、分类、热门内容并行查询，每个数据源有各自的超时时间，单位毫秒
+ *
+ * @className: HomeProperties
+ * @package: com.dygstudio.myblog.service.config
+ * @author: diyaguang
+ * @date: 2020/9/16 2:10 下午
+ */
+@Component
+@ConfigurationProperties(prefix = "home")
+public class HomeProperties {
+    //首页展示的作者登录名
+    private String authorLoginName = "admin";
+    //并行查询的线程数和等待队列长度，队列满时该数据源直接返回失败，不阻塞请求
+    private int threads = 8;
+    private int queueCapacity = 64;
+    private long authorTimeoutMillis = 300;
+    private long categoryTimeoutMillis = 300;
+    private long topContentTimeoutMillis = 500;
+    //热门内容所在的索引、排序字段和条数
+    private String topContentIndex = "posts";
+    private String topContentSortField = "postDate";
+    private int topContentSize = 10;
+
+    public String getAuthorLoginName() {
+        return authorLoginName;
+    }
+
+    public void setAuthorLoginName(String authorLoginName) {
+        this.authorLoginName = authorLoginName;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getAuthorTimeoutMillis() {
+        return authorTimeoutMillis;
+    }
+
+    public void setAuthorTimeoutMillis(long authorTimeoutMillis) {
+        this.authorTimeoutMillis = authorTimeoutMillis;
+    }
+
+    public long getCategoryTimeoutMillis() {
+        return categoryTimeoutMillis;
+    }
+
+    public void setCategoryTimeoutMillis(long categoryTimeoutMillis) {
+        this.categoryTimeoutMillis = categoryTimeoutMillis;
+    }
+
+    public long getTopContentTimeoutMillis() {
+        return topContentTimeoutMillis;
+    }
+
+    public void setTopContentTimeoutMillis(long topContentTimeoutMillis) {
+        this.topContentTimeoutMillis = topContentTimeoutMillis;
+    }
+
+    public String getTopContentIndex() {
+        return topContentIndex;
+    }
+
+    public void setTopContentIndex(String topContentIndex) {
+        this.topContentIndex = topContentIndex;
+    }
+
+    public String getTopContentSortField() {
+        return topContentSortField;
+    }
+
+    public void setTopContentSortField(String topContentSortField) {
+        this.topContentSortField = topContentSortField;
+    }
+
+    public int getTopContentSize() {
+        return topContentSize;
+    }
+
+    public void setTopContentSize(int topContentSize) {
+        this.topContentSize = topContentSize;
+    }
+}
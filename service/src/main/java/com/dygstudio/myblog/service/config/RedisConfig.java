@@ -1,23 +1,22 @@
 package com.dygstudio.myblog.service.config;
 
+import com.dygstudio.myblog.service.common.TwoLevelCacheManager;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachingConfigurerSupport;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.cache.RedisCacheConfiguration;
-import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
-import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
-import java.time.Duration;
-
 /**
  * 〈功能概述〉
  *
@@ -44,27 +43,23 @@ public class RedisConfig extends CachingConfigurerSupport {
         return template;
     }
 
+    /* 两级缓存，本地缓存在前，Redis 在后
+    * 每个缓存的过期时间、本地缓存容量、键前缀、空值缓存、序列化格式在 application.yml 的 cache 节点中配置，
+    * 序列化没有配置值类型时与原来一样在值中写入类名，解决查询缓存转换异常的问题
+    * */
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory factory){
-        RedisSerializer<String> redisSerializer = new StringRedisSerializer();
-        Jackson2JsonRedisSerializer jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer(Object.class);
-
-        //解决查询缓存转换异常的问题
-        ObjectMapper om = new ObjectMapper();
-        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-        om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
-        jackson2JsonRedisSerializer.setObjectMapper(om);
-
-        // 配置序列化（解决乱码的问题）,过期时间30秒
-        RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(Duration.ofSeconds(30))
-                .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(redisSerializer))
-                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(jackson2JsonRedisSerializer))
-                .disableCachingNullValues();
+    public TwoLevelCacheManager cacheManager(RedisConnectionFactory factory, CacheProperties cacheProperties){
+        return new TwoLevelCacheManager(RedisCacheWriter.nonLockingRedisCacheWriter(factory), cacheProperties, new StringRedisTemplate(factory));
+    }
 
-        RedisCacheManager cacheManager = RedisCacheManager.builder(factory)
-                .cacheDefaults(config)
-                .build();
-        return cacheManager;
+    /* 订阅缓存变更通知，删除本节点对应的本地缓存 */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory factory,
+                                                                           TwoLevelCacheManager cacheManager,
+                                                                           CacheProperties cacheProperties){
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(cacheManager, new ChannelTopic(cacheProperties.getChannel()));
+        return container;
     }
 }
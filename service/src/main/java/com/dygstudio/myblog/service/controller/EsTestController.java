@@ -1,17 +1,39 @@
 package com.dygstudio.myblog.service.controller;
 
+import com.dygstudio.myblog.service.common.CountResult;
+import com.dygstudio.myblog.service.common.EsBulkFailureHandler;
+import com.dygstudio.myblog.service.common.EsBulkIngester;
+import com.dygstudio.myblog.service.common.EsDeadline;
 import com.dygstudio.myblog.service.common.EsDocument;
 import com.dygstudio.myblog.service.common.EsIndex;
+import com.dygstudio.myblog.service.common.EsQuery;
 import com.dygstudio.myblog.service.common.EsSearch;
+import com.dygstudio.myblog.service.common.EsSlowSearchLog;
+import com.dygstudio.myblog.service.common.EsSyncEngine;
 import com.dygstudio.myblog.service.common.EsUtil;
+import com.dygstudio.myblog.service.common.PageResult;
+import com.dygstudio.myblog.service.common.SearchResult;
+import com.dygstudio.myblog.service.common.SysConstant;
+import com.dygstudio.myblog.service.config.EsProperties;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 〈功能概述〉
@@ -29,24 +51,37 @@ class esTestController {
     * 删除索引：http://localhost:8080/api/es/di?indexName=read_me
     * 创建索引：http://localhost:8080/api/es/ci?indexName=diyaguang
     * 索引文档数据：http://localhost:8080/api/es/dir?indexName=diyaguang&document=doc1
+    * 搜索、统计、获取和索引文档的接口可以传入 deadline（毫秒），表示调用方最多等待的时间，例如 /sr?field=message&value=age&deadline=300
+    * 搜索在截止时间前由 ES 服务端返回已经得到的部分结果，已经到期的请求不再发送，接口最多等待到截止时间，没有传入时使用 elasticsearch.deadline.defaultMillis
+    * 7.2 的客户端无法取消已经发出的 HTTP 请求，到期后接口返回超时，请求本身仍在后台执行到 ES 返回或 socketTimeout
     *  */
-    private EsUtil esUtil = new EsUtil();
+    //列表总数默认精确统计到的数量，超过后显示为 "1000+"
+    private final static int DEFAULT_COUNT_THRESHOLD = 1000;
+
+    @Resource
+    private EsUtil esUtil;
+    @Resource
+    private EsBulkIngester esBulkIngester;
+    @Resource
+    private EsBulkFailureHandler esBulkFailureHandler;
+    @Resource
+    private EsSyncEngine esSyncEngine;
+    @Resource
+    private EsProperties esProperties;
 
     @RequestMapping("/init")
     public String initElasticSearch(){
-        esUtil.initEs();
+        //客户端在容器启动时已经初始化，这里只返回状态
         return "Init ElasticSearch Over!";
     }
 
     @RequestMapping("/baseRequest")
     public String executeRequest(){
-        esUtil.initEs();
         String result = esUtil.executeRequest();
         return result;
     }
     @RequestMapping("/baseAsyncRequest")
     public String executeAsyncRequest(){
-        esUtil.initEs();
         String result = esUtil.executeRequestAsync();
         return result;
     }
@@ -203,20 +238,20 @@ class esTestController {
         return esIndex.executeGetAliasesRequestForAliases(indexAliasName,esUtil);
     }
     @RequestMapping("/dir")
-    public String executeIndexRequest(String indexName,String document){
+    public String executeIndexRequest(String indexName,String document,Long deadline){
         if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(document)){
             return "Parameters are wrong!";
         }
         EsDocument esDocument = new EsDocument();
-        return esDocument.executeIndexRequest(indexName,document,esUtil);
+        return esDocument.executeIndexRequest(indexName,document,esUtil.deadlineOf(deadline),esUtil);
     }
     @RequestMapping("/dg")
-    public String executeGetRequest(String indexName,String document){
+    public String executeGetRequest(String indexName,String document,Long deadline){
         if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(document)){
             return "Parameters are wrong!";
         }
         EsDocument esDocument = new EsDocument();
-        return esDocument.executeGetRequest(indexName,document,esUtil);
+        return esDocument.executeGetRequest(indexName,document,esUtil.deadlineOf(deadline),esUtil);
     }
     @RequestMapping("/dcde")
     public String executeCheckDocumentExistsRequest(String indexName,String document){
@@ -257,33 +292,213 @@ class esTestController {
             return "Parameters are wrong!";
         }
         EsDocument esDocument = new EsDocument();
-        return esDocument.executeBulkRequest(indexName,field,esUtil);
+        return esDocument.executeBulkRequest(indexName,field,esUtil,esBulkFailureHandler);
+    }
+
+    @RequestMapping("/dbp")
+    public String executeBulkProcessor(String indexName,String field){
+        if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(field)){
+            return "Parameters are wrong!";
+        }
+        EsDocument esDocument = new EsDocument();
+        return esDocument.buildBulkRequestWithBulkProcessor(indexName,field,esBulkIngester);
+    }
+    @RequestMapping("/dbs")
+    public Map<String, Map<String, Object>> getBulkStats(){
+        return esBulkIngester.getStats();
+    }
+
+    @RequestMapping("/dlr")
+    public String replayDeadLetters(){
+        try {
+            return "replay dead letters: "+esBulkFailureHandler.replay();
+        }catch (Exception e){
+            e.printStackTrace();
+            return "replay dead letters error: "+e.getMessage();
+        }
+    }
+
+    @RequestMapping("/sync")
+    public Map<String, Integer> executeSync() throws IOException {
+        return esSyncEngine.syncAll();
+    }
+    @RequestMapping("/syncStatus")
+    public Map<String, EsSyncEngine.Checkpoint> getSyncStatus(){
+        return esSyncEngine.getCheckpoints();
+    }
+
+    @RequestMapping("/searchCacheStats")
+    public Map<String, Object> getSearchCacheStats(){
+        return esUtil.searchCache.getStats();
+    }
+
+    @RequestMapping("/searchBatchStats")
+    public Map<String, Object> getSearchBatchStats(){
+        return esUtil.searchBatcher.getStats();
+    }
+
+    //ES 请求指标：各操作的耗时分位数、收发字节数、节点失败次数、批量写入速率，reset=true 时返回后清零
+    @RequestMapping("/metrics")
+    public Map<String, Object> getMetrics(boolean reset){
+        Map<String, Object> stats = esUtil.metrics.getStats();
+        if (reset) {
+            esUtil.metrics.reset();
+        }
+        return stats;
+    }
+
+    //最近的慢搜索，按时间倒序，抽样重新执行的搜索带有 profile 树，clear=true 时返回后清空
+    @RequestMapping("/slowSearches")
+    public List<EsSlowSearchLog.Entry> getSlowSearches(boolean clear){
+        List<EsSlowSearchLog.Entry> entries = esUtil.slowSearchLog.getEntries();
+        if (clear) {
+            esUtil.slowSearchLog.clear();
+        }
+        return entries;
+    }
+
+    /* 批量搜索，请求体为 名称 -> 搜索条件，所有搜索通过一次 _msearch 发送，返回 名称 -> 搜索结果
+    * 例如首页的作者信息、分类信息、热门评论、搜索栏各自的搜索：
+    * {"authorInfo":{"index":"user","filter":{"LoginName":"admin"},"size":1},"topComments":{"index":"comment","size":5}}
+    * 每个搜索必须指定索引，索引名称不合法的搜索不发送，直接返回失败结果，size 最大为 100
+    *  */
+    @PostMapping("/msearch")
+    public Map<String, SearchResult> executeMultiSearchRequest(@RequestBody Map<String, EsQuery.Spec> specs,Long deadline){
+        EsDeadline esDeadline = esUtil.deadlineOf(deadline);
+        Map<String, EsQuery> queries = new LinkedHashMap<>();
+        Map<String, SearchResult> invalid = new LinkedHashMap<>();
+        specs.forEach((name, spec) -> {
+            String error = spec.validate();
+            if (error != null) {
+                invalid.put(name, SearchResult.failure("Parameters are wrong! " + error));
+            } else {
+                queries.put(name, spec.toQuery().deadline(esDeadline));
+            }
+        });
+        Map<String, SearchResult> executed = new EsSearch().executeMultiSearchRequest(queries,esUtil);
+        //按请求中的顺序返回
+        Map<String, SearchResult> results = new LinkedHashMap<>();
+        for (String name : specs.keySet()) {
+            results.put(name, invalid.containsKey(name) ? invalid.get(name) : executed.get(name));
+        }
+        return results;
     }
 
+    //高亮和建议按需开启，例如 /sr?field=message&value=age&highlight=message&suggest=测试
     @RequestMapping("/sr")
-    public String executeSearchRequest(String field,String value){
+    public SearchResult executeSearchRequest(String field,String value,String highlight,String suggest,Long deadline){
         if(Strings.isNullOrEmpty(field) ||Strings.isNullOrEmpty(value)){
-            return "Parameters are wrong!";
+            return SearchResult.failure("Parameters are wrong!");
+        }
+        EsSearch esSearch = new EsSearch();
+        EsQuery query = esSearch.buildSearchQuery(field,value).deadline(esUtil.deadlineOf(deadline));
+        if(!Strings.isNullOrEmpty(highlight)){
+            query.highlight(highlight.split(","));
+        }
+        if(!Strings.isNullOrEmpty(suggest)){
+            query.suggest("suggest_"+field,field,suggest);
+        }
+        return esSearch.executeSearchRequest(query,esUtil);
+    }
+    //过滤列表，只使用 filter 条件，不计算分数，不统计命中总数，例如 /list?indexName=posts&field=user&value=kimchy&fields=title,postDate
+    @RequestMapping("/list")
+    public SearchResult executeFilterListRequest(String indexName,String field,String value,String fields,String size,Long deadline){
+        if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(field) ||Strings.isNullOrEmpty(value)){
+            return SearchResult.failure("Parameters are wrong!");
+        }
+        EsQuery query = EsQuery.of(indexName)
+                .filter(field,value)
+                .size(Strings.isNullOrEmpty(size) ? 10 : Math.min(Integer.parseInt(size),100))
+                .trackTotalHits(false)
+                .deadline(esUtil.deadlineOf(deadline));
+        if(!Strings.isNullOrEmpty(fields)){
+            query.source(fields.split(","));
+        }
+        return new EsSearch().executeSearchRequest(query,esUtil);
+    }
+    //列表的总数，与 /list 使用相同的过滤条件，threshold 以内为精确值，超过显示为 "threshold+"，threshold 为 0 时精确统计
+    //例如 /count?indexName=posts&field=user&value=kimchy&threshold=1000
+    @RequestMapping("/count")
+    public CountResult executeCount(String indexName,String field,String value,String threshold,Long deadline){
+        if(Strings.isNullOrEmpty(indexName)){
+            return CountResult.failure("Parameters are wrong!");
+        }
+        EsQuery query = EsQuery.of(indexName).deadline(esUtil.deadlineOf(deadline));
+        if(!Strings.isNullOrEmpty(field) && !Strings.isNullOrEmpty(value)){
+            query.filter(field,value);
+        }
+        int limit = Strings.isNullOrEmpty(threshold) ? DEFAULT_COUNT_THRESHOLD : Integer.parseInt(threshold);
+        return new EsSearch().executeCount(query,limit,esUtil);
+    }
+    @RequestMapping("/asr")
+    public CompletableFuture<SearchResult> executeSearchRequestAsync(String field,String value,Long deadline){
+        if(Strings.isNullOrEmpty(field) ||Strings.isNullOrEmpty(value)){
+            return CompletableFuture.completedFuture(SearchResult.failure("Parameters are wrong!"));
         }
         EsSearch esSearch = new EsSearch();
-        return esSearch.executeSearchRequest(field,value,esUtil);
+        EsQuery query = esSearch.buildSearchQuery(field,value).deadline(esUtil.deadlineOf(deadline));
+        return esSearch.executeSearchRequestAsync(query,esUtil)
+                .exceptionally(e -> SearchResult.failure("execute SearchRequest error :"+e.getMessage()));
+    }
+    @RequestMapping("/sa")
+    public PageResult<SearchResult.Hit> executeSearchAfterRequest(String indexName,String field,String value,String size,String cursor,Long deadline){
+        if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(size)){
+            PageResult<SearchResult.Hit> result = new PageResult<>();
+            result.setCode(SysConstant.RESULT_CODE_FAILURE);
+            result.setMsg("Parameters are wrong!");
+            return result;
+        }
+        EsSearch esSearch = new EsSearch();
+        return esSearch.executeSearchAfterRequest(indexName,field,value,Integer.parseInt(size),cursor,esUtil.deadlineOf(deadline),esUtil);
     }
     @RequestMapping("/ss")
-    public String executeScrollSearchRequest(String indexName,String size){
+    public SearchResult executeScrollSearchRequest(String indexName,String size){
         if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(size)){
-            return "Parameters are wrong!";
+            return SearchResult.failure("Parameters are wrong!");
         }
         EsSearch esSearch = new EsSearch();
         return esSearch.executeScrollSearchRequest(indexName,size,esUtil);
     }
     @RequestMapping("/ass")
-    public String executeAllScrollSearchRequest(String indexName,String size){
+    public SearchResult executeAllScrollSearchRequest(String indexName,String size){
         if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(size)){
-            return "Parameters are wrong!";
+            return SearchResult.failure("Parameters are wrong!");
         }
         EsSearch esSearch = new EsSearch();
         return esSearch.executeAllScrollSearchRequest(indexName,size,esUtil);
     }
+    /* 流式导出索引
+    * 导出耗时较长，超时时间只对这个接口设置为 elasticsearch.exportTimeoutMillis，其他异步接口仍使用 spring.mvc.async.request-timeout
+    * 导出本身在超时前 EXPORT_TRAILER_MARGIN_MILLIS 停止，留出时间写出标记导出不完整的最后一行
+    * size 为每次滚动取回的条数，限制在 1 到 EsSearch.EXPORT_MAX_SIZE 之间
+    *  */
+    private final static long EXPORT_TRAILER_MARGIN_MILLIS = 10000;
+    @RequestMapping("/export")
+    public WebAsyncTask<Void> executeExportScrollSearchRequest(String indexName,String size,String slices,HttpServletResponse response){
+        if(Strings.isNullOrEmpty(indexName) ||Strings.isNullOrEmpty(size)){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,"Parameters are wrong!");
+        }
+        int pageSize;
+        int sliceCount;
+        try {
+            pageSize = Math.max(1,Math.min(EsSearch.EXPORT_MAX_SIZE,Integer.parseInt(size)));
+            //设置了 slices 时按切片并行导出，结果无序，实际切片数不超过扫描线程数和索引分片数
+            sliceCount = Strings.isNullOrEmpty(slices) ? 1 : Integer.parseInt(slices);
+        }catch (NumberFormatException e){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,"Parameters are wrong!");
+        }
+        if(sliceCount<1){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,"Parameters are wrong! slices must be at least 1");
+        }
+        long timeout = esProperties.getExportTimeoutMillis();
+        EsDeadline deadline = EsDeadline.in(Math.max(0,timeout-EXPORT_TRAILER_MARGIN_MILLIS));
+        response.setContentType("application/x-ndjson");
+        EsSearch esSearch = new EsSearch();
+        return new WebAsyncTask<>(timeout,() -> {
+            esSearch.executeExportScrollSearchRequest(indexName,pageSize,sliceCount,deadline,response.getOutputStream(),esUtil);
+            return null;
+        });
+    }
     @RequestMapping("/css")
     public String executeClearScrollSearchRequest(String scrollId){
         if(Strings.isNullOrEmpty(scrollId) ){
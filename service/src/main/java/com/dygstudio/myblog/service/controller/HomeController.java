@@ -0,0 +1,33 @@
+package com.dygstudio.myblog.service.controller;
+
+import com.dygstudio.myblog.service.entity.HomePage;
+import com.dygstudio.myblog.service.service.HomeService;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 〈功能概述〉
+ * 首页接口，一次请求返回首页各组件需要的数据，替代各组件分别请求后端
+ *
+ * @className: HomeController
+ * @package: com.dygstudio.myblog.service.controller
+ * @author: diyaguang
+ * @date: 2020/9/16 2:50 下午
+ */
+@RestController
+@RequestMapping("/api/home")
+public class HomeController {
+
+    @Resource
+    HomeService homeService;
+
+    /* 首页数据，author 为作者登录名，为空时使用配置的作者
+     * 部分数据源超时或失败时仍返回其余数据，partial 为 true，failures 中为失败的数据源及原因
+     * */
+    @RequestMapping("")
+    public HomePage getHomePage(String author){
+        return homeService.getHomePage(author);
+    }
+}
@@ -1,13 +1,14 @@
 package com.dygstudio.myblog.service.controller;
 
-import com.dygstudio.myblog.service.entity.User;
+import com.dygstudio.myblog.service.common.PageResult;
+import com.dygstudio.myblog.service.entity.UserSummary;
 import com.dygstudio.myblog.service.service.UserService;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * 〈功能概述〉
@@ -21,12 +22,24 @@ import java.util.List;
 @RequestMapping("/user")
 public class UserController {
 
+    //每页最多返回的用户数
+    private final static long MAX_PAGE_SIZE = 100;
+
     @Resource
     UserService userService;
 
+    /* 用户列表，分页返回用户摘要
+     * 传 cursor 时按 id 游标分页（cursor 为上一页返回的 cursor，第一页传空字符串），适合深分页；否则按 page 页码分页，返回总数
+     * */
     @ResponseBody
     @RequestMapping(value = "/list")
-    public List<User> getUserList(){
-        return userService.list();
+    public PageResult<UserSummary> getUserList(@RequestParam(defaultValue = "1") long page,
+                                               @RequestParam(defaultValue = "20") long size,
+                                               String cursor){
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        if(cursor!=null){
+            return userService.listSummaryAfter(cursor,size);
+        }
+        return userService.listSummary(Math.max(1, page),size);
     }
 }
@@ -21,6 +21,7 @@ public class Dictionary implements Serializable {
     private String id;
     private String name;
     private String code;
+    private String value;
     private Integer sort;
     private String pid;
     private Integer Status;
@@ -61,6 +62,14 @@ public class Dictionary implements Serializable {
         this.code = code;
     }
 
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
     public Integer getSort() {
         return sort;
     }
@@ -0,0 +1,63 @@
+package com.dygstudio.myblog.service.entity;
+
+import com.dygstudio.myblog.service.common.SearchResult;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 〈功能概述〉
+ * 首页数据，包含首页各组件需要的作者信息（AuthorInfo）、分类树（CategoryInfo）、热门内容（TopComments）
+ * 某个数据源超时或失败时对应的字段为空，失败原因记录在 failures 中，其余数据照常返回
+ *
+ * @className: HomePage
+ * @package: com.dygstudio.myblog.service.entity
+ * @author: diyaguang
+ * @date: 2020/9/16 2:20 下午
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HomePage {
+    private UserSummary author;
+    private List<Dictionary> categories;
+    private SearchResult topContent;
+    //数据源名称 -> 失败原因，全部成功时为空
+    private Map<String, String> failures = new LinkedHashMap<>();
+
+    public boolean isPartial() {
+        return !failures.isEmpty();
+    }
+
+    public UserSummary getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(UserSummary author) {
+        this.author = author;
+    }
+
+    public List<Dictionary> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(List<Dictionary> categories) {
+        this.categories = categories;
+    }
+
+    public SearchResult getTopContent() {
+        return topContent;
+    }
+
+    public void setTopContent(SearchResult topContent) {
+        this.topContent = topContent;
+    }
+
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(Map<String, String> failures) {
+        this.failures = failures;
+    }
+}
@@ -0,0 +1,94 @@
+package com.dygstudio.myblog.service.entity;
+
+import java.io.Serializable;
+
+/**
+ * 〈功能概述〉
+ * 用户列表使用的用户摘要，只包含列表展示需要的列，不包含密码、简介、联系方式等字段
+ *
+ * @className: UserSummary
+ * @package: com.dygstudio.myblog.service.entity
+ * @author: diyaguang
+ * @date: 2020/9/11 2:20 下午
+ */
+public class UserSummary implements Serializable {
+    //查询时只读取这些列
+    public final static String[] COLUMNS = {"id", "LoginName", "Name", "HandPic", "Industry", "Professional", "City"};
+
+    private String id;
+    private String loginName;
+    private String name;
+    private String handPic;
+    private String industry;
+    private String professional;
+    private String city;
+
+    public UserSummary() {
+    }
+
+    public UserSummary(User user) {
+        this.id = user.getId();
+        this.loginName = user.getLoginName();
+        this.name = user.getName();
+        this.handPic = user.getHandPic();
+        this.industry = user.getIndustry();
+        this.professional = user.getProfessional();
+        this.city = user.getCity();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getLoginName() {
+        return loginName;
+    }
+
+    public void setLoginName(String loginName) {
+        this.loginName = loginName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHandPic() {
+        return handPic;
+    }
+
+    public void setHandPic(String handPic) {
+        this.handPic = handPic;
+    }
+
+    public String getIndustry() {
+        return industry;
+    }
+
+    public void setIndustry(String industry) {
+        this.industry = industry;
+    }
+
+    public String getProfessional() {
+        return professional;
+    }
+
+    public void setProfessional(String professional) {
+        this.professional = professional;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public void setCity(String city) {
+        this.city = city;
+    }
+}
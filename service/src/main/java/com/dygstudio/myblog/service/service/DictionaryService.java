@@ -13,4 +13,7 @@ public interface DictionaryService extends IService<Dictionary> {
     Dictionary getDictionaryById(String id);
     Dictionary getDictionaryByValue(String value);
     List<Dictionary> getDictionaryByPId(String pid);
+    Dictionary getDictionaryByCode(String code);
+    //重新加载字典缓存，直接修改数据库中的字典后调用
+    void refreshDictionary();
 }
@@ -0,0 +1,8 @@
+package com.dygstudio.myblog.service.service;
+
+import com.dygstudio.myblog.service.entity.HomePage;
+
+public interface HomeService {
+    //并行查询首页数据，authorLoginName 为空时使用配置的作者
+    HomePage getHomePage(String authorLoginName);
+}
@@ -1,9 +1,17 @@
 package com.dygstudio.myblog.service.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.dygstudio.myblog.service.common.PageResult;
 import com.dygstudio.myblog.service.entity.User;
+import com.dygstudio.myblog.service.entity.UserSummary;
 import org.springframework.stereotype.Service;
 
 @Service
 public interface UserService extends IService<User> {
+    //按页码分页查询用户摘要，返回总数
+    PageResult<UserSummary> listSummary(long page, long size);
+    //按 id 游标分页查询用户摘要，lastId 为上一页最后一个用户的 id，第一页为空，深分页时不需要跳过前面的行
+    PageResult<UserSummary> listSummaryAfter(String lastId, long size);
+    //按登录名查询用户摘要，不存在时返回 null
+    UserSummary getSummaryByLoginName(String loginName);
 }
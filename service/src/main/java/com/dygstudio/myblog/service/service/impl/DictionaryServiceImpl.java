@@ -1,15 +1,39 @@
 package com.dygstudio.myblog.service.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dygstudio.myblog.service.entity.Dictionary;
 import com.dygstudio.myblog.service.mapper.DictionaryMapper;
 import com.dygstudio.myblog.service.service.DictionaryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 〈功能概述〉
+ * 字典服务，所有查询都由内存中的字典树快照提供，不再每次请求查询数据库
+ * 首次查询时加载全部字典，构建不可变的树和按 id、code、value、pid 的哈希索引；定时刷新，或通过本服务写入字典后立即刷新
+ * 本服务的所有写入方法（单条、批量、按条件）都会触发刷新，在事务中写入时等事务提交后再刷新，回滚时不刷新
+ * 刷新时先构建新的快照，再整体替换，查询方始终看到完整一致的快照
+ * 返回的对象和列表由所有请求共享，调用方不能修改
  *
  * @className: DictionaryServiceImpl
  * @package: com.dygstudio.myblog.service.service.impl
@@ -18,19 +42,248 @@ import java.util.List;
  */
 @Service
 public class DictionaryServiceImpl extends ServiceImpl<DictionaryMapper, Dictionary> implements DictionaryService {
-    public  List<Dictionary> getAllDictionary(){
-        return null;
+    private static final Logger log = LoggerFactory.getLogger(DictionaryServiceImpl.class);
+
+    //定时刷新间隔，单位毫秒，0 表示只在写入后刷新
+    @Value("${dictionary.refreshIntervalMillis:300000}")
+    private long refreshIntervalMillis;
+
+    private volatile DictionaryTree tree;
+    private ScheduledExecutorService scheduler;
+
+    /*
+     * 字典树快照，构建完成后不再修改
+     */
+    static class DictionaryTree {
+        final List<Dictionary> all;
+        final List<Dictionary> top;
+        final Map<String, Dictionary> byId;
+        final Map<String, Dictionary> byCode;
+        final Map<String, Dictionary> byValue;
+        final Map<String, List<Dictionary>> byPid;
+
+        DictionaryTree(List<Dictionary> rows) {
+            List<Dictionary> nodes = new ArrayList<>(rows.size());
+            Map<String, Dictionary> ids = new HashMap<>();
+            Map<String, Dictionary> codes = new HashMap<>();
+            Map<String, Dictionary> values = new HashMap<>();
+            Map<String, List<Dictionary>> pids = new HashMap<>();
+            List<Dictionary> tops = new ArrayList<>();
+            //复制一份，避免快照被数据库查询结果的持有者修改
+            for (Dictionary row : rows) {
+                Dictionary node = copyOf(row);
+                nodes.add(node);
+                ids.put(node.getId(), node);
+                if (node.getCode() != null) {
+                    codes.putIfAbsent(node.getCode(), node);
+                }
+                if (node.getValue() != null) {
+                    values.putIfAbsent(node.getValue(), node);
+                }
+                if (node.getPid() == null || node.getPid().isEmpty()) {
+                    tops.add(node);
+                } else {
+                    pids.computeIfAbsent(node.getPid(), key -> new ArrayList<>()).add(node);
+                }
+            }
+            Comparator<Dictionary> bySort = Comparator.comparing(Dictionary::getSort, Comparator.nullsLast(Comparator.naturalOrder()));
+            Map<String, List<Dictionary>> children = new HashMap<>();
+            for (Map.Entry<String, List<Dictionary>> entry : pids.entrySet()) {
+                entry.getValue().sort(bySort);
+                children.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+            }
+            for (Dictionary node : nodes) {
+                node.setChilds(children.getOrDefault(node.getId(), Collections.emptyList()));
+            }
+            nodes.sort(bySort);
+            tops.sort(bySort);
+            this.all = Collections.unmodifiableList(nodes);
+            this.top = Collections.unmodifiableList(tops);
+            this.byId = ids;
+            this.byCode = codes;
+            this.byValue = values;
+            this.byPid = children;
+        }
+
+        private static Dictionary copyOf(Dictionary row) {
+            Dictionary node = new Dictionary();
+            node.setId(row.getId());
+            node.setName(row.getName());
+            node.setCode(row.getCode());
+            node.setValue(row.getValue());
+            node.setSort(row.getSort());
+            node.setPid(row.getPid());
+            node.setStatus(row.getStatus());
+            node.setIsDel(row.getIsDel());
+            return node;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (refreshIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dictionary-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    //还没有被使用过的字典不需要定时加载
+                    if (tree != null) {
+                        refreshDictionary();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private DictionaryTree getTree() {
+        DictionaryTree current = tree;
+        if (current == null) {
+            synchronized (this) {
+                current = tree;
+                if (current == null) {
+                    current = load();
+                }
+            }
+        }
+        return current;
+    }
+
+    /*
+     * 重新加载全部字典并替换快照，加载失败时保留原来的快照
+     */
+    @Override
+    public void refreshDictionary() {
+        load();
+    }
+
+    private synchronized DictionaryTree load() {
+        DictionaryTree loaded = new DictionaryTree(baseMapper.selectList(null));
+        tree = loaded;
+        log.info("dictionary loaded, size is " + loaded.all.size());
+        return loaded;
+    }
+
+    public List<Dictionary> getAllDictionary(){
+        return getTree().all;
     }
     public List<Dictionary> getByTopDictionary(){
-        return null;
+        return getTree().top;
     }
     public Dictionary getDictionaryById(String id){
-        return null;
+        return id == null ? null : getTree().byId.get(id);
     }
     public Dictionary getDictionaryByValue(String value){
-        return null;
+        return value == null ? null : getTree().byValue.get(value);
+    }
+    @Override
+    public Dictionary getDictionaryByCode(String code){
+        return code == null ? null : getTree().byCode.get(code);
     }
     public List<Dictionary> getDictionaryByPId(String pid){
-        return null;
+        return pid == null ? getTree().top : getTree().byPid.getOrDefault(pid, Collections.emptyList());
+    }
+
+    /* 通过本服务写入字典后刷新快照，覆盖 IService 的所有写入方法，不带批次大小的默认方法会调用这里带批次大小的方法 */
+    @Override
+    public boolean save(Dictionary entity) {
+        return refreshIf(super.save(entity));
+    }
+
+    @Override
+    public boolean saveBatch(Collection<Dictionary> entityList, int batchSize) {
+        return refreshIf(super.saveBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean saveOrUpdate(Dictionary entity) {
+        return refreshIf(super.saveOrUpdate(entity));
+    }
+
+    @Override
+    public boolean saveOrUpdateBatch(Collection<Dictionary> entityList, int batchSize) {
+        return refreshIf(super.saveOrUpdateBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean updateById(Dictionary entity) {
+        return refreshIf(super.updateById(entity));
+    }
+
+    @Override
+    public boolean update(Dictionary entity, Wrapper<Dictionary> updateWrapper) {
+        return refreshIf(super.update(entity, updateWrapper));
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<Dictionary> entityList, int batchSize) {
+        return refreshIf(super.updateBatchById(entityList, batchSize));
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        return refreshIf(super.removeById(id));
+    }
+
+    @Override
+    public boolean removeByIds(Collection<? extends Serializable> idList) {
+        return refreshIf(super.removeByIds(idList));
+    }
+
+    @Override
+    public boolean removeByMap(Map<String, Object> columnMap) {
+        return refreshIf(super.removeByMap(columnMap));
+    }
+
+    @Override
+    public boolean remove(Wrapper<Dictionary> queryWrapper) {
+        return refreshIf(super.remove(queryWrapper));
+    }
+
+    private boolean refreshIf(boolean changed) {
+        if (changed) {
+            refreshAfterCommit();
+        }
+        return changed;
+    }
+
+    /*
+     * 没有事务时立即刷新；在事务中写入时，事务提交后再刷新，避免快照读到之后被回滚的数据
+     * 同一个事务中多次写入只在提交后刷新一次
+     */
+    private void refreshAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refreshDictionary();
+            return;
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof RefreshAfterCommit) {
+                return;
+            }
+        }
+        TransactionSynchronizationManager.registerSynchronization(new RefreshAfterCommit());
+    }
+
+    private class RefreshAfterCommit extends TransactionSynchronizationAdapter {
+        @Override
+        public void afterCommit() {
+            //事务已经提交，刷新失败不影响调用方，保留原来的快照，等待下次写入或定时刷新
+            try {
+                refreshDictionary();
+            } catch (Exception e) {
+                log.error("dictionary refresh after commit failed", e);
+            }
+        }
     }
 }
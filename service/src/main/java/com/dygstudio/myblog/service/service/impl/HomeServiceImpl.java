@@ -0,0 +1,146 @@
+package com.dygstudio.myblog.service.service.impl;
+
+import com.dygstudio.myblog.service.common.EsDeadline;
+import com.dygstudio.myblog.service.common.EsQuery;
+import com.dygstudio.myblog.service.common.EsSearch;
+import com.dygstudio.myblog.service.common.EsUtil;
+import com.dygstudio.myblog.service.common.SearchResult;
+import com.dygstudio.myblog.service.common.SysConstant;
+import com.dygstudio.myblog.service.config.HomeProperties;
+import com.dygstudio.myblog.service.entity.Dictionary;
+import com.dygstudio.myblog.service.entity.HomePage;
+import com.dygstudio.myblog.service.entity.UserSummary;
+import com.dygstudio.myblog.service.service.DictionaryService;
+import com.dygstudio.myblog.service.service.HomeService;
+import com.dygstudio.myblog.service.service.UserService;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 〈功能概述〉
+ * 首页数据服务，作者信息（MySQL）、分类树（字典）、热门内容（ES）同时查询，耗时为最慢的数据源，而不是各数据源之和
+ * MySQL 和字典查询在有界线程池中执行，ES 搜索本身是异步的，不占用线程池
+ * 每个数据源的超时时间从请求开始计算，超时、失败或线程池已满的数据源返回空，失败原因记录在 HomePage.failures 中
+ *
+ * @className: HomeServiceImpl
+ * @package: com.dygstudio.myblog.service.service.impl
+ * @author: diyaguang
+ * @date: 2020/9/16 2:30 下午
+ */
+@Service
+public class HomeServiceImpl implements HomeService {
+
+    @Resource
+    private HomeProperties homeProperties;
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private DictionaryService dictionaryService;
+
+    @Resource
+    private EsUtil esUtil;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(homeProperties.getThreads(), homeProperties.getThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(homeProperties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "home-fanout-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public HomePage getHomePage(String authorLoginName) {
+        long start = System.currentTimeMillis();
+        String loginName = authorLoginName == null || authorLoginName.isEmpty()
+                ? homeProperties.getAuthorLoginName() : authorLoginName;
+        HomePage homePage = new HomePage();
+
+        //先发出所有查询，再依次等待结果；结果只在当前线程写入 homePage，超时后才返回的查询不会再修改它
+        Future<UserSummary> author = submit(homePage, "author", () -> userService.getSummaryByLoginName(loginName));
+        Future<List<Dictionary>> categories = submit(homePage, "categories", dictionaryService::getByTopDictionary);
+        //截止时间与等待结果的时间相同，ES 服务端在截止时间前返回已经得到的结果
+        EsQuery topQuery = EsQuery.of(homeProperties.getTopContentIndex())
+                .lenient()
+                .size(homeProperties.getTopContentSize())
+                .sort(homeProperties.getTopContentSortField(), SortOrder.DESC)
+                .trackTotalHits(false)
+                .deadline(EsDeadline.at(start + homeProperties.getTopContentTimeoutMillis()));
+        CompletableFuture<SearchResult> topContent = new EsSearch().executeSearchRequestAsync(topQuery, esUtil);
+
+        homePage.setAuthor(await(homePage, "author", author, start + homeProperties.getAuthorTimeoutMillis()));
+        homePage.setCategories(await(homePage, "categories", categories, start + homeProperties.getCategoryTimeoutMillis()));
+        SearchResult result = await(homePage, "topContent", topContent, start + homeProperties.getTopContentTimeoutMillis());
+        if (result != null) {
+            if (SysConstant.RESULT_CODE_SUCCESSFUL.equals(result.getCode())) {
+                homePage.setTopContent(result);
+            } else {
+                homePage.getFailures().put("topContent", result.getMsg());
+            }
+        }
+        return homePage;
+    }
+
+    private <T> Future<T> submit(HomePage homePage, String source, Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            homePage.getFailures().put(source, "rejected");
+            return null;
+        }
+    }
+
+    /*
+     * 等待到 deadline 为止，返回查询结果；超时则取消查询，失败原因记录到 homePage 中并返回 null
+     */
+    private <T> T await(HomePage homePage, String source, Future<T> future, long deadline) {
+        if (future == null) {
+            return null;
+        }
+        String failure;
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            failure = "timeout";
+        } catch (ExecutionException e) {
+            failure = String.valueOf(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            failure = "interrupted";
+        }
+        EsUtil.log.info("home source " + source + " failed: " + failure);
+        homePage.getFailures().put(source, failure);
+        return null;
+    }
+}
@@ -1,11 +1,20 @@
 package com.dygstudio.myblog.service.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dygstudio.myblog.service.common.PageResult;
 import com.dygstudio.myblog.service.entity.User;
+import com.dygstudio.myblog.service.entity.UserSummary;
 import com.dygstudio.myblog.service.mapper.UserMapper;
 import com.dygstudio.myblog.service.service.UserService;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 〈功能概述〉
  *
@@ -16,4 +25,45 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements UserService {
+
+    /* 分页由 MyBatisPlusConfig 中注册的 PaginationInterceptor 完成，只查询 UserSummary 需要的列 */
+    @Override
+    @Cacheable(cacheNames = "userSummaryPage", key = "#page + ':' + #size", sync = true)
+    public PageResult<UserSummary> listSummary(long page, long size) {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().select(UserSummary.COLUMNS).orderByAsc("id");
+        IPage<User> result = page(new Page<>(page, size), wrapper);
+        return new PageResult<>(result.getTotal(), toSummaries(result.getRecords()));
+    }
+
+    /* 游标分页，条件为 id > lastId，不统计总数，也不需要 offset 跳过前面的行，翻到多深的页耗时都一样 */
+    @Override
+    public PageResult<UserSummary> listSummaryAfter(String lastId, long size) {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().select(UserSummary.COLUMNS)
+                .gt(lastId != null && !lastId.isEmpty(), "id", lastId)
+                .orderByAsc("id");
+        IPage<User> result = page(new Page<>(1, size, false), wrapper);
+        List<UserSummary> summaries = toSummaries(result.getRecords());
+        PageResult<UserSummary> pageResult = new PageResult<>(summaries);
+        if (summaries.size() == size) {
+            pageResult.setCursor(summaries.get(summaries.size() - 1).getId());
+        }
+        return pageResult;
+    }
+
+    @Override
+    public UserSummary getSummaryByLoginName(String loginName) {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().select(UserSummary.COLUMNS)
+                .eq("LoginName", loginName)
+                .last("limit 1");
+        User user = getOne(wrapper, false);
+        return user == null ? null : new UserSummary(user);
+    }
+
+    private static List<UserSummary> toSummaries(List<User> users) {
+        List<UserSummary> summaries = new ArrayList<>(users.size());
+        for (User user : users) {
+            summaries.add(new UserSummary(user));
+        }
+        return summaries;
+    }
 }
@@ -0,0 +1,86 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 统计结果的精确性判断和缓存，不启动 Spring 容器
+ *
+ * @className: CountResultTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 11:20 上午
+ */
+class CountResultTest {
+
+    private EsSearchCache cache;
+
+    @BeforeEach
+    void setUp() {
+        EsProperties esProperties = new EsProperties();
+        esProperties.getSearchCache().setRefreshDelayMillis(0);
+        cache = new EsSearchCache();
+        ReflectionTestUtils.setField(cache, "esProperties", esProperties);
+        cache.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    private static SearchResponse countResponse(long count, TotalHits.Relation relation, boolean timedOut) {
+        SearchHits hits = new SearchHits(new SearchHit[0], new TotalHits(count, relation), Float.NaN);
+        InternalSearchResponse internal = new InternalSearchResponse(hits, null, null, null, timedOut, null, 1);
+        return new SearchResponse(internal, null, 1, 1, 0, 10, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    @Test
+    void countBelowThresholdIsExact() {
+        CountResult result = CountResult.from(countResponse(25, TotalHits.Relation.EQUAL_TO, false));
+        assertTrue(result.isExact());
+        assertEquals(25, result.getCount());
+        assertEquals("25", result.getDisplay());
+    }
+
+    @Test
+    void countAtThresholdIsLowerBound() {
+        CountResult result = CountResult.from(countResponse(1000, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO, false));
+        assertFalse(result.isExact());
+        assertEquals("1000+", result.getDisplay());
+    }
+
+    @Test
+    void timedOutCountIsInexactAndNotCached() {
+        SearchRequest request = new SearchRequest("posts").source(new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("message", "test")).size(0));
+        String key = cache.countKeyOf(request);
+        //超时返回的 relation 仍为 eq，但只是已经统计到的部分
+        CountResult result = CountResult.from(countResponse(25, TotalHits.Relation.EQUAL_TO, true));
+        assertFalse(result.isExact());
+        assertEquals("25+", result.getDisplay());
+        cache.putCount(key, result);
+        assertNull(cache.getCount(key));
+
+        cache.putCount(key, CountResult.from(countResponse(25, TotalHits.Relation.EQUAL_TO, false)));
+        assertEquals("25", cache.getCount(key).getDisplay());
+    }
+}
@@ -0,0 +1,179 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 死信文件的重放，不启动 Spring 容器
+ * 使用 JDK 自带的 HttpServer 模拟 ES 的 _bulk 接口，按顺序返回预先设置的响应
+ *
+ * @className: EsBulkFailureHandlerTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 11:00 上午
+ */
+class EsBulkFailureHandlerTest {
+
+    //第 1 条不可重试（400），第 2 条可重试（429）
+    private static final String PARTIAL_FAILURE = "{\"took\":1,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"posts\",\"_type\":\"_doc\",\"_id\":\"0\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"bad\"}}},"
+            + "{\"index\":{\"_index\":\"posts\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"busy\"}}}]}";
+    private static final String SUCCESS = "{\"took\":1,\"errors\":false,\"items\":["
+            + "{\"index\":{\"_index\":\"posts\",\"_type\":\"_doc\",\"_id\":\"0\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+            + "{\"index\":{\"_index\":\"posts\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1,\"status\":201}}]}";
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    //_bulk 接口按顺序返回的响应，body 为 null 时返回 500
+    private final List<String> responses = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger bulkCalls = new AtomicInteger();
+    private EsSearchCache searchCache;
+    private EsUtil esUtil;
+    private EsBulkFailureHandler handler;
+    private Path deadLetters;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/_bulk", exchange -> {
+            bulkCalls.incrementAndGet();
+            String body = responses.isEmpty() ? null : responses.remove(0);
+            byte[] bytes = (body == null ? "{}" : body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(body == null ? 500 : 200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+
+        EsProperties esProperties = new EsProperties();
+        deadLetters = dir.resolve("dead-letter.ndjson");
+        esProperties.getBulk().setDeadLetterPath(deadLetters.toString());
+        esProperties.getBulk().setBulkActions(2);
+        esProperties.getBulk().setBackoffInitialDelay(1);
+        esProperties.getSearchCache().setRefreshDelayMillis(0);
+
+        searchCache = new EsSearchCache();
+        ReflectionTestUtils.setField(searchCache, "esProperties", esProperties);
+        searchCache.init();
+        EsMetrics metrics = new EsMetrics();
+        ReflectionTestUtils.setField(metrics, "esProperties", esProperties);
+
+        esUtil = new EsUtil();
+        ReflectionTestUtils.setField(esUtil, "esProperties", esProperties);
+        ReflectionTestUtils.setField(esUtil, "commonOptions", RequestOptions.DEFAULT);
+        esUtil.searchCache = searchCache;
+        esUtil.metrics = metrics;
+        esUtil.restHighLevelClient = new RestHighLevelClient(RestClient.builder(
+                new HttpHost("127.0.0.1", server.getAddress().getPort())));
+
+        handler = new EsBulkFailureHandler();
+        ReflectionTestUtils.setField(handler, "esProperties", esProperties);
+        ReflectionTestUtils.setField(handler, "esUtil", esUtil);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        esUtil.restHighLevelClient.close();
+        searchCache.close();
+        server.stop(0);
+    }
+
+    private void deadLetterTwo() {
+        for (int i = 0; i < 2; i++) {
+            handler.deadLetter(new IndexRequest("posts").id(String.valueOf(i)).source("{\"n\":" + i + "}", XContentType.JSON), null, "test");
+        }
+    }
+
+    private List<String> idsInDeadLetters() throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (String line : Files.readAllLines(deadLetters, StandardCharsets.UTF_8)) {
+            ids.add(line.replaceAll(".*\"id\":\"([^\"]*)\".*", "$1"));
+        }
+        return ids;
+    }
+
+    @Test
+    void replayWritesEverythingAndDeletesFile() throws IOException {
+        deadLetterTwo();
+        responses.add(SUCCESS);
+        EsBulkFailureHandler.BulkOutcome outcome = handler.replay();
+        assertEquals(2, outcome.getTotal());
+        assertEquals(2, outcome.getSucceeded());
+        assertFalse(Files.exists(deadLetters));
+        assertFalse(Files.exists(dir.resolve("dead-letter.ndjson.replaying")));
+    }
+
+    @Test
+    void failedRetryDeadLettersEachItemOnce() throws IOException {
+        deadLetterTwo();
+        //第一次请求部分失败，400 的失败项直接写入死信文件，429 的重试请求出错
+        responses.add(PARTIAL_FAILURE);
+        responses.add(null);
+        EsBulkFailureHandler.BulkOutcome outcome = handler.replay();
+        assertEquals(2, bulkCalls.get());
+        assertEquals(2, outcome.getDeadLettered());
+        assertEquals(1, outcome.getRetried());
+        //两条记录各写回一次，400 的失败项不会随整批再写回一次
+        List<String> ids = idsInDeadLetters();
+        Collections.sort(ids);
+        assertEquals(Arrays.asList("0", "1"), ids);
+        assertFalse(Files.exists(dir.resolve("dead-letter.ndjson.replaying")));
+    }
+
+    @Test
+    void failedFirstRequestWritesBatchBack() throws IOException {
+        deadLetterTwo();
+        handler.deadLetter(new IndexRequest("posts").id("2").source("{\"n\":2}", XContentType.JSON), null, "test");
+        //第一批请求出错，当前批次和还没有读取的记录都写回死信文件
+        responses.add(null);
+        assertThrows(Exception.class, () -> handler.replay());
+        assertEquals(1, bulkCalls.get());
+        assertEquals(Arrays.asList("0", "1", "2"), idsInDeadLetters());
+        assertFalse(Files.exists(dir.resolve("dead-letter.ndjson.replaying")));
+    }
+
+    @Test
+    void invalidLinesAreSkipped() throws IOException {
+        deadLetterTwo();
+        Files.write(deadLetters, "not json\n{\"index\":\"posts\"}\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        responses.add(SUCCESS);
+        EsBulkFailureHandler.BulkOutcome outcome = handler.replay();
+        assertEquals(2, outcome.getTotal());
+        assertEquals(1, bulkCalls.get());
+        assertTrue(responses.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 请求截止时间换算为 ES 服务端超时时间，以及调用线程按截止时间等待，不启动 Spring 容器
+ *
+ * @className: EsDeadlineTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 10:50 上午
+ */
+class EsDeadlineTest {
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void serverTimeoutIsRemainingMinusMargin() {
+        long remaining = 1000;
+        EsDeadline deadline = EsDeadline.in(remaining);
+        long millis = deadline.serverTimeout(null, 20).millis();
+        assertTrue(millis <= remaining - 20, "timeout " + millis);
+        //测试线程调度的延迟不会超过 500 毫秒
+        assertTrue(millis > remaining - 20 - 500, "timeout " + millis);
+    }
+
+    @Test
+    void shorterConfiguredTimeoutIsKept() {
+        TimeValue timeout = TimeValue.timeValueMillis(100);
+        assertSame(timeout, EsDeadline.in(10000).serverTimeout(timeout, 20));
+    }
+
+    @Test
+    void longerConfiguredTimeoutIsClamped() {
+        long millis = EsDeadline.in(1000).serverTimeout(TimeValue.timeValueSeconds(30), 20).millis();
+        assertTrue(millis <= 980, "timeout " + millis);
+    }
+
+    @Test
+    void expiredDeadlineGivesMinimalTimeout() {
+        EsDeadline deadline = EsDeadline.at(System.currentTimeMillis() - 1000);
+        assertTrue(deadline.isExpired());
+        assertEquals(1, deadline.serverTimeout(TimeValue.timeValueSeconds(2), 20).millis());
+        //剩余时间小于预留时间时也不会为 0 或负数
+        assertEquals(1, EsDeadline.in(10).serverTimeout(null, 20).millis());
+    }
+
+    @Test
+    void latestPicksLatestOrNone() {
+        EsDeadline early = EsDeadline.in(100);
+        EsDeadline late = EsDeadline.in(500);
+        assertSame(late, EsDeadline.latest(Arrays.asList(early, late)));
+        //其中有请求没有截止时间时，合并后的请求也不设截止时间
+        assertNull(EsDeadline.latest(Arrays.asList(early, null, late)));
+    }
+
+    @Test
+    void awaitGivesUpAtDeadline() {
+        //模拟没有响应的节点，Future 一直不完成
+        CompletableFuture<String> future = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        assertThrows(TimeoutException.class, () -> EsDeadline.in(100).await(future, scheduler));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 90 && waited < 600, "waited " + waited);
+        //到期后 Future 已经完成，之后返回的响应不再有人等待
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void awaitReturnsResultAndOriginalFailure() throws Exception {
+        assertEquals("ok", EsDeadline.in(1000).await(CompletableFuture.completedFuture("ok"), scheduler));
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("node down"));
+        assertThrows(IOException.class, () -> EsDeadline.in(1000).await(failed, scheduler));
+    }
+
+    @Test
+    void executeWaitsAtMostUntilDeadline() {
+        EsUtil esUtil = new EsUtil();
+        esUtil.deadlineScheduler = scheduler;
+        //监听器一直不被调用，模拟没有响应的 ES 节点
+        long start = System.currentTimeMillis();
+        assertThrows(TimeoutException.class, () -> esUtil.<String>execute(listener -> {
+        }, EsDeadline.in(100)));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 90 && waited < 600, "waited " + waited);
+    }
+
+    @Test
+    void executeUnwrapsListenerFailure() throws Exception {
+        EsUtil esUtil = new EsUtil();
+        esUtil.deadlineScheduler = scheduler;
+        assertEquals("ok", esUtil.<String>execute(listener -> listener.onResponse("ok"), null));
+        //没有截止时间时同样抛出原始异常，而不是 ExecutionException
+        assertThrows(IOException.class, () -> esUtil.<String>execute(listener -> listener.onFailure(new IOException("node down")), null));
+        assertThrows(IOException.class, () -> esUtil.<String>execute(listener -> listener.onFailure(new IOException("node down")), EsDeadline.in(1000)));
+    }
+}
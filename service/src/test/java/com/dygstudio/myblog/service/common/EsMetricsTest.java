@@ -0,0 +1,70 @@
+package com.dygstudio.myblog.service.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 〈功能概述〉
+ * 请求指标按请求路径解析操作名称和索引名称，不启动 Spring 容器
+ *
+ * @className: EsMetricsTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 2:10 下午
+ */
+class EsMetricsTest {
+
+    @Test
+    void operationFromFirstUnderscoreSegment() {
+        assertEquals("search", EsMetrics.operationOf("POST", "/posts/_search"));
+        assertEquals("msearch", EsMetrics.operationOf("POST", "/_msearch"));
+        assertEquals("bulk", EsMetrics.operationOf("POST", "/_bulk"));
+        assertEquals("count", EsMetrics.operationOf("POST", "/posts,user/_count"));
+        assertEquals("update", EsMetrics.operationOf("POST", "/posts/_update/1"));
+        assertEquals("settings", EsMetrics.operationOf("GET", "/posts/_settings/index.number_of_shards"));
+    }
+
+    @Test
+    void scrollIsSeparatedFromSearch() {
+        assertEquals("scroll", EsMetrics.operationOf("POST", "/_search/scroll"));
+        assertEquals("clear_scroll", EsMetrics.operationOf("DELETE", "/_search/scroll"));
+    }
+
+    @Test
+    void documentOperationsByMethod() {
+        assertEquals("get", EsMetrics.operationOf("GET", "/posts/_doc/1"));
+        assertEquals("delete", EsMetrics.operationOf("DELETE", "/posts/_doc/1"));
+        assertEquals("exists", EsMetrics.operationOf("HEAD", "/posts/_doc/1"));
+        assertEquals("index", EsMetrics.operationOf("PUT", "/posts/_doc/1"));
+        assertEquals("index", EsMetrics.operationOf("POST", "/posts/_doc"));
+        assertEquals("index", EsMetrics.operationOf("PUT", "/posts/_create/1"));
+    }
+
+    @Test
+    void indexManagementWithoutUnderscoreSegment() {
+        assertEquals("info", EsMetrics.operationOf("GET", "/"));
+        assertEquals("create_index", EsMetrics.operationOf("PUT", "/posts"));
+        assertEquals("delete_index", EsMetrics.operationOf("DELETE", "/posts"));
+        assertEquals("exists_index", EsMetrics.operationOf("HEAD", "/posts"));
+        assertEquals("get_index", EsMetrics.operationOf("GET", "/posts"));
+    }
+
+    @Test
+    void indexFromFirstSegment() {
+        assertEquals("posts", EsMetrics.indexOf("/posts/_search"));
+        assertEquals("posts", EsMetrics.indexOf("/posts"));
+        assertEquals("posts,user", EsMetrics.indexOf("/posts,user/_search"));
+        assertEquals("posts", EsMetrics.indexOf("posts/_doc/1"));
+        //路径中的索引名称是 URL 编码的
+        assertEquals("post*", EsMetrics.indexOf("/post%2A/_search"));
+        assertEquals("bad%zz", EsMetrics.indexOf("/bad%zz/_search"));
+    }
+
+    @Test
+    void noIndexForClusterLevelPaths() {
+        assertEquals("-", EsMetrics.indexOf("/"));
+        assertEquals("-", EsMetrics.indexOf("/_bulk"));
+        assertEquals("-", EsMetrics.indexOf("/_search/scroll"));
+    }
+}
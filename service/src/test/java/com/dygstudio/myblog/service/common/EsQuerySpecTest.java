@@ -0,0 +1,65 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 〈功能概述〉
+ * 接口传入的搜索条件（EsQuery.Spec）的索引名称检查和条数限制，不启动 Spring 容器
+ *
+ * @className: EsQuerySpecTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 2:30 下午
+ */
+class EsQuerySpecTest {
+
+    private static EsQuery.Spec spec(String index) {
+        EsQuery.Spec spec = new EsQuery.Spec();
+        spec.setIndex(index);
+        return spec;
+    }
+
+    @Test
+    void explicitIndicesAreAllowed() {
+        assertNull(spec("posts").validate());
+        assertNull(spec("posts, user").validate());
+    }
+
+    @Test
+    void indexIsRequired() {
+        assertEquals("index is required", spec(null).validate());
+        assertEquals("index is required", spec(" ").validate());
+    }
+
+    @Test
+    void broadOrSystemIndicesAreRejected() {
+        assertEquals("index [_all] is not allowed", spec("_all").validate());
+        assertEquals("index [post*] is not allowed", spec("post*").validate());
+        assertEquals("index [post?] is not allowed", spec("posts,post?").validate());
+        assertEquals("index [.security] is not allowed", spec(".security").validate());
+        assertEquals("index [-posts] is not allowed", spec("posts,-posts").validate());
+        assertEquals("index [] is not allowed", spec("posts,,user").validate());
+    }
+
+    @Test
+    void toQueryRejectsInvalidSpec() {
+        assertThrows(IllegalArgumentException.class, () -> spec("*").toQuery());
+    }
+
+    @Test
+    void toQueryTrimsIndicesAndClampsSize() {
+        EsQuery.Spec spec = spec("posts , user");
+        spec.setFrom(-5);
+        spec.setSize(EsQuery.Spec.MAX_SIZE + 1000);
+        SearchRequest request = spec.toQuery().build();
+        assertArrayEquals(new String[]{"posts", "user"}, request.indices());
+        assertEquals(0, request.source().from());
+        assertEquals(EsQuery.Spec.MAX_SIZE, request.source().size());
+    }
+}
@@ -0,0 +1,120 @@
+package com.dygstudio.myblog.service.common;
+
+import com.dygstudio.myblog.service.config.EsProperties;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 〈功能概述〉
+ * 搜索结果缓存键的规范化和索引版本号，不启动 Spring 容器
+ *
+ * @className: EsSearchCacheTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 10:10 上午
+ */
+class EsSearchCacheTest {
+
+    private EsSearchCache cache;
+
+    @BeforeEach
+    void setUp() {
+        EsProperties esProperties = new EsProperties();
+        //不延迟增加版本号，写入后只增加一次
+        esProperties.getSearchCache().setRefreshDelayMillis(0);
+        cache = new EsSearchCache();
+        ReflectionTestUtils.setField(cache, "esProperties", esProperties);
+        cache.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    private static SearchRequest search(TimeValue timeout, String... indices) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("message", "test"))
+                .from(0)
+                .size(10);
+        if (timeout != null) {
+            source.timeout(timeout);
+        }
+        return new SearchRequest(indices).source(source);
+    }
+
+    @Test
+    void normalizeSortsFieldsAtEveryLevel() throws Exception {
+        String a = EsSearchCache.normalize("{\"size\":10,\"query\":{\"match\":{\"message\":{\"query\":\"test\",\"operator\":\"OR\"}}},\"from\":0}");
+        String b = EsSearchCache.normalize("{\"from\":0,\"query\":{\"match\":{\"message\":{\"operator\":\"OR\",\"query\":\"test\"}}},\"size\":10}");
+        assertEquals(a, b);
+    }
+
+    @Test
+    void normalizeDropsTimeout() throws Exception {
+        assertEquals(EsSearchCache.normalize("{\"size\":10}"), EsSearchCache.normalize("{\"timeout\":\"2s\",\"size\":10}"));
+    }
+
+    @Test
+    void keyIgnoresTimeoutAndIndexOrder() {
+        String key = cache.keyOf(search(null, "posts", "user"));
+        assertNotNull(key);
+        assertEquals(key, cache.keyOf(search(TimeValue.timeValueMillis(500), "posts", "user")));
+        assertEquals(key, cache.keyOf(search(TimeValue.timeValueSeconds(2), "user", "posts")));
+    }
+
+    @Test
+    void keyDiffersForDifferentQuery() {
+        SearchRequest other = search(null, "posts");
+        other.source().size(20);
+        assertNotEquals(cache.keyOf(search(null, "posts")), cache.keyOf(other));
+    }
+
+    @Test
+    void keyDiffersForDifferentIndicesOptions() {
+        //忽略不存在索引的搜索结果不能返回给不忽略的搜索
+        SearchRequest lenient = search(null, "posts");
+        lenient.indicesOptions(IndicesOptions.lenientExpandOpen());
+        SearchRequest strict = search(null, "posts");
+        strict.indicesOptions(IndicesOptions.strictExpandOpen());
+        assertNotEquals(cache.keyOf(lenient), cache.keyOf(strict));
+        assertNotEquals(cache.countKeyOf(lenient), cache.countKeyOf(strict));
+    }
+
+    @Test
+    void writeBumpsGenerationOfThatIndexOnly() {
+        String posts = cache.keyOf(search(null, "posts"));
+        String user = cache.keyOf(search(null, "user"));
+        cache.invalidate("posts");
+        assertNotEquals(posts, cache.keyOf(search(null, "posts")));
+        assertEquals(user, cache.keyOf(search(null, "user")));
+    }
+
+    @Test
+    void writeToAnyIndexBumpsWildcardSearches() {
+        String wildcard = cache.keyOf(search(null, "post*"));
+        String all = cache.keyOf(search(null));
+        cache.invalidate("posts");
+        assertNotEquals(wildcard, cache.keyOf(search(null, "post*")));
+        assertNotEquals(all, cache.keyOf(search(null)));
+    }
+
+    @Test
+    void scrollSearchIsNotCached() {
+        SearchRequest request = search(null, "posts");
+        request.scroll(TimeValue.timeValueMinutes(1));
+        assertNull(cache.keyOf(request));
+    }
+}
@@ -0,0 +1,81 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 〈功能概述〉
+ * 游标分页（search_after）游标的编码和解码、排序和截止时间，不启动 Spring 容器
+ *
+ * @className: EsSearchCursorTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 10:30 上午
+ */
+class EsSearchCursorTest {
+
+    @Test
+    void cursorRoundTrip() throws IOException {
+        //排序值为 发布时间（毫秒时间戳）+ 文档ID
+        Object[] sortValues = new Object[]{1600000000000L, "doc-1"};
+        String cursor = EsSearch.encodeCursor(sortValues);
+        assertArrayEquals(sortValues, EsSearch.decodeCursor(cursor));
+    }
+
+    @Test
+    void cursorIsUrlSafe() throws IOException {
+        String cursor = EsSearch.encodeCursor(new Object[]{1600000000000L, "a/b+c?d=e"});
+        assertFalse(cursor.matches(".*[+/=].*"), cursor);
+    }
+
+    @Test
+    void cursorBecomesSearchAfter() throws IOException {
+        String cursor = EsSearch.encodeCursor(new Object[]{1600000000000L, "doc-1"});
+        SearchRequest request = new EsSearch().buildSearchAfterRequest("posts", "message", "test", 10, cursor);
+        assertArrayEquals(new Object[]{1600000000000L, "doc-1"}, request.source().searchAfter());
+    }
+
+    @Test
+    void tiebreakerUsesDocValuesField() throws IOException {
+        //不能按 _id 排序，否则 ES 会把 _id 的 fielddata 加载到堆内存
+        SearchRequest request = new EsSearch().buildSearchAfterRequest("posts", null, null, 10, null);
+        List<SortBuilder<?>> sorts = request.source().sorts();
+        assertEquals(2, sorts.size());
+        assertEquals(EsSearch.SEARCH_AFTER_SORT_FIELD, ((FieldSortBuilder) sorts.get(0)).getFieldName());
+        FieldSortBuilder tiebreaker = (FieldSortBuilder) sorts.get(1);
+        assertEquals(SysConstant.ES_DOC_ID_FIELD, tiebreaker.getFieldName());
+        assertEquals("keyword", tiebreaker.unmappedType());
+    }
+
+    @Test
+    void firstPageHasNoSearchAfter() throws IOException {
+        SearchRequest request = new EsSearch().buildSearchAfterRequest("posts", null, null, 10, "");
+        assertNull(request.source().searchAfter());
+    }
+
+    @Test
+    void expiredDeadlineIsNotSent() {
+        //没有创建客户端，请求发出时会出错，到期的请求应当在发出前返回
+        EsDeadline expired = EsDeadline.at(System.currentTimeMillis() - 1000);
+        PageResult<SearchResult.Hit> result = new EsSearch().executeSearchAfterRequest("posts", null, null, 10, null, expired, new EsUtil());
+        assertEquals(SysConstant.RESULT_CODE_FAILURE, result.getCode());
+        assertEquals("execute search after request error :deadline exceeded", result.getMsg());
+        assertNull(result.getCursor());
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EsSearch.decodeCursor("not base64!"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.dygstudio.myblog.service.common;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 慢搜索重新执行 profile 时使用的搜索内容，不启动 Spring 容器
+ *
+ * @className: EsSlowSearchLogTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 3:30 下午
+ */
+class EsSlowSearchLogTest {
+
+    private static SearchSourceBuilder slowSearch() {
+        return new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("message", "test"))
+                .from(10)
+                .size(20)
+                .fetchSource(new String[]{"title"}, null)
+                //按截止时间缩短后的超时
+                .timeout(TimeValue.timeValueMillis(1));
+    }
+
+    @Test
+    void profileRunUsesSearchFastTimeout() {
+        SearchSourceBuilder source = EsSlowSearchLog.profileSourceOf(slowSearch(), TimeValue.timeValueSeconds(2));
+        assertEquals(TimeValue.timeValueSeconds(2), source.timeout());
+        //没有配置 search-fast 超时时不设置超时
+        assertNull(EsSlowSearchLog.profileSourceOf(slowSearch(), null).timeout());
+    }
+
+    @Test
+    void profileRunKeepsQueryAndSkipsFetch() {
+        SearchSourceBuilder original = slowSearch();
+        SearchSourceBuilder source = EsSlowSearchLog.profileSourceOf(original, null);
+        assertTrue(source.profile());
+        assertEquals(original.query(), source.query());
+        assertEquals(10, source.from());
+        assertEquals(20, source.size());
+        assertFalse(source.fetchSource().fetchSource());
+        //原来的请求对象不被修改
+        assertFalse(original.profile());
+        assertEquals(TimeValue.timeValueMillis(1), original.timeout());
+    }
+}
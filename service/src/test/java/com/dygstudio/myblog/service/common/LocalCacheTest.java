@@ -0,0 +1,158 @@
+package com.dygstudio.myblog.service.common;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 本地缓存的容量淘汰、过期和并发读写，不启动 Spring 容器
+ *
+ * @className: LocalCacheTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 3:00 下午
+ */
+class LocalCacheTest {
+
+    private static long stat(LocalCache cache, String name) {
+        return ((Number) cache.getStats().get(name)).longValue();
+    }
+
+    private static int queueSize(LocalCache cache) {
+        return ((Queue<?>) ReflectionTestUtils.getField(cache, "evictionQueue")).size();
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        LocalCache cache = new LocalCache(0, 60000);
+        cache.put("a", "1", 1);
+        assertNull(cache.get("a"));
+        assertEquals(0, stat(cache, "size"));
+    }
+
+    @Test
+    void readEntriesSurviveEviction() {
+        LocalCache cache = new LocalCache(3, 60000);
+        cache.put("a", "1", 1);
+        cache.put("b", "2", 1);
+        cache.put("c", "3", 1);
+        //a 被读取过，超过容量时淘汰最早写入且没有被读取的 b
+        assertNotNull(cache.get("a"));
+        cache.put("d", "4", 1);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3, stat(cache, "weight"));
+        assertEquals(1, stat(cache, "evictions"));
+    }
+
+    @Test
+    void weightIsByValueSize() {
+        LocalCache cache = new LocalCache(100, 60000);
+        cache.put("a", "1", 60);
+        cache.put("b", "2", 30);
+        cache.put("c", "3", 30);
+        assertNull(cache.get("a"));
+        assertEquals(60, stat(cache, "weight"));
+        //单个值超过容量上限时不放入
+        cache.put("big", "x", 101);
+        assertNull(cache.get("big"));
+        //同一个键再次写入时按新的权重计算
+        cache.put("b", "2", 10);
+        assertEquals(40, stat(cache, "weight"));
+        assertEquals("2", cache.get("b").value);
+    }
+
+    @Test
+    void expiredEntryIsRemovedOnRead() throws InterruptedException {
+        LocalCache cache = new LocalCache(10, 20);
+        cache.put("a", "1", 1);
+        assertNotNull(cache.get("a"));
+        Thread.sleep(40);
+        assertNull(cache.get("a"));
+        assertEquals(0, stat(cache, "size"));
+        assertEquals(0, stat(cache, "weight"));
+    }
+
+    @Test
+    void evictAndClear() {
+        LocalCache cache = new LocalCache(10, 60000);
+        cache.put("a", "1", 2);
+        cache.put("b", "2", 3);
+        cache.evict("a");
+        assertNull(cache.get("a"));
+        assertEquals(3, stat(cache, "weight"));
+        cache.clear();
+        assertNull(cache.get("b"));
+        assertEquals(0, stat(cache, "size"));
+        assertEquals(0, stat(cache, "weight"));
+    }
+
+    @Test
+    void removedEntriesDoNotPileUpInQueue() {
+        //一直没有超过容量，不会执行淘汰，删除的节点也要被清理
+        LocalCache cache = new LocalCache(1000000, 60000);
+        for (int i = 0; i < 10000; i++) {
+            cache.put("k" + (i % 10), i, 1);
+            cache.evict("k" + (i % 10));
+        }
+        assertTrue(queueSize(cache) <= 10 + 64 + 1, "queue " + queueSize(cache));
+        //同一个键反复写入时只占一个节点
+        for (int i = 0; i < 10000; i++) {
+            cache.put("same", i, 1);
+        }
+        assertEquals(1, stat(cache, "size"));
+        assertTrue(queueSize(cache) <= 10 + 64 + 2, "queue " + queueSize(cache));
+    }
+
+    @Test
+    void concurrentReadsAndWritesKeepWeightConsistent() throws Exception {
+        LocalCache cache = new LocalCache(100, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20000; i++) {
+                        String key = "k" + random.nextInt(300);
+                        int op = random.nextInt(10);
+                        if (op < 6) {
+                            cache.get(key);
+                        } else if (op < 9) {
+                            cache.put(key, i, 1 + random.nextInt(3));
+                        } else {
+                            cache.evict(key);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long weight = stat(cache, "weight");
+        assertTrue(weight <= 100, "weight " + weight);
+        //逐个删除后权重回到 0，说明并发写入时权重没有算错
+        cache.clear();
+        assertEquals(0, stat(cache, "weight"));
+        assertEquals(0, stat(cache, "size"));
+    }
+}
@@ -0,0 +1,258 @@
+package com.dygstudio.myblog.service.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 〈功能概述〉
+ * 两级缓存的单飞加载、XFetch 提前刷新和 Redis 值头部，不启动 Spring 容器
+ * Redis 用内存中的 RedisCacheWriter 代替
+ *
+ * @className: TwoLevelCacheTest
+ * @package: com.dygstudio.myblog.service.common
+ * @author: diyaguang
+ * @date: 2020/9/19 11:40 上午
+ */
+class TwoLevelCacheTest {
+
+    private static final int WAITERS = 4;
+
+    /*
+     * 内存中的 RedisCacheWriter，键为 Redis 键的字符串形式，不处理过期
+     */
+    static class MemoryCacheWriter implements RedisCacheWriter {
+        final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+        @Override
+        public void put(String name, byte[] key, byte[] value, Duration ttl) {
+            values.put(new String(key, StandardCharsets.UTF_8), value);
+        }
+
+        @Override
+        public byte[] get(String name, byte[] key) {
+            return values.get(new String(key, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+            return values.putIfAbsent(new String(key, StandardCharsets.UTF_8), value);
+        }
+
+        @Override
+        public void remove(String name, byte[] key) {
+            values.remove(new String(key, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void clean(String name, byte[] pattern) {
+            values.clear();
+        }
+    }
+
+    private final JacksonRedisSerializer serializer = new JacksonRedisSerializer(JacksonRedisSerializer.FORMAT_JSON, "java.lang.String");
+    private MemoryCacheWriter writer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        writer = new MemoryCacheWriter();
+        executor = Executors.newFixedThreadPool(WAITERS + 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private TwoLevelCache cache(boolean allowNullValues, double earlyRefreshBeta) {
+        return new TwoLevelCache("test", "", allowNullValues, writer, serializer, Duration.ofMinutes(10), 0.1,
+                earlyRefreshBeta, new LocalCache(1024 * 1024, 60000), (cacheName, key) -> {
+        });
+    }
+
+    private static long loadWaits(TwoLevelCache cache) {
+        return (Long) cache.getStats().get("loadWaits");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> loading(TwoLevelCache cache) {
+        return (Map<String, ?>) ReflectionTestUtils.getField(cache, "loading");
+    }
+
+    //等待其他线程都进入等待同一个加载结果
+    private static void awaitWaiters(TwoLevelCache cache) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loadWaits(cache) < WAITERS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(WAITERS, loadWaits(cache));
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        TwoLevelCache cache = cache(false, 0);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> cache.get("hot", () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "value";
+        })));
+        //第一个线程开始加载后其他线程再读取
+        long deadline = System.currentTimeMillis() + 5000;
+        while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(executor.submit(() -> cache.get("hot", () -> {
+                calls.incrementAndGet();
+                return "other";
+            })));
+        }
+        awaitWaiters(cache);
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertTrue(loading(cache).isEmpty());
+    }
+
+    @Test
+    void loadFailureReachesEveryWaiterAndIsNotRemembered() throws Exception {
+        TwoLevelCache cache = cache(false, 0);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> cache.get("hot", () -> {
+            calls.incrementAndGet();
+            release.await();
+            throw new IOException("db down");
+        })));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(executor.submit(() -> cache.get("hot", () -> "other")));
+        }
+        awaitWaiters(cache);
+        release.countDown();
+        for (Future<String> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof Cache.ValueRetrievalException, String.valueOf(e.getCause()));
+            assertTrue(e.getCause().getCause() instanceof IOException, String.valueOf(e.getCause().getCause()));
+        }
+        //失败不会留在 loading 中，下一次读取重新加载
+        assertTrue(loading(cache).isEmpty());
+        assertEquals("retry", cache.get("hot", () -> "retry"));
+    }
+
+    @Test
+    void valueIsStoredWithHeader() {
+        TwoLevelCache cache = cache(false, 0);
+        long before = System.currentTimeMillis();
+        cache.put("k", "v");
+        byte[] bytes = writer.values.get("test::k");
+        byte[] payload = serializer.serialize("v");
+        assertEquals(17 + payload.length, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertEquals(0, buffer.get());
+        long expireAt = buffer.getLong();
+        //10 分钟上下浮动 10%
+        assertTrue(expireAt >= before + 540000 && expireAt <= System.currentTimeMillis() + 660000, "expireAt " + expireAt);
+        assertEquals(0, buffer.getLong());
+        byte[] rest = new byte[payload.length];
+        buffer.get(rest);
+        assertArrayEquals(payload, rest);
+
+        //其他节点（本地缓存为空）从 Redis 读取
+        assertEquals("v", cache(false, 0).get("k", String.class));
+    }
+
+    @Test
+    void legacyValueWithoutHeaderIsRead() {
+        writer.values.put("test::old", serializer.serialize("legacy"));
+        TwoLevelCache cache = cache(false, 1);
+        AtomicInteger calls = new AtomicInteger();
+        //没有头部的值过期时间未知，不参与提前刷新
+        for (int i = 0; i < 100; i++) {
+            assertEquals("legacy", cache.get("old", () -> {
+                calls.incrementAndGet();
+                return "new";
+            }));
+        }
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void nullValues() {
+        TwoLevelCache cache = cache(true, 0);
+        cache.put("none", null);
+        assertEquals(17, writer.values.get("test::none").length);
+        Cache.ValueWrapper wrapper = cache(true, 0).get("none");
+        assertNull(wrapper.get());
+        //不允许缓存空值时，Redis 中遗留的空值按未命中处理
+        assertNull(cache(false, 0).get("none"));
+    }
+
+    @Test
+    void earlyRefresh() {
+        TwoLevelCache cache = cache(false, 1);
+        long now = System.currentTimeMillis();
+        //已经过期的值总是刷新
+        assertTrue(cache.shouldRefreshEarly(new TwoLevelCache.Envelope("v", now - 1, 10)));
+        //离过期还很远、加载很快的值不刷新
+        assertFalse(cache.shouldRefreshEarly(new TwoLevelCache.Envelope("v", now + 86400000, 1)));
+        //过期时间未知的旧值、关闭提前刷新时都不刷新
+        assertFalse(cache.shouldRefreshEarly(new TwoLevelCache.Envelope("v", 0, 1000)));
+        assertFalse(cache(false, 0).shouldRefreshEarly(new TwoLevelCache.Envelope("v", now - 1, 10)));
+    }
+
+    @Test
+    void earlyRefreshIsMoreLikelyForSlowLoads() {
+        TwoLevelCache cache = cache(false, 1);
+        long expireAt = System.currentTimeMillis() + 1000;
+        int fast = 0;
+        int slow = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (cache.shouldRefreshEarly(new TwoLevelCache.Envelope("v", expireAt, 10))) {
+                fast++;
+            }
+            if (cache.shouldRefreshEarly(new TwoLevelCache.Envelope("v", expireAt, 1000))) {
+                slow++;
+            }
+        }
+        //加载 10ms 时概率约为 e^-100，加载 1000ms 时约为 e^-1
+        assertTrue(fast < 10, "fast " + fast);
+        assertTrue(slow > 200, "slow " + slow);
+    }
+}